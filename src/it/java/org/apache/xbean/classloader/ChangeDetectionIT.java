@@ -0,0 +1,45 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+
+import org.apache.xbean.classloader.ChangeDetectionPolicy.BackgroundPolicy;
+import org.apache.xbean.classloader.TstUtils.StatCountingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Benchmark that performs entry lookups against a {@link NonLockingJarFile} using each {@link ChangeDetectionPolicy}
+ * and prints the number of <tt>stat</tt> calls along with the lookup throughput.
+ */
+public class ChangeDetectionIT {
+
+	private static final int LOOKUPS = 1000000;
+
+	@Test
+	public void compareChangeDetectionPolicies() throws Exception {
+		File file = TstUtils.createTempJarFile();
+		BackgroundPolicy background = ChangeDetectionPolicy.background(1000);
+		try {
+			time(file, ChangeDetectionPolicy.ALWAYS);
+			time(file, ChangeDetectionPolicy.interval(100));
+			time(file, background);
+			time(file, ChangeDetectionPolicy.NEVER);
+		} finally {
+			background.destroy();
+			TstUtils.deleteTempFile(file);
+		}
+	}
+
+	private void time(File file, ChangeDetectionPolicy policy) throws Exception {
+		StatCountingFile countingFile = new StatCountingFile(file);
+		NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+		jarFile.setChangeDetectionPolicy(policy);
+		long startTime = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			Assert.assertNotNull(jarFile.getJarEntry(TstUtils.SAMPLE_JAR_CLASS));
+		}
+		long total = System.nanoTime() - startTime;
+		System.out.println(policy + ": " + LOOKUPS + " lookups in " + (total / 1000000) + "ms with "
+				+ countingFile.getStatCount() + " stat calls");
+	}
+}
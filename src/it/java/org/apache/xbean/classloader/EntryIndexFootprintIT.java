@@ -0,0 +1,60 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Measures the retained heap of the {@link NonLockingJarFile} entry index using JOL. The previous index, a
+ * {@link LinkedHashMap} holding a {@link JarEntry} per entry, is rebuilt here so that the footprint before and after
+ * can be compared on the same JVM.
+ */
+public class EntryIndexFootprintIT {
+
+	private static final int PACKAGES = 20;
+	private static final int ENTRIES_PER_PACKAGE = 1000;
+
+	@Test
+	public void reportFootprint() throws Exception {
+		GeneratedClassPath classPath = new ClassPathGenerator(0, new Profile(1, PACKAGES, ENTRIES_PER_PACKAGE))
+				.generate(TstUtils.createTempDir());
+		try {
+			File file = classPath.getFiles().get(0);
+			long before = GraphLayout.parseInstance(createEntryMap(file)).totalSize();
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+			long after = GraphLayout.parseInstance(centralDirectory).totalSize();
+			int entries = centralDirectory.getSize();
+			System.out.println("LinkedHashMap<String, JarEntry> index for " + entries + " entries: " + before
+					+ " bytes (" + (before / entries) + " bytes/entry)");
+			System.out.println("ZipCentralDirectory index for " + entries + " entries: " + after + " bytes ("
+					+ (after / entries) + " bytes/entry)");
+			Assert.assertTrue(after < before);
+		} finally {
+			classPath.delete();
+		}
+	}
+
+	private Map<String, JarEntry> createEntryMap(File file) throws Exception {
+		Map<String, JarEntry> entries = new LinkedHashMap<String, JarEntry>();
+		JarFile jarFile = new JarFile(file);
+		try {
+			for (Enumeration<JarEntry> enumeration = jarFile.entries(); enumeration.hasMoreElements();) {
+				// copy the entry so that the enclosing JarFile is not included in the measurement
+				JarEntry entry = new JarEntry(enumeration.nextElement());
+				entries.put(entry.getName(), entry);
+			}
+		} finally {
+			jarFile.close();
+		}
+		return entries;
+	}
+}
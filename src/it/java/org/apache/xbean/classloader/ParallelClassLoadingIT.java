@@ -0,0 +1,95 @@
+package org.apache.xbean.classloader;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Stress test that loads unrelated classes from multiple threads and prints the throughput for each thread count. With
+ * per class name locking the throughput should increase with the number of threads until the available processors are
+ * saturated. Every class must be loaded exactly once and be defined by the class loader under test.
+ */
+public class ParallelClassLoadingIT {
+
+	private static final int PACKAGES = 20;
+	private static final int CLASSES_PER_PACKAGE = 500;
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+	private static final long TIMEOUT_SECONDS = 120;
+
+	@Test
+	public void loadClassesInParallel() throws Exception {
+		GeneratedClassPath classPath = new ClassPathGenerator(0, new Profile(1, PACKAGES, CLASSES_PER_PACKAGE))
+				.generate(TstUtils.createTempDir());
+		try {
+			List<String> classNames = classPath.getClassNames();
+			URL[] urls = classPath.getUrls();
+			for (int i = 0; i < THREADS.length; i++) {
+				time("JarFileClassLoader", new JarFileClassLoader("test", urls), classNames, THREADS[i]);
+				time("NonLockingJarFileClassLoader", new NonLockingJarFileClassLoader("test", urls), classNames,
+						THREADS[i]);
+			}
+		} finally {
+			classPath.delete();
+		}
+	}
+
+	private void time(String name, final JarFileClassLoader classLoader, List<String> classNames, int threads)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final ConcurrentMap<String, Class<?>> loadedClasses = new ConcurrentHashMap<String, Class<?>>();
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int thread = 0; thread < threads; thread++) {
+				final List<String> share = new ArrayList<String>();
+				for (int i = thread; i < classNames.size(); i += threads) {
+					share.add(classNames.get(i));
+				}
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						Assert.assertTrue(start.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+						for (String className : share) {
+							Class<?> loadedClass = classLoader.loadClass(className);
+							Assert.assertEquals(className, loadedClass.getName());
+							Assert.assertSame(classLoader, loadedClass.getClassLoader());
+							Assert.assertNull(className, loadedClasses.putIfAbsent(className, loadedClass));
+						}
+						return Integer.valueOf(share.size());
+					}
+				}));
+			}
+			long startTime = System.nanoTime();
+			start.countDown();
+			int loaded = 0;
+			for (Future<Integer> result : results) {
+				loaded += result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).intValue();
+			}
+			long total = System.nanoTime() - startTime;
+			Assert.assertEquals(classNames.size(), loaded);
+			Assert.assertEquals(classNames.size(), loadedClasses.size());
+			for (String className : classNames) {
+				// a class defined more than once would not be the instance returned by the class loader
+				Assert.assertSame(className, loadedClasses.get(className), classLoader.loadClass(className));
+			}
+			System.out.println(name + " loaded " + loaded + " classes with " + threads + " threads in "
+					+ (total / 1000000) + "ms (" + (loaded * 1000000000L / total) + " classes/s)");
+		} finally {
+			executor.shutdownNow();
+			Assert.assertTrue(executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			classLoader.destroy();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarFile;
+
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Reports the size and measured false positive rate of the {@link ResourceNameFilter} for each location of a generated
+ * class path, along with the time taken to look up missing resources with and without the filter.
+ */
+public class ResourceNameFilterIT {
+
+	private static final int LOOKUPS = 1000;
+
+	@Test
+	public void reportResourceNameFilters() throws Exception {
+		GeneratedClassPath classPath = new ClassPathGenerator(0, Profile.medium()).generate(TstUtils.createTempDir());
+		List<ResourceLocation> filtered = new ArrayList<ResourceLocation>();
+		List<ResourceLocation> unfiltered = new ArrayList<ResourceLocation>();
+		try {
+			long bytes = 0;
+			int names = 0;
+			int falsePositives = 0;
+			for (File file : classPath.getFiles()) {
+				ResourceNameFilter filter;
+				if (file.isDirectory()) {
+					DirectoryResourceLocation location = new DirectoryResourceLocation(file);
+					location.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+					filter = location.getResourceNameFilter();
+					filtered.add(location);
+					DirectoryResourceLocation unfilteredLocation = new DirectoryResourceLocation(file);
+					unfilteredLocation.setChangeDetectionPolicy(ChangeDetectionPolicy.ALWAYS);
+					unfiltered.add(unfilteredLocation);
+				} else {
+					JarResourceLocation location = new JarResourceLocation(file.toURI().toURL(), new JarFile(file));
+					location.getPackageNames();
+					filter = location.getResourceNameFilter();
+					filtered.add(location);
+					// not indexed so no filter is used
+					unfiltered.add(new JarResourceLocation(file.toURI().toURL(), new JarFile(file)));
+				}
+				bytes += filter.getByteSize();
+				names += filter.getNameCount();
+				for (int i = 0; i < LOOKUPS; i++) {
+					falsePositives += (filter.mightContain("generated/missing/Missing" + i + ".class") ? 1 : 0);
+				}
+			}
+			int lookups = LOOKUPS * filtered.size();
+			System.out.println(filtered.size() + " locations with " + names + " names, " + (bytes / filtered.size())
+					+ " filter bytes per location, false positive rate " + ((double) falsePositives / lookups));
+			Assert.assertTrue(falsePositives < lookups * 0.02);
+			for (int i = 0; i < 3; i++) {
+				time("Without filters", unfiltered);
+				time("With filters", filtered);
+			}
+		} finally {
+			for (ResourceLocation location : filtered) {
+				location.close();
+			}
+			for (ResourceLocation location : unfiltered) {
+				location.close();
+			}
+			classPath.delete();
+		}
+	}
+
+	private void time(String name, List<ResourceLocation> locations) {
+		long startTime = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			for (ResourceLocation location : locations) {
+				Assert.assertNull(location.getResourceHandle("generated/m0/p0/Missing" + i + ".class"));
+			}
+		}
+		long total = System.nanoTime() - startTime;
+		System.out.println(name + ": " + (LOOKUPS * locations.size()) + " missing lookups in " + (total / 1000000)
+				+ "ms");
+	}
+}
@@ -0,0 +1,163 @@
+package org.apache.xbean.classloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * JMH benchmarks comparing {@link JarFileClassLoader}, {@link NonLockingJarFileClassLoader} and a plain
+ * {@link URLClassLoader} baseline over class paths of different sizes created by the {@link ClassPathGenerator}. Use
+ * {@link ClassLoadingBenchmarkRunner} to run the benchmarks at each thread count.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ClassLoadingBenchmark {
+
+	private static final long SEED = 0;
+
+	@Param({ "small", "medium", "large" })
+	public String profile;
+
+	@Param({ "URLClassLoader", "JarFileClassLoader", "NonLockingJarFileClassLoader" })
+	public String loader;
+
+	private GeneratedClassPath classPath;
+
+	private URL[] urls;
+
+	private String[] classNames;
+
+	private String[] resourceNames;
+
+	private ClassLoader classLoader;
+
+	@Setup(Level.Trial)
+	public void createClassPath() throws IOException {
+		classPath = new ClassPathGenerator(SEED, getProfile()).generate(TstUtils.createTempDir());
+		urls = classPath.getUrls();
+		classNames = classPath.getClassNames().toArray(new String[0]);
+		resourceNames = classPath.getClassResourceNames().toArray(new String[0]);
+	}
+
+	private Profile getProfile() {
+		if ("small".equals(profile)) {
+			return Profile.small();
+		} else if ("medium".equals(profile)) {
+			return Profile.medium();
+		} else if ("large".equals(profile)) {
+			return Profile.large();
+		}
+		throw new IllegalArgumentException("Unknown profile " + profile);
+	}
+
+	@Setup(Level.Iteration)
+	public void createClassLoader() {
+		// the parent of the application class loader keeps the benchmark classes out of parent lookups
+		ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		if ("URLClassLoader".equals(loader)) {
+			classLoader = new URLClassLoader(urls, parent);
+		} else if ("JarFileClassLoader".equals(loader)) {
+			classLoader = new JarFileClassLoader("benchmark", urls, parent);
+		} else if ("NonLockingJarFileClassLoader".equals(loader)) {
+			classLoader = new NonLockingJarFileClassLoader("benchmark", urls, parent);
+		} else {
+			throw new IllegalArgumentException("Unknown loader " + loader);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void destroyClassLoader() throws IOException {
+		if (classLoader instanceof DestroyableClassLoader) {
+			((DestroyableClassLoader) classLoader).destroy();
+		} else {
+			((URLClassLoader) classLoader).close();
+		}
+		classLoader = null;
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteClassPath() {
+		classPath.delete();
+	}
+
+	/**
+	 * Loads every class on the class path using a new class loader, the work is shared between the benchmark threads.
+	 * Measures the time to define all classes, each class load performs a <tt>findClass</tt>.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int loadAllClasses(ThreadParams threadParams) throws ClassNotFoundException {
+		int loaded = 0;
+		for (int i = threadParams.getThreadIndex(); i < classNames.length; i += threadParams.getThreadCount()) {
+			classLoader.loadClass(classNames[i]);
+			loaded++;
+		}
+		return loaded;
+	}
+
+	/**
+	 * Loads random classes that have usually already been defined, measures the cost of <tt>loadClass</tt> for
+	 * classes that are already loaded.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public Class<?> loadClass(RandomState random) throws ClassNotFoundException {
+		return classLoader.loadClass(classNames[random.nextInt(classNames.length)]);
+	}
+
+	/**
+	 * Finds random class resources, measures the lookup cost of <tt>findClass</tt> without defining the class.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public URL getResource(RandomState random) {
+		return classLoader.getResource(resourceNames[random.nextInt(resourceNames.length)]);
+	}
+
+	/**
+	 * Finds resources that do not exist, the most common lookup when a class path is searched.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public URL getMissingResource(RandomState random) {
+		return classLoader.getResource("benchmark/missing/M" + random.nextInt(classNames.length) + ".class");
+	}
+
+	/**
+	 * Per thread random numbers so that threads do not contend on a shared {@link Random}.
+	 */
+	@State(Scope.Thread)
+	public static class RandomState {
+
+		private final Random random = new Random(0);
+
+		public int nextInt(int bound) {
+			return random.nextInt(bound);
+		}
+	}
+}
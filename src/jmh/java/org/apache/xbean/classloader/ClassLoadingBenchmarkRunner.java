@@ -0,0 +1,38 @@
+package org.apache.xbean.classloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the {@link ClassLoadingBenchmark} at 1, 2, 4... threads up to the number of available processors. Arguments
+ * are passed to JMH, if a thread count is specified with <tt>-t</tt> only that count is used. Invoked by
+ * <tt>mvn -Pjmh test-compile exec:exec</tt>.
+ */
+public class ClassLoadingBenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		if (commandLineOptions.getThreads().hasValue()) {
+			threadCounts.add(commandLineOptions.getThreads().get());
+		} else {
+			int processors = Runtime.getRuntime().availableProcessors();
+			for (int threads = 1; threads < processors; threads *= 2) {
+				threadCounts.add(threads);
+			}
+			threadCounts.add(processors);
+		}
+		for (Integer threads : threadCounts) {
+			ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions).threads(threads);
+			if (commandLineOptions.getIncludes().isEmpty()) {
+				options.include(ClassLoadingBenchmark.class.getName());
+			}
+			new Runner(options.build()).run();
+		}
+	}
+}
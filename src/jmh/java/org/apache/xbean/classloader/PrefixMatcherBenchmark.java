@@ -0,0 +1,89 @@
+package org.apache.xbean.classloader;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks comparing the {@link PrefixMatcher} used for hidden and non-overridable class filters with a linear
+ * <tt>startsWith</tt> scan, for realistic filter sets of different sizes. Prefixes are a mix of package prefixes such
+ * as <tt>org.apache.commons.</tt> and individual class names, names are a mix of JDK, filtered and unfiltered classes.
+ * Run with <tt>mvn -Pjmh test-compile exec:exec -Djmh.args="-f 1 -t 1 PrefixMatcherBenchmark"</tt>.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PrefixMatcherBenchmark {
+
+	private static final String[] VENDORS = { "org.apache.", "org.springframework.", "org.eclipse.", "com.google.",
+			"com.fasterxml.", "io.netty.", "org.hibernate.", "javax.", "org.slf4j.", "ch.qos." };
+
+	private static final String[] MODULES = { "commons", "core", "util", "api", "impl", "io", "xml", "json", "logging",
+			"web", "jdbc", "tx", "context", "beans", "aop", "cache", "security", "http", "codec", "collections" };
+
+	private static final int NAMES = 1024;
+
+	@Param({ "0", "10", "100", "500" })
+	public int prefixCount;
+
+	private String[] prefixes;
+
+	private PrefixMatcher matcher;
+
+	private String[] names;
+
+	private int index;
+
+	@Setup
+	public void createPrefixes() {
+		Random random = new Random(0);
+		prefixes = new String[prefixCount];
+		for (int i = 0; i < prefixCount; i++) {
+			String prefix = VENDORS[random.nextInt(VENDORS.length)] + MODULES[random.nextInt(MODULES.length)] + i
+					+ ".";
+			// about one filter in five names a single class rather than a package
+			prefixes[i] = (random.nextInt(5) == 0 ? prefix + "Type" + i : prefix);
+		}
+		matcher = new PrefixMatcher(prefixes);
+		names = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			String packageName;
+			int kind = random.nextInt(3);
+			if (kind == 0) {
+				packageName = "java.util.";
+			} else if (kind == 1 && prefixCount > 0) {
+				packageName = prefixes[random.nextInt(prefixCount)];
+			} else {
+				packageName = VENDORS[random.nextInt(VENDORS.length)] + MODULES[random.nextInt(MODULES.length)] + "x.";
+			}
+			names[i] = packageName + "Type" + random.nextInt(100);
+		}
+	}
+
+	@Benchmark
+	public boolean prefixMatcher() {
+		return matcher.matches(nextName());
+	}
+
+	@Benchmark
+	public boolean startsWith() {
+		String name = nextName();
+		for (int i = 0; i < prefixes.length; i++) {
+			if (name.startsWith(prefixes[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String nextName() {
+		index = (index + 1) & (NAMES - 1);
+		return names[index];
+	}
+}
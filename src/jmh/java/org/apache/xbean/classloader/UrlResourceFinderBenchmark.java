@@ -0,0 +1,109 @@
+package org.apache.xbean.classloader;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.ClassLoadingBenchmark.RandomState;
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for building the class path of a {@link UrlResourceFinder}, for detecting duplicate URLs and for
+ * finding class resources, over class paths created by the {@link ClassPathGenerator}. Duplicates are new {@link URL}
+ * instances equal to the URLs already on the class path, as created by loaders that call <tt>addURL</tt> repeatedly.
+ * Run with <tt>mvn -Pjmh test-compile exec:exec -Djmh.args="-f 1 -t 1 -prof gc UrlResourceFinderBenchmark"</tt>, the
+ * <tt>gc.alloc.rate.norm</tt> of {@link #findClassResource} is the allocation per <tt>findClass</tt> lookup.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class UrlResourceFinderBenchmark {
+
+	private static final long SEED = 0;
+
+	@Param({ "small", "medium" })
+	public String profile;
+
+	private GeneratedClassPath classPath;
+
+	private URL[] urls;
+
+	private String[] resourceNames;
+
+	private UrlResourceFinder resourceFinder;
+
+	@Setup(Level.Trial)
+	public void createClassPath() throws IOException {
+		Profile profile = ("small".equals(this.profile) ? Profile.small() : Profile.medium());
+		classPath = new ClassPathGenerator(SEED, profile).generate(TstUtils.createTempDir());
+		urls = classPath.getUrls();
+		resourceNames = classPath.getClassResourceNames().toArray(new String[0]);
+		resourceFinder = new UrlResourceFinder(null, urls);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteClassPath() {
+		resourceFinder.destroy();
+		classPath.delete();
+	}
+
+	@Benchmark
+	public int buildClassPath() {
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, urls);
+		try {
+			return resourceFinder.getUrls().length;
+		} finally {
+			resourceFinder.destroy();
+		}
+	}
+
+	@Benchmark
+	public int addDuplicateUrls(DuplicateUrls duplicateUrls) {
+		resourceFinder.addUrls(duplicateUrls.urls);
+		return resourceFinder.getUrls().length;
+	}
+
+	/**
+	 * Finds random class resources the way that <tt>findClass</tt> does, reading only the code source of the handle.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public URL findClassResource(RandomState random) {
+		return resourceFinder.getResource(resourceNames[random.nextInt(resourceNames.length)]).getCodeSourceUrl();
+	}
+
+	/**
+	 * New URL instances equal to the class path URLs, created for each invocation so that only the benchmark that
+	 * uses them pays for the setup.
+	 */
+	@State(Scope.Thread)
+	public static class DuplicateUrls {
+
+		private List<URL> urls;
+
+		@Setup(Level.Invocation)
+		public void createDuplicateUrls(UrlResourceFinderBenchmark benchmark) throws MalformedURLException {
+			urls = new ArrayList<URL>(benchmark.urls.length);
+			for (URL url : benchmark.urls) {
+				urls.add(new URL(url.toExternalForm()));
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy used to decide when files should be checked for changes. Checking for changes requires a system call (for
+ * example {@link java.io.File#lastModified()}), this can be expensive when it happens for every lookup. Used by
+ * {@link NonLockingJarFile} to detect modified jars, by {@link UrlResourceFinder} to detect class path entries that
+ * appear after the class path was built and by {@link DirectoryResourceLocation} to detect new files.
+ *
+ * @see NonLockingJarFile#setChangeDetectionPolicy(ChangeDetectionPolicy)
+ * @see UrlResourceFinder#setChangeDetectionPolicy(ChangeDetectionPolicy)
+ * @see #setDefault(ChangeDetectionPolicy)
+ *
+ * @author Phillip Webb
+ */
+public abstract class ChangeDetectionPolicy {
+
+	/**
+	 * Check for changes every time that the jar file is accessed.
+	 */
+	public static final ChangeDetectionPolicy ALWAYS = new ChangeDetectionPolicy() {
+
+		public boolean isCheckRequired(long lastChecked) {
+			return true;
+		}
+
+		public String toString() {
+			return "ALWAYS";
+		}
+	};
+
+	/**
+	 * Never check for changes, suitable when jar files are not modified once deployed.
+	 * <p/>
+	 * The policy also applies to class path directories (see {@link DirectoryResourceLocation}), which are walked once
+	 * and never again. Files that are added to an exploded directory afterwards, for example classes compiled into it
+	 * by an IDE or a build, are never found. Existing files are still read from disk and are found after they change.
+	 */
+	public static final ChangeDetectionPolicy NEVER = new ChangeDetectionPolicy() {
+
+		public boolean isCheckRequired(long lastChecked) {
+			return false;
+		}
+
+		public String toString() {
+			return "NEVER";
+		}
+	};
+
+	private static volatile ChangeDetectionPolicy defaultPolicy = ALWAYS;
+
+	/**
+	 * Determine if the file should be checked for changes.
+	 * @param lastChecked the time that the file was last checked, in milliseconds since the epoch
+	 * @return <tt>true</tt> if the file should be checked
+	 */
+	public abstract boolean isCheckRequired(long lastChecked);
+
+	/**
+	 * Called when the policy is applied to an item, once the item has been constructed. The default implementation
+	 * does nothing.
+	 * @param checkable the item that uses the policy
+	 */
+	public void register(Checkable checkable) {
+	}
+
+	/**
+	 * Called when an item stops using the policy, because a different policy has been applied or the item has been
+	 * closed. The default implementation does nothing.
+	 * @param checkable the item that no longer uses the policy
+	 */
+	public void unregister(Checkable checkable) {
+	}
+
+	/**
+	 * Returns a policy that checks for changes when an item is accessed, but no more than once in the specified
+	 * interval.
+	 * @param interval the minimum interval between checks in milliseconds
+	 * @return the policy
+	 */
+	public static ChangeDetectionPolicy interval(final long interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("Interval must not be negative");
+		}
+		return new ChangeDetectionPolicy() {
+
+			public boolean isCheckRequired(long lastChecked) {
+				return System.currentTimeMillis() - lastChecked >= interval;
+			}
+
+			public String toString() {
+				return "INTERVAL(" + interval + "ms)";
+			}
+		};
+	}
+
+	/**
+	 * Returns a policy that never checks for changes when an item is accessed, instead all registered items are checked
+	 * from a single background thread. Registered items are only weakly referenced. The background thread is started
+	 * when the first item is registered and stopped by {@link BackgroundPolicy#destroy()}.
+	 * @param interval the interval between checks in milliseconds
+	 * @return the policy
+	 */
+	public static BackgroundPolicy background(long interval) {
+		return new BackgroundPolicy(interval);
+	}
+
+	/**
+	 * @return the policy applied to new {@link NonLockingJarFile}s and {@link UrlResourceFinder}s
+	 */
+	public static ChangeDetectionPolicy getDefault() {
+		return defaultPolicy;
+	}
+
+	/**
+	 * Set the policy applied to new {@link NonLockingJarFile}s and {@link UrlResourceFinder}s. Defaults to
+	 * {@link #ALWAYS}.
+	 * @param policy the default policy
+	 */
+	public static void setDefault(ChangeDetectionPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Policy must not be null");
+		}
+		defaultPolicy = policy;
+	}
+
+	/**
+	 * An item that can be checked for changes according to a {@link ChangeDetectionPolicy}.
+	 */
+	public static interface Checkable {
+
+		/**
+		 * @return the policy currently used by the item
+		 */
+		ChangeDetectionPolicy getChangeDetectionPolicy();
+
+		/**
+		 * Check the item for changes now.
+		 */
+		void checkForChanges();
+	}
+
+	/**
+	 * {@link ChangeDetectionPolicy} that checks for changes using a background thread.
+	 * <p/>
+	 * Registered items are held in a weak identity set, so registering and unregistering do not depend on the number of
+	 * registered items and items that are no longer used can be garbage collected. The background thread is created
+	 * when the first item is registered, without the context class loader or access control context of the
+	 * registering thread so that it does not keep the class loader of an application reachable.
+	 * @see ChangeDetectionPolicy#background(long)
+	 */
+	public static class BackgroundPolicy extends ChangeDetectionPolicy {
+
+		private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+			public Thread newThread(final Runnable runnable) {
+				return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+					public Thread run() {
+						Thread thread = new Thread(runnable, "NonLockingJarFile change detection");
+						thread.setDaemon(true);
+						thread.setContextClassLoader(null);
+						return thread;
+					}
+				});
+			}
+		};
+
+		private final long interval;
+
+		private final Set<Registration> registrations;
+
+		private final ReferenceQueue<Checkable> collected;
+
+		private ScheduledExecutorService executor;
+
+		private boolean destroyed;
+
+		BackgroundPolicy(long interval) {
+			if (interval <= 0) {
+				throw new IllegalArgumentException("Interval must be positive");
+			}
+			this.interval = interval;
+			this.registrations = new HashSet<Registration>();
+			this.collected = new ReferenceQueue<Checkable>();
+		}
+
+		public boolean isCheckRequired(long lastChecked) {
+			return false;
+		}
+
+		public synchronized void register(Checkable checkable) {
+			if (destroyed) {
+				throw new IllegalStateException("Policy has been destroyed");
+			}
+			removeCollected();
+			registrations.add(new Registration(checkable, collected));
+			if (executor == null) {
+				executor = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+				executor.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						checkForChanges();
+					}
+				}, interval, interval, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		public synchronized void unregister(Checkable checkable) {
+			removeCollected();
+			registrations.remove(new Registration(checkable, null));
+		}
+
+		private void removeCollected() {
+			for (Reference<? extends Checkable> reference = collected.poll(); reference != null; reference = collected
+					.poll()) {
+				registrations.remove(reference);
+			}
+		}
+
+		/**
+		 * @return the number of registered items, including any that have been garbage collected but not yet removed
+		 */
+		synchronized int getRegistrationCount() {
+			return registrations.size();
+		}
+
+		/**
+		 * Check all registered items for changes. Called periodically from the background thread.
+		 */
+		void checkForChanges() {
+			List<Checkable> registered = new ArrayList<Checkable>();
+			synchronized (this) {
+				for (Iterator<Registration> iterator = registrations.iterator(); iterator.hasNext();) {
+					Checkable checkable = iterator.next().get();
+					if (checkable == null || checkable.getChangeDetectionPolicy() != this) {
+						iterator.remove();
+					} else {
+						registered.add(checkable);
+					}
+				}
+			}
+			for (Checkable checkable : registered) {
+				try {
+					checkable.checkForChanges();
+				} catch (RuntimeException e) {
+					// keep checking the remaining items
+				}
+			}
+		}
+
+		/**
+		 * Stop the background thread. Registered items will no longer be checked for changes.
+		 */
+		public synchronized void destroy() {
+			destroyed = true;
+			registrations.clear();
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+
+		public String toString() {
+			return "BACKGROUND(" + interval + "ms)";
+		}
+
+		/**
+		 * A weak reference to a registered item that is compared by the identity of the item.
+		 */
+		private static final class Registration extends WeakReference<Checkable> {
+
+			private final int hashCode;
+
+			public Registration(Checkable checkable, ReferenceQueue<Checkable> queue) {
+				super(checkable, queue);
+				this.hashCode = System.identityHashCode(checkable);
+			}
+
+			public int hashCode() {
+				return hashCode;
+			}
+
+			public boolean equals(Object obj) {
+				if (obj == this) {
+					return true;
+				}
+				if (!(obj instanceof Registration)) {
+					return false;
+				}
+				Checkable checkable = get();
+				return checkable != null && checkable == ((Registration) obj).get();
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+/**
+ * An {@link IndexedResourceLocation} whose packages can change after it has been indexed, for example a jar that is
+ * replaced while it is read through a {@link NonLockingJarFile}. A {@link UrlResourceFinder} checks these locations
+ * according to its {@link ChangeDetectionPolicy} and rebuilds its {@link PackageIndex} when one of them has changed.
+ * 
+ * @author Phillip Webb
+ */
+public interface ChangeableResourceLocation extends IndexedResourceLocation {
+
+	/**
+	 * Returns if the packages of the location can change at all. Locations that cannot change are never checked.
+	 * @return <tt>true</tt> if the location can change
+	 */
+	boolean isChangeable();
+
+	/**
+	 * Check if the location has changed since its package names were last read. When it has the cached package names
+	 * are discarded, the next call to {@link #getPackageNames()} reads them again.
+	 * @return <tt>true</tt> if the location has changed and its package names were discarded
+	 */
+	boolean discardPackageNamesIfChanged();
+}
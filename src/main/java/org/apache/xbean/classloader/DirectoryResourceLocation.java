@@ -20,25 +20,154 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.Manifest;
 
 /**
  * Directory backed {@link ResourceLocation} implementation.
+ * <p/>
+ * Unless the {@link ChangeDetectionPolicy} is {@link ChangeDetectionPolicy#ALWAYS} lookups are filtered by a
+ * {@link ResourceNameFilter} built by walking the directory, so that misses do not need a file system call. Files added
+ * to the directory are not found until the policy next requires a check, at which point the directory is walked again.
+ * The walk happens without holding a lock, lookups made while it is in progress keep using the previous filter.
  * 
  * @author Dain Sundstrom
  */
-public class DirectoryResourceLocation extends AbstractUrlResourceLocation {
+public class DirectoryResourceLocation extends AbstractUrlResourceLocation implements ListableResourceLocation,
+		ChangeDetectionPolicy.Checkable {
 
 	private final File baseDir;
 	private boolean manifestLoaded = false;
 	private Manifest manifest;
+	private volatile ChangeDetectionPolicy changeDetectionPolicy;
+	private volatile long lastChecked;
+	private volatile ResourceNameFilter resourceNameFilter;
+	private final AtomicBoolean walking = new AtomicBoolean();
 
 	public DirectoryResourceLocation(File baseDir) throws MalformedURLException {
 		super(baseDir == null ? null : baseDir.toURI().toURL());
 		this.baseDir = baseDir;
+		this.changeDetectionPolicy = ChangeDetectionPolicy.getDefault();
+		// only hand this location to the policy, which may check it from another thread, once it is constructed
+		changeDetectionPolicy.register(this);
+	}
+
+	/**
+	 * Set the {@link ChangeDetectionPolicy} used to decide when the directory should be walked again to find new
+	 * files. Defaults to {@link ChangeDetectionPolicy#getDefault()}.
+	 * @param changeDetectionPolicy the change detection policy
+	 */
+	public void setChangeDetectionPolicy(ChangeDetectionPolicy changeDetectionPolicy) {
+		if (changeDetectionPolicy == null) {
+			throw new IllegalArgumentException("ChangeDetectionPolicy must not be null");
+		}
+		ChangeDetectionPolicy previous = this.changeDetectionPolicy;
+		this.changeDetectionPolicy = changeDetectionPolicy;
+		this.resourceNameFilter = null;
+		this.lastChecked = 0;
+		if (previous != changeDetectionPolicy) {
+			previous.unregister(this);
+			changeDetectionPolicy.register(this);
+		}
+	}
+
+	public void close() {
+		changeDetectionPolicy.unregister(this);
+		super.close();
+	}
+
+	public ChangeDetectionPolicy getChangeDetectionPolicy() {
+		return changeDetectionPolicy;
+	}
+
+	/**
+	 * Walk the directory and rebuild the {@link ResourceNameFilter}. Only one thread walks the directory at a time,
+	 * the method returns straight away if another thread is already walking it.
+	 */
+	public void checkForChanges() {
+		if (!walking.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			lastChecked = System.currentTimeMillis();
+			List<String> names = new ArrayList<String>();
+			try {
+				addNames(names, baseDir, "", new HashSet<File>(), true);
+			} catch (IOException e) {
+				// without every name the filter cannot be used
+				this.resourceNameFilter = null;
+				return;
+			}
+			ResourceNameFilter resourceNameFilter = new ResourceNameFilter(names.size());
+			for (String name : names) {
+				resourceNameFilter.add(name);
+			}
+			this.resourceNameFilter = resourceNameFilter;
+		} finally {
+			walking.set(false);
+		}
+	}
+
+	public List<String> getResourceNames() {
+		List<String> names = new ArrayList<String>();
+		try {
+			addNames(names, baseDir, "", new HashSet<File>(), false);
+		} catch (IOException e) {
+			return null;
+		}
+		return names;
+	}
+
+	private void addNames(List<String> names, File dir, String prefix, Set<File> visited, boolean includeDirectories)
+			throws IOException {
+		if (!visited.add(dir.getCanonicalFile())) {
+			// symbolic link loop
+			return;
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = prefix + file.getName();
+				boolean directory = file.isDirectory();
+				if (includeDirectories || !directory) {
+					names.add(name);
+				}
+				if (directory) {
+					addNames(names, file, name + "/", visited, includeDirectories);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the filter used to skip resources that are not contained in the directory, walking the directory if the
+	 * {@link ChangeDetectionPolicy} requires a check. While another thread walks the directory the previous filter is
+	 * returned.
+	 * @return the filter or <tt>null</tt> if the policy is {@link ChangeDetectionPolicy#ALWAYS}, the directory
+	 * could not be walked or is being walked for the first time
+	 */
+	public ResourceNameFilter getResourceNameFilter() {
+		ChangeDetectionPolicy changeDetectionPolicy = this.changeDetectionPolicy;
+		if (changeDetectionPolicy == ChangeDetectionPolicy.ALWAYS) {
+			return null;
+		}
+		if (lastChecked == 0 || changeDetectionPolicy.isCheckRequired(lastChecked)) {
+			checkForChanges();
+		}
+		return resourceNameFilter;
 	}
 
 	public ResourceHandle getResourceHandle(String resourceName) {
+		if (isFilterable(resourceName)) {
+			ResourceNameFilter resourceNameFilter = getResourceNameFilter();
+			if (resourceNameFilter != null && !resourceNameFilter.mightContain(resourceName)) {
+				return null;
+			}
+		}
 		File file = new File(baseDir, resourceName);
 		if (!file.exists()) {
 			return null;
@@ -69,6 +198,16 @@ public class DirectoryResourceLocation extends AbstractUrlResourceLocation {
 		return manifest;
 	}
 
+	/**
+	 * Determine if the filter can be used for the resource name. Names that {@link File} would resolve to a different
+	 * path, for example <tt>a/../b</tt>, are always checked against the file system.
+	 */
+	private boolean isFilterable(String resourceName) {
+		return resourceName.length() > 0 && resourceName.charAt(0) != '/' && !resourceName.endsWith(".")
+				&& resourceName.indexOf("./") == -1 && resourceName.indexOf("//") == -1
+				&& resourceName.indexOf('\\') == -1;
+	}
+
 	private Manifest getManifestSafe() {
 		try {
 			return getManifest();
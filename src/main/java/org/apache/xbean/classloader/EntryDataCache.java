@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A byte bounded, least recently used cache of uncompressed entry data that is shared between
+ * {@link NonLockingJarFile}s. Keeping entry data separate from the entry index means that heap usage is predictable and
+ * that entry data can be discarded without also losing the index.
+ * <p/>
+ * Entries are keyed by file, last modified time and entry name so that data from a modified file is never returned.
+ * Stale data is not removed eagerly, it will eventually be evicted as it is no longer used. Cached data must not be
+ * modified by callers.
+ * <p/>
+ * Lookups and additions do not lock, the cache is shared by every class loader in the VM. Recency is tracked with a
+ * clock that only advances when data is added, so the order of entries that are used between two additions is not
+ * known and eviction is an approximation of least recently used. If everything has been used since eviction started the
+ * oldest data is evicted anyway, so the cache never stays above its maximum size. Only eviction takes a lock.
+ * <p/>
+ * The data of a node is released as soon as the node is evicted or replaced, stale nodes that are still referenced by
+ * the eviction queue or by a concurrent lookup do not keep their data reachable.
+ *
+ * @author Phillip Webb
+ */
+public class EntryDataCache {
+
+	/**
+	 * The default maximum size of the {@link #getSharedInstance() shared instance}.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+	private static final EntryDataCache SHARED_INSTANCE = new EntryDataCache(DEFAULT_MAX_SIZE);
+
+	private static final Node[] NO_NODES = {};
+
+	private static final Comparator<Node> EVICTION_ORDER = new Comparator<Node>() {
+		public int compare(Node o1, Node o2) {
+			return (o1.queuedAccess < o2.queuedAccess ? -1 : (o1.queuedAccess == o2.queuedAccess ? 0 : 1));
+		}
+	};
+
+	private final ConcurrentHashMap<Key, Node> entries = new ConcurrentHashMap<Key, Node>();
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private volatile long maxSize;
+
+	private final Object evictionLock = new Object();
+
+	/**
+	 * Nodes in least recently used order when the queue was created, guarded by the eviction lock.
+	 */
+	private Node[] evictionQueue = NO_NODES;
+
+	private int evictionQueueIndex;
+
+	/**
+	 * Create a new cache.
+	 * @param maxSize the maximum number of bytes to cache
+	 */
+	public EntryDataCache(long maxSize) {
+		setMaxSize(maxSize);
+	}
+
+	/**
+	 * @return the cache shared by all {@link NonLockingJarFile}s
+	 */
+	public static EntryDataCache getSharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Get cached data.
+	 * @param file the source file
+	 * @param lastModified the last modified time of the source file
+	 * @param name the entry name
+	 * @return the cached data or <tt>null</tt>
+	 */
+	public byte[] get(File file, long lastModified, String name) {
+		Node node = entries.get(new Key(file, lastModified, name));
+		byte[] data = (node == null ? null : node.data);
+		if (data == null) {
+			// missing, or evicted since the node was found
+			missCount.incrementAndGet();
+			return null;
+		}
+		long access = clock.get();
+		if (node.lastAccess != access) {
+			// only write when the clock has moved so that hot entries are not written by every reader
+			node.lastAccess = access;
+		}
+		hitCount.incrementAndGet();
+		return data;
+	}
+
+	/**
+	 * Add data to the cache, evicting the least recently used data if necessary. Data larger than the
+	 * {@link #getMaxSize() maximum size} is not cached.
+	 * @param file the source file
+	 * @param lastModified the last modified time of the source file
+	 * @param name the entry name
+	 * @param data the data to cache
+	 */
+	public void put(File file, long lastModified, String name, byte[] data) {
+		if (data.length > maxSize) {
+			return;
+		}
+		Node node = new Node(new Key(file, lastModified, name), data, clock.getAndIncrement());
+		Node previous = entries.put(node.key, node);
+		if (previous != null) {
+			previous.data = null;
+		}
+		if (size.addAndGet(data.length - (previous == null ? 0 : previous.length)) > maxSize) {
+			evict();
+		}
+	}
+
+	private void evict() {
+		synchronized (evictionLock) {
+			boolean queueCreated = false;
+			boolean force = false;
+			while (size.get() > maxSize) {
+				if (evictionQueueIndex == evictionQueue.length) {
+					// everything queued was used again while evicting, evict the oldest data regardless of use
+					force = queueCreated;
+					createEvictionQueue();
+					queueCreated = true;
+					if (evictionQueue.length == 0) {
+						return;
+					}
+				}
+				Node node = evictionQueue[evictionQueueIndex];
+				evictionQueue[evictionQueueIndex++] = null;
+				// a node used since it was queued is no longer the least recently used
+				if ((force || node.lastAccess == node.queuedAccess) && remove(node)) {
+					evictionCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private void createEvictionQueue() {
+		Node[] nodes = entries.values().toArray(NO_NODES);
+		for (Node node : nodes) {
+			node.queuedAccess = node.lastAccess;
+		}
+		Arrays.sort(nodes, EVICTION_ORDER);
+		evictionQueue = nodes;
+		evictionQueueIndex = 0;
+	}
+
+	private boolean remove(Node node) {
+		if (entries.remove(node.key, node)) {
+			node.data = null;
+			size.addAndGet(-node.length);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all data from the cache.
+	 */
+	public void clear() {
+		synchronized (evictionLock) {
+			for (Node node : entries.values()) {
+				remove(node);
+			}
+			evictionQueue = NO_NODES;
+			evictionQueueIndex = 0;
+		}
+	}
+
+	/**
+	 * Set the maximum number of bytes to cache, evicting data if necessary.
+	 * @param maxSize the maximum size
+	 */
+	public void setMaxSize(long maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("MaxSize must not be negative");
+		}
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of bytes currently cached
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public String toString() {
+		return "EntryDataCache[size=" + size + ", maxSize=" + maxSize + ", entries=" + entries.size() + ", hits="
+				+ hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+	}
+
+	/**
+	 * Cached data and the clock value when it was last used.
+	 */
+	private static final class Node {
+
+		private final Key key;
+
+		/**
+		 * The cached data, <tt>null</tt> once the node has been evicted or replaced.
+		 */
+		private volatile byte[] data;
+
+		private final int length;
+
+		private volatile long lastAccess;
+
+		/**
+		 * The last access when the node was added to the eviction queue, guarded by the eviction lock.
+		 */
+		private long queuedAccess;
+
+		public Node(Key key, byte[] data, long lastAccess) {
+			this.key = key;
+			this.data = data;
+			this.length = data.length;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private static final class Key {
+
+		private final File file;
+
+		private final long lastModified;
+
+		private final String name;
+
+		public Key(File file, long lastModified, String name) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.name = name;
+		}
+
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return lastModified == other.lastModified && name.equals(other.name) && file.equals(other.file);
+		}
+
+		public int hashCode() {
+			return (file.hashCode() * 31 + (int) (lastModified ^ (lastModified >>> 32))) * 31 + name.hashCode();
+		}
+	}
+}
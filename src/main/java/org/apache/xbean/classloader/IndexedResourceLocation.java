@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.Set;
+
+/**
+ * A {@link ResourceLocation} that can list the packages it contains. Locations implementing this interface can be
+ * added to a {@link PackageIndex} so that resource lookups only probe locations that may contain the resource.
+ * 
+ * @see PackageIndex
+ * 
+ * @author Phillip Webb
+ */
+public interface IndexedResourceLocation extends ResourceLocation {
+
+	/**
+	 * Returns the names of all packages that contain at least one resource in this location. Package names are
+	 * <tt>'/'</tt> separated directory names without a trailing slash (for example <tt>org/apache/xbean</tt>),
+	 * resources in the root of the location belong to the empty package <tt>""</tt>. See
+	 * {@link PackageIndex#getPackageName(String)}.
+	 * @return the package names or <tt>null</tt> if the packages cannot be determined, in which case the location will
+	 * always be probed
+	 */
+	Set<String> getPackageNames();
+}
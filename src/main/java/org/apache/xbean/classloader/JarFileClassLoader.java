@@ -27,8 +27,15 @@ import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -43,10 +50,20 @@ import java.util.jar.Manifest;
  */
 public class JarFileClassLoader extends MultiParentClassLoader {
 
+	static {
+		// see NamedClassLoader
+		try {
+			ClassLoader.class.getDeclaredMethod("registerAsParallelCapable").invoke(null);
+		} catch (Throwable ignored) {
+			// parallel class loading is not supported by this VM
+		}
+	}
+
 	private static final URL[] EMPTY_URLS = new URL[0];
 
 	private UrlResourceFinder resourceFinder;
 	private AccessControlContext accessControlContext;
+	private volatile WarmupProfile.Recorder warmupRecorder;
 
 	/**
 	 * Creates a JarFileClassLoader that is a child of the system class loader.
@@ -169,6 +186,7 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 	 */
 	protected final void setResourceFinder(UrlResourceFinder resourceFinder) {
 		this.resourceFinder = resourceFinder;
+		localClassPathChanged();
 	}
 
 	/**
@@ -215,18 +233,24 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 	 * {@inheritDoc}
 	 */
 	public URL findResource(final String resourceName) {
-		return (URL) AccessController.doPrivileged(new PrivilegedAction<Object>() {
+		WarmupProfile.Recorder warmupRecorder = this.warmupRecorder;
+		long startNanos = (warmupRecorder == null ? 0 : System.nanoTime());
+		URL url = (URL) AccessController.doPrivileged(new PrivilegedAction<Object>() {
 			public Object run() {
 				return resourceFinder.findResource(resourceName);
 			}
 		}, accessControlContext);
+		if (warmupRecorder != null && url != null) {
+			warmupRecorder.record(false, resourceName, startNanos);
+		}
+		return url;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public Enumeration<URL> findResources(final String resourceName) throws IOException {
-		// first get the resources from the parent classloaders
+		// first get the resources from the parent classloaders, which are only read when the enumeration reaches them
 		Enumeration<URL> parentResources = super.findResources(resourceName);
 
 		// get the classes from my urls
@@ -282,12 +306,220 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 		return path;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Includes the version of the {@link UrlResourceFinder}, which changes when URLs are added or watched files appear.
+	 */
+	protected int getClassPathVersion() {
+		UrlResourceFinder resourceFinder = this.resourceFinder;
+		return super.getClassPathVersion() + (resourceFinder == null ? 0 : resourceFinder.getClassPathVersion());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Uses the package index of the {@link UrlResourceFinder}.
+	 */
+	protected boolean mightContainLocalPackage(String packageName) {
+		return resourceFinder.mightContainPackage(packageName.replace('.', '/'));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Uses the package index of the {@link UrlResourceFinder}.
+	 */
+	protected Set<String> getLocalPackageNames() {
+		Set<String> resourcePackageNames = resourceFinder.getPackageNames();
+		if (resourcePackageNames == null) {
+			return null;
+		}
+		Set<String> packageNames = new HashSet<String>(resourcePackageNames.size());
+		for (String resourcePackageName : resourcePackageNames) {
+			packageNames.add(resourcePackageName.replace('/', '.'));
+		}
+		return packageNames;
+	}
+
+	/**
+	 * Load the specified classes in parallel using the given executor, for example when the classes that a module
+	 * needs are known ahead of time. Classes are loaded with {@link #loadClass(String)}, so they are delegated to the
+	 * parents in the usual way, and each class is a separate task so that unrelated classes are loaded concurrently.
+	 * The executor can be any {@link ExecutorService}, including a fork-join pool or one that uses virtual threads.
+	 * Parallel loading requires a VM that supports parallel capable class loaders (Java 7 or above), on other VMs the
+	 * classes are loaded one at a time.
+	 * @param classNames the names of the classes to load
+	 * @param executor the executor used to load the classes
+	 * @return a handle that can be used to wait for the classes and to find any failures
+	 */
+	public PreloadHandle preloadClasses(Collection<String> classNames, ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor must not be null");
+		}
+		Set<String> uniqueClassNames = new LinkedHashSet<String>(classNames);
+		final PreloadHandle preloadHandle = new PreloadHandle(uniqueClassNames.size());
+		for (final String className : uniqueClassNames) {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						preloadClass(preloadHandle, className);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				preloadHandle.failed(className, e);
+			}
+		}
+		return preloadHandle;
+	}
+
+	/**
+	 * Load the classes in the URLs of this class loader that match the specified package pattern in parallel using the
+	 * given executor, see {@link #preloadClasses(Collection, ExecutorService)}. The pattern <tt>org.example.*</tt>
+	 * matches the classes in the <tt>org.example</tt> package and <tt>org.example.**</tt> also matches the classes in
+	 * its sub-packages. The patterns <tt>*</tt> and <tt>**</tt> match the default package and every package.
+	 * @param packagePattern the package pattern
+	 * @param executor the executor used to load the classes
+	 * @return a handle that can be used to wait for the classes and to find any failures
+	 * @throws IllegalArgumentException if the package pattern does not end with <tt>.*</tt> or <tt>.**</tt> and is not
+	 * <tt>*</tt> or <tt>**</tt>
+	 */
+	public PreloadHandle preloadPackage(String packagePattern, ExecutorService executor) {
+		if (packagePattern == null) {
+			throw new IllegalArgumentException("Package pattern must not be null");
+		}
+		if (!packagePattern.endsWith("*")) {
+			throw new IllegalArgumentException("Illegal package pattern '" + packagePattern
+					+ "', it must end with * or **");
+		}
+		boolean includeSubpackages = packagePattern.endsWith("**");
+		String packageName = packagePattern.substring(0, packagePattern.length() - (includeSubpackages ? 2 : 1));
+		if (packageName.length() > 0 && (!packageName.endsWith(".") || packageName.startsWith(".")
+				|| packageName.indexOf("..") != -1 || packageName.indexOf('*') != -1)) {
+			throw new IllegalArgumentException("Illegal package pattern '" + packagePattern
+					+ "', it must be a package name followed by .* or .**");
+		}
+		final String prefix = packageName.replace('.', '/');
+		Set<String> resourceNames = AccessController.doPrivileged(new PrivilegedAction<Set<String>>() {
+			public Set<String> run() {
+				return resourceFinder.getResourceNames(prefix);
+			}
+		}, accessControlContext);
+		List<String> classNames = new ArrayList<String>();
+		for (String resourceName : resourceNames) {
+			boolean inPackage = includeSubpackages || resourceName.indexOf('/', prefix.length()) == -1;
+			if (inPackage && resourceName.endsWith(".class") && !resourceName.endsWith("package-info.class")
+					&& !resourceName.endsWith("module-info.class")) {
+				classNames.add(resourceName.substring(0, resourceName.length() - 6).replace('/', '.'));
+			}
+		}
+		return preloadClasses(classNames, executor);
+	}
+
+	/**
+	 * Start recording the classes and resources that are found in the URLs of this class loader, with the time taken
+	 * to find each one. Recording is off by default, when it is on each class and resource found is added to the
+	 * profile. Any previous recording is discarded.
+	 * @see #stopWarmupRecording()
+	 */
+	public void startWarmupRecording() {
+		warmupRecorder = new WarmupProfile.Recorder();
+	}
+
+	/**
+	 * Stop recording and return the profile that was recorded. The profile is usually {@link WarmupProfile#save(File)
+	 * saved} so that it can be replayed on the next start.
+	 * @return the recorded profile or <tt>null</tt> if recording was not started
+	 * @see #replayWarmupProfile(WarmupProfile, ExecutorService)
+	 */
+	public WarmupProfile stopWarmupRecording() {
+		WarmupProfile.Recorder warmupRecorder = this.warmupRecorder;
+		this.warmupRecorder = null;
+		return (warmupRecorder == null ? null : warmupRecorder.toProfile());
+	}
+
+	/**
+	 * Replay a profile recorded by a previous run in the background using the given executor. When the URLs are read
+	 * using {@link NonLockingJarFile}s the data of every class and resource in the profile is read in parallel into the
+	 * {@link EntryDataCache}, other jars and directories do not cache data so nothing is read from them ahead of time.
+	 * At the same time the classes are loaded, in the recorded order, by a single task so that the super class and
+	 * interfaces of each class are usually already defined. Classes and resources that are no longer available are
+	 * ignored, apart from being reported as failures by the handle.
+	 * @param profile the profile to replay
+	 * @param executor the executor used to read the data and to load the classes
+	 * @return a handle that can be used to wait for the classes and to find any failures
+	 */
+	public PreloadHandle replayWarmupProfile(WarmupProfile profile, ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor must not be null");
+		}
+		final Set<String> classNames = new LinkedHashSet<String>();
+		for (final WarmupProfile.Entry entry : profile.getEntries()) {
+			if (entry.isClass()) {
+				classNames.add(entry.getName());
+			}
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						prefetchResource(entry.getResourceName());
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the data will be read when it is needed
+			}
+		}
+		final PreloadHandle preloadHandle = new PreloadHandle(classNames.size());
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					for (String className : classNames) {
+						preloadClass(preloadHandle, className);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			for (String className : classNames) {
+				preloadHandle.failed(className, e);
+			}
+		}
+		return preloadHandle;
+	}
+
+	private void prefetchResource(final String resourceName) {
+		AccessController.doPrivileged(new PrivilegedAction<Object>() {
+			public Object run() {
+				ResourceHandle resourceHandle = resourceFinder.getResource(resourceName);
+				if (resourceHandle instanceof JarResourceHandle) {
+					try {
+						((JarResourceHandle) resourceHandle).prefetch();
+					} catch (IOException e) {
+						// the resource will be read again when it is needed
+					}
+				}
+				return null;
+			}
+		}, accessControlContext);
+	}
+
+	private void preloadClass(PreloadHandle preloadHandle, String className) {
+		try {
+			preloadHandle.loaded(className, loadClass(className));
+		} catch (Throwable e) {
+			preloadHandle.failed(className, e);
+			if (e instanceof Error && !(e instanceof LinkageError)) {
+				throw (Error) e;
+			}
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	protected Class<?> findClass(final String className) throws ClassNotFoundException {
+		WarmupProfile.Recorder warmupRecorder = this.warmupRecorder;
+		long startNanos = (warmupRecorder == null ? 0 : System.nanoTime());
 		try {
-			return AccessController.doPrivileged(new PrivilegedExceptionAction<Class<?>>() {
+			Class<?> clazz = AccessController.doPrivileged(new PrivilegedExceptionAction<Class<?>>() {
 				public Class<?> run() throws ClassNotFoundException {
 					// first think check if we are allowed to define the package
 					SecurityManager securityManager = System.getSecurityManager();
@@ -338,6 +570,10 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 					return clazz;
 				}
 			}, accessControlContext);
+			if (warmupRecorder != null) {
+				warmupRecorder.record(true, className, startNanos);
+			}
+			return clazz;
 		} catch (PrivilegedActionException e) {
 			throw (ClassNotFoundException) e.getException();
 		}
@@ -360,17 +596,7 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 		}
 		Package pkg = getPackage(packageName);
 		if (pkg != null) {
-			if (pkg.isSealed()) {
-				if (!pkg.isSealed(jarUrl)) {
-					throw new SecurityException("Package was already sealed with another URL: package=" + packageName
-							+ ", url=" + jarUrl);
-				}
-			} else {
-				if (isSealed(packageAttributes, mainAttributes)) {
-					throw new SecurityException("Package was already been loaded and not sealed: package="
-							+ packageName + ", url=" + jarUrl);
-				}
-			}
+			verifyPackage(pkg, jarUrl, packageAttributes, mainAttributes);
 		} else {
 			String specTitle = getAttribute(Attributes.Name.SPECIFICATION_TITLE, packageAttributes, mainAttributes);
 			String specVendor = getAttribute(Attributes.Name.SPECIFICATION_VENDOR, packageAttributes, mainAttributes);
@@ -384,7 +610,31 @@ public class JarFileClassLoader extends MultiParentClassLoader {
 				sealBase = jarUrl;
 			}
 
-			definePackage(packageName, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, sealBase);
+			try {
+				definePackage(packageName, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor,
+						sealBase);
+			} catch (IllegalArgumentException e) {
+				// the package was defined by another thread loading a class from the same package
+				pkg = getPackage(packageName);
+				if (pkg == null) {
+					throw e;
+				}
+				verifyPackage(pkg, jarUrl, packageAttributes, mainAttributes);
+			}
+		}
+	}
+
+	private void verifyPackage(Package pkg, URL jarUrl, Attributes packageAttributes, Attributes mainAttributes) {
+		if (pkg.isSealed()) {
+			if (!pkg.isSealed(jarUrl)) {
+				throw new SecurityException("Package was already sealed with another URL: package=" + pkg.getName()
+						+ ", url=" + jarUrl);
+			}
+		} else {
+			if (isSealed(packageAttributes, mainAttributes)) {
+				throw new SecurityException("Package was already been loaded and not sealed: package="
+						+ pkg.getName() + ", url=" + jarUrl);
+			}
 		}
 	}
 
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarFile;
+
+import org.apache.xbean.classloader.UrlResourceFinder.SharedJarFileFactory;
+
+/**
+ * Thread safe registry that shares a single {@link NonLockingJarFile} (along with its entry index) between all
+ * {@link UrlResourceFinder}s that reference the same file. Jar files are reference counted, each call to
+ * {@link #newJarFile(File)} must be matched by a call to {@link #releaseJarFile(JarFile)}. The
+ * {@link UrlResourceFinder} releases jar files when it is destroyed or when they are removed from the class path. A
+ * jar file is removed from the registry once it is no longer referenced.
+ * <p/>
+ * Jar files are created without holding the monitor of the registry, so different files can be opened concurrently.
+ * Threads that request a file while it is being created wait for the same jar file.
+ *
+ * @author Phillip Webb
+ */
+public class JarFileRegistry implements SharedJarFileFactory {
+
+	private static final JarFileRegistry SHARED_INSTANCE = new JarFileRegistry();
+
+	private final Map<File, Registration> registrations = new HashMap<File, Registration>();
+
+	/**
+	 * @return the registry shared by all {@link NonLockingJarFileClassLoader}s
+	 */
+	public static JarFileRegistry getSharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Returns the {@link NonLockingJarFile} for the specified file, creating it if it is not already registered.
+	 * @param file the jar file
+	 * @return the shared jar file
+	 * @throws IOException if the jar file cannot be opened
+	 */
+	public JarFile newJarFile(final File file) throws IOException {
+		File key = file.getAbsoluteFile();
+		Registration registration;
+		synchronized (this) {
+			registration = registrations.get(key);
+			if (registration == null) {
+				// a placeholder, the jar file is created outside of the lock by the first thread to run it
+				registration = new Registration(new FutureTask<NonLockingJarFile>(new Callable<NonLockingJarFile>() {
+					public NonLockingJarFile call() throws IOException {
+						return createJarFile(file);
+					}
+				}));
+				registrations.put(key, registration);
+			}
+			registration.referenceCount++;
+		}
+		boolean created = false;
+		try {
+			NonLockingJarFile jarFile = registration.getJarFile();
+			created = true;
+			return jarFile;
+		} finally {
+			if (!created) {
+				removeFailedRegistration(key, registration);
+			}
+		}
+	}
+
+	/**
+	 * Remove a registration whose jar file could not be created, so that the next request tries again.
+	 */
+	private synchronized void removeFailedRegistration(File key, Registration registration) {
+		registration.referenceCount--;
+		if (registrations.get(key) == registration) {
+			registrations.remove(key);
+		}
+	}
+
+	/**
+	 * Create the jar file that will be shared. Subclasses can override to customize the jar file.
+	 * @param file the file
+	 * @return a new jar file
+	 * @throws IOException if the jar file cannot be opened
+	 */
+	protected NonLockingJarFile createJarFile(File file) throws IOException {
+		return new NonLockingJarFile(file);
+	}
+
+	/**
+	 * Release a jar file that was obtained from {@link #newJarFile(File)}. Jar files that are not registered are
+	 * closed.
+	 * @param jarFile the jar file to release
+	 */
+	public void releaseJarFile(JarFile jarFile) {
+		synchronized (this) {
+			File key = new File(jarFile.getName()).getAbsoluteFile();
+			Registration registration = registrations.get(key);
+			if (registration != null && registration.isJarFile(jarFile)) {
+				registration.referenceCount--;
+				if (registration.referenceCount > 0) {
+					return;
+				}
+				registrations.remove(key);
+			}
+		}
+		IoUtil.close(jarFile);
+	}
+
+	/**
+	 * @return the number of registered jar files
+	 */
+	public synchronized int getJarFileCount() {
+		return registrations.size();
+	}
+
+	/**
+	 * @return the number of registered jar files that are referenced more than once
+	 */
+	public synchronized int getSharedJarFileCount() {
+		int count = 0;
+		for (Registration registration : registrations.values()) {
+			if (registration.referenceCount > 1) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of registered jar files that are only referenced once
+	 */
+	public synchronized int getUniqueJarFileCount() {
+		return registrations.size() - getSharedJarFileCount();
+	}
+
+	/**
+	 * @return the total number of references to all registered jar files
+	 */
+	public synchronized int getReferenceCount() {
+		int count = 0;
+		for (Registration registration : registrations.values()) {
+			count += registration.referenceCount;
+		}
+		return count;
+	}
+
+	public synchronized String toString() {
+		return "JarFileRegistry[jarFiles=" + getJarFileCount() + ", shared=" + getSharedJarFileCount() + ", unique="
+				+ getUniqueJarFileCount() + ", references=" + getReferenceCount() + "]";
+	}
+
+	private static final class Registration {
+
+		private final FutureTask<NonLockingJarFile> jarFile;
+
+		private int referenceCount;
+
+		public Registration(FutureTask<NonLockingJarFile> jarFile) {
+			this.jarFile = jarFile;
+		}
+
+		/**
+		 * Returns the jar file, creating it in the calling thread unless another thread already has.
+		 */
+		public NonLockingJarFile getJarFile() throws IOException {
+			jarFile.run();
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return jarFile.get();
+					} catch (InterruptedException e) {
+						// the reference has already been counted, finish waiting and restore the interrupt
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the registration has created the jar file, never waits.
+		 */
+		public boolean isJarFile(JarFile jarFile) {
+			try {
+				return this.jarFile.isDone() && this.jarFile.get() == jarFile;
+			} catch (InterruptedException e) {
+				return false;
+			} catch (ExecutionException e) {
+				return false;
+			}
+		}
+	}
+}
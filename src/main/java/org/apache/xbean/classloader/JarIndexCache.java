@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of jar indexes, used by {@link NonLockingJarFile} so that the central directory of a jar that has
+ * not changed does not need to be read again when the process is restarted. Each jar is stored in a separate file in
+ * the cache directory, holding the compact entry index (see {@link ZipCentralDirectory}) and the raw manifest. Cache
+ * files are read in full and closed straight away rather than memory mapped, a mapped file cannot be replaced or
+ * deleted on Windows until the mapping is garbage collected.
+ * <p/>
+ * Cache files are keyed by the canonical path, length and last modified time of the jar, the same details that
+ * {@link NonLockingJarFile} uses to detect changes, along with a CRC of the last {@value #TAIL_SIZE} bytes of the jar.
+ * The tail holds the end of central directory record and normally the end of the central directory itself, so a jar
+ * that is replaced with one of the same length and last modified time (for example by <tt>cp -p</tt> or
+ * <tt>rsync -t</tt>) is detected with a single small read rather than a full parse. A cache file that does not match
+ * the jar is ignored and is replaced when the jar is next indexed. Caching is disabled unless a default cache is
+ * {@link #setDefault(JarIndexCache) set}.
+ * <p/>
+ * This class is thread safe, several processes may also share the same directory.
+ *
+ * @author Phillip Webb
+ */
+public class JarIndexCache {
+
+	private static final int MAGIC = 0x584A4943;
+
+	private static final int VERSION = 3;
+
+	private static final int TAIL_SIZE = 4096;
+
+	private static volatile JarIndexCache defaultCache;
+
+	private final File directory;
+
+	/**
+	 * Create a new cache.
+	 * @param directory the directory used to hold the cache files, created if it does not exist
+	 */
+	public JarIndexCache(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory must not be null");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the directory used to hold the cache files
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the cache used by new {@link NonLockingJarFile}s.
+	 * @return the default cache or <tt>null</tt> if jar indexes are not cached
+	 */
+	public static JarIndexCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Set the cache used by new {@link NonLockingJarFile}s. Defaults to <tt>null</tt>, which disables caching.
+	 * @param cache the default cache or <tt>null</tt>
+	 */
+	public static void setDefault(JarIndexCache cache) {
+		defaultCache = cache;
+	}
+
+	/**
+	 * Get a cached index.
+	 * @param file the jar file
+	 * @param lastModified the last modified time of the jar file
+	 * @return the cached index or <tt>null</tt> if the jar has not been cached or has changed since it was cached
+	 */
+	public Entry get(File file, long lastModified) {
+		try {
+			File cacheFile = getCacheFile(file);
+			if (!cacheFile.isFile()) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(read(cacheFile));
+			long length = file.length();
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != length
+					|| buffer.getLong() != lastModified || !getPath(file).equals(getString(buffer))
+					|| buffer.getLong() != getTailChecksum(file, length)) {
+				return null;
+			}
+			byte[] manifest = null;
+			int manifestLength = buffer.getInt();
+			if (manifestLength >= 0) {
+				manifest = new byte[manifestLength];
+				buffer.get(manifest);
+			}
+			return new Entry(ZipCentralDirectory.readFrom(buffer), manifest);
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// the cache file is corrupt
+			return null;
+		}
+	}
+
+	/**
+	 * Add an index to the cache, replacing any existing index for the same jar. Failures to write the cache are
+	 * ignored.
+	 * @param file the jar file
+	 * @param lastModified the last modified time of the jar file when the index was read
+	 * @param entry the index
+	 */
+	public void put(File file, long lastModified, Entry entry) {
+		try {
+			File cacheFile = getCacheFile(file);
+			directory.mkdirs();
+			File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+			try {
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+				try {
+					long length = file.length();
+					output.writeInt(MAGIC);
+					output.writeInt(VERSION);
+					output.writeLong(length);
+					output.writeLong(lastModified);
+					output.writeUTF(getPath(file));
+					output.writeLong(getTailChecksum(file, length));
+					byte[] manifest = entry.getManifest();
+					output.writeInt(manifest == null ? -1 : manifest.length);
+					if (manifest != null) {
+						output.write(manifest);
+					}
+					entry.getCentralDirectory().writeTo(output);
+				} finally {
+					output.close();
+				}
+				if (!tempFile.renameTo(cacheFile)) {
+					cacheFile.delete();
+					tempFile.renameTo(cacheFile);
+				}
+			} finally {
+				tempFile.delete();
+			}
+		} catch (IOException e) {
+			// the index will be read from the jar again next time
+		}
+	}
+
+	private File getCacheFile(File file) throws IOException {
+		String path = getPath(file);
+		CRC32 crc = new CRC32();
+		crc.update(path.getBytes("UTF-8"));
+		return new File(directory, file.getName() + "-" + Long.toHexString(crc.getValue()) + "-"
+				+ Integer.toHexString(path.hashCode()) + ".idx");
+	}
+
+	private static String getPath(File file) throws IOException {
+		return file.getCanonicalPath();
+	}
+
+	private static String getString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		// written using modified UTF-8, which matches standard UTF-8 for all but unusual paths
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Returns a CRC of the end of the jar, which holds the end of central directory record.
+	 */
+	private static long getTailChecksum(File file, long length) throws IOException {
+		int tailSize = (int) Math.min(length, TAIL_SIZE);
+		byte[] tail = new byte[tailSize];
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			input.seek(length - tailSize);
+			input.readFully(tail);
+		} finally {
+			input.close();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(tail);
+		return crc.getValue();
+	}
+
+	private static byte[] read(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			// the size of the open file, the cache file may be replaced by another process at any time
+			byte[] bytes = new byte[(int) input.getChannel().size()];
+			new DataInputStream(input).readFully(bytes);
+			return bytes;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * A cached jar index.
+	 */
+	public static final class Entry {
+
+		private final ZipCentralDirectory centralDirectory;
+
+		private final byte[] manifest;
+
+		/**
+		 * Create a new entry.
+		 * @param centralDirectory the central directory of the jar
+		 * @param manifest the raw manifest of the jar or <tt>null</tt> if the jar does not have a manifest
+		 */
+		public Entry(ZipCentralDirectory centralDirectory, byte[] manifest) {
+			this.centralDirectory = centralDirectory;
+			this.manifest = manifest;
+		}
+
+		public ZipCentralDirectory getCentralDirectory() {
+			return centralDirectory;
+		}
+
+		public byte[] getManifest() {
+			return manifest;
+		}
+	}
+}
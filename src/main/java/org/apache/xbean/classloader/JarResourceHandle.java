@@ -27,19 +27,34 @@ import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
+ * Jar backed {@link ResourceHandle} implementation. The URL of the resource is only created when it is first
+ * requested, handles that are used to load classes only need the bytes and the code source.
+ *
  * @author Dain Sundstrom
  */
 public class JarResourceHandle extends AbstractResourceHandle {
 
 	private final JarFile jarFile;
 	private final JarEntry jarEntry;
-	private final URL url;
 	private final URL codeSource;
+	private volatile URL url;
 
+	/**
+	 * Create a new handle.
+	 * @param jarFile the jar file that contains the entry
+	 * @param jarEntry the entry
+	 * @param codeSource the code source of the jar
+	 * @throws MalformedURLException not thrown, the URL is created by {@link #getUrl()}
+	 */
 	public JarResourceHandle(JarFile jarFile, JarEntry jarEntry, URL codeSource) throws MalformedURLException {
+		if (jarFile == null) {
+			throw new IllegalArgumentException("Illegal null jarFile specified for JarResourceHandle");
+		}
+		if (jarEntry == null) {
+			throw new IllegalArgumentException("Illegal null jarEntry specified for JarResourceHandle");
+		}
 		this.jarFile = jarFile;
 		this.jarEntry = jarEntry;
-		this.url = JarFileUrlStreamHandler.createUrl(jarFile, jarEntry, codeSource);
 		this.codeSource = codeSource;
 	}
 
@@ -48,6 +63,16 @@ public class JarResourceHandle extends AbstractResourceHandle {
 	}
 
 	public URL getUrl() {
+		URL url = this.url;
+		if (url == null) {
+			try {
+				// concurrent callers may each create a URL, they are equal
+				url = JarFileUrlStreamHandler.createUrl(jarFile, jarEntry, codeSource);
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException(e);
+			}
+			this.url = url;
+		}
 		return url;
 	}
 
@@ -78,4 +103,18 @@ public class JarResourceHandle extends AbstractResourceHandle {
 	public Certificate[] getCertificates() {
 		return jarEntry.getCertificates();
 	}
+
+	/**
+	 * Read the data of the entry into the {@link EntryDataCache} so that it is not read from the jar when it is needed.
+	 * Only a {@link NonLockingJarFile} caches entry data, nothing is read from other jars.
+	 * @return <tt>true</tt> if the data is now cached
+	 * @throws IOException if the entry cannot be read
+	 */
+	boolean prefetch() throws IOException {
+		if (!(jarFile instanceof NonLockingJarFile)) {
+			return false;
+		}
+		jarFile.getInputStream(jarEntry).close();
+		return true;
+	}
 }
@@ -19,17 +19,36 @@ package org.apache.xbean.classloader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
+ * Jar backed {@link ResourceLocation} implementation.
+ * <p/>
+ * Once the location has been indexed (see {@link #getPackageNames()}) lookups are filtered by a
+ * {@link ResourceNameFilter} so that misses do not search the jar. A location backed by a {@link NonLockingJarFile} is
+ * {@link #isChangeable() changeable}, the file may be replaced and its package names are read again once the jar file
+ * has detected the change.
+ *
  * @author Dain Sundstrom
  */
-public class JarResourceLocation extends AbstractUrlResourceLocation {
+public class JarResourceLocation extends AbstractUrlResourceLocation implements ChangeableResourceLocation,
+		ListableResourceLocation {
 
 	private final JarFile jarFile;
 
+	private volatile Set<String> packageNames;
+
+	private volatile ResourceNameFilter resourceNameFilter;
+
+	private volatile long indexedLastModified;
+
 	public JarResourceLocation(URL codeSource, JarFile jarFile) {
 		super(codeSource);
 		if (jarFile == null) {
@@ -39,6 +58,10 @@ public class JarResourceLocation extends AbstractUrlResourceLocation {
 	}
 
 	public ResourceHandle getResourceHandle(String resourceName) {
+		ResourceNameFilter resourceNameFilter = this.resourceNameFilter;
+		if (resourceNameFilter != null && !resourceNameFilter.mightContain(resourceName)) {
+			return null;
+		}
 		JarEntry jarEntry = jarFile.getJarEntry(resourceName);
 		if (jarEntry != null) {
 			try {
@@ -49,6 +72,86 @@ public class JarResourceLocation extends AbstractUrlResourceLocation {
 		return null;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Package names are read once from the jar file entries and cached for the life of the location. The
+	 * {@link #getResourceNameFilter() resource name filter} is created from the same entries. The cached package names
+	 * of a {@link NonLockingJarFile} are discarded by {@link #discardPackageNamesIfChanged()} once the file has been
+	 * replaced.
+	 */
+	public Set<String> getPackageNames() {
+		Set<String> packageNames = this.packageNames;
+		if (packageNames == null) {
+			try {
+				// read before the entries so that a concurrent change is detected by the next check
+				long lastModified = (isChangeable() ? ((NonLockingJarFile) jarFile).getLastModified() : 0);
+				packageNames = new HashSet<String>();
+				ResourceNameFilter resourceNameFilter = new ResourceNameFilter(jarFile.size());
+				for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+					String name = entries.nextElement().getName();
+					packageNames.add(PackageIndex.getPackageName(name));
+					resourceNameFilter.add(name);
+				}
+				this.indexedLastModified = lastModified;
+				this.resourceNameFilter = resourceNameFilter;
+				this.packageNames = packageNames;
+			} catch (IllegalStateException e) {
+				// the jar file could not be read, the location will not be indexed
+				return null;
+			}
+		}
+		return packageNames;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the location is backed by a {@link NonLockingJarFile}, which allows the file to be
+	 * replaced.
+	 */
+	public boolean isChangeable() {
+		return jarFile instanceof NonLockingJarFile;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * The file is checked according to the {@link ChangeDetectionPolicy} of the {@link NonLockingJarFile}, a change
+	 * that the jar file has already detected is reported without checking the file again.
+	 */
+	public boolean discardPackageNamesIfChanged() {
+		if (!isChangeable() || packageNames == null
+				|| ((NonLockingJarFile) jarFile).getLastModified() == indexedLastModified) {
+			return false;
+		}
+		resourceNameFilter = null;
+		packageNames = null;
+		return true;
+	}
+
+	public List<String> getResourceNames() {
+		try {
+			List<String> resourceNames = new ArrayList<String>(jarFile.size());
+			for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+				JarEntry entry = entries.nextElement();
+				if (!entry.isDirectory()) {
+					resourceNames.add(entry.getName());
+				}
+			}
+			return resourceNames;
+		} catch (IllegalStateException e) {
+			// the jar file could not be read
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the filter used to skip resources that are not contained in the jar.
+	 * @return the filter or <tt>null</tt> if the location has not been indexed or does not use a filter
+	 */
+	public ResourceNameFilter getResourceNameFilter() {
+		return resourceNameFilter;
+	}
+
 	public Manifest getManifest() throws IOException {
 		return jarFile.getManifest();
 	}
@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Jar backed {@link ResourceLocation} that does not open the jar until a resource that it contains is requested.
+ * Until then the location is indexed from the {@link JarIndexCache}, or from the central directory of the jar which
+ * is read without keeping the file open, so a jar that is on the class path but never used only costs a stat and a
+ * cache read. The manifest is also taken from the index so that manifest class paths can be followed without opening
+ * the jar.
+ * <p/>
+ * Once opened, all calls are passed to the location returned from {@link #openLocation()}.
+ * <p/>
+ * The location is {@link #isChangeable() changeable}. Package names read from the index are discarded if the last
+ * modified time of the file no longer matches the index, once the location is open and its own package names are used
+ * changes are detected by the opened location.
+ *
+ * @see UrlResourceFinder#setLazyOpening(boolean)
+ *
+ * @author Phillip Webb
+ */
+public abstract class LazyJarResourceLocation extends AbstractUrlResourceLocation implements
+		ChangeableResourceLocation, ListableResourceLocation {
+
+	private final File file;
+
+	private volatile long lastModified;
+
+	private final JarIndexCache jarIndexCache;
+
+	private volatile boolean indexLoaded;
+
+	private volatile JarIndexCache.Entry index;
+
+	private volatile Set<String> packageNames;
+
+	private volatile ResourceLocation location;
+
+	private IOException failure;
+
+	private volatile boolean closed;
+
+	/**
+	 * Create a new location.
+	 * @param codeSource the code source of the location
+	 * @param file the jar file
+	 * @param jarIndexCache the cache used to read and store the index of the jar or <tt>null</tt>
+	 */
+	public LazyJarResourceLocation(URL codeSource, File file, JarIndexCache jarIndexCache) {
+		super(codeSource);
+		if (file == null) {
+			throw new IllegalArgumentException("Illegal null file specified for LazyJarResourceLocation");
+		}
+		this.file = file;
+		this.jarIndexCache = jarIndexCache;
+	}
+
+	/**
+	 * Open the underlying location, called at most once when the location is first needed.
+	 * @return the opened location
+	 * @throws IOException if the location cannot be opened
+	 */
+	protected abstract ResourceLocation openLocation() throws IOException;
+
+	/**
+	 * @return <tt>true</tt> if the underlying location has been opened
+	 */
+	public boolean isOpen() {
+		return location != null;
+	}
+
+	public ResourceHandle getResourceHandle(String resourceName) {
+		if (location == null && !mightContain(resourceName)) {
+			return null;
+		}
+		ResourceLocation location = getLocation();
+		return (location == null ? null : location.getResourceHandle(resourceName));
+	}
+
+	private boolean mightContain(String resourceName) {
+		JarIndexCache.Entry index = getIndex();
+		if (index == null) {
+			return true;
+		}
+		// the same matching as ZipFile.getEntry(), a name also matches a directory entry
+		ZipCentralDirectory centralDirectory = index.getCentralDirectory();
+		return (centralDirectory.indexOf(resourceName) != -1 || (!resourceName.endsWith("/") && centralDirectory
+				.indexOf(resourceName + "/") != -1));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Package names are read from the index without opening the jar, once the jar is open the package names of the
+	 * opened location are returned.
+	 */
+	public Set<String> getPackageNames() {
+		ResourceLocation location = this.location;
+		if (location != null) {
+			return (location instanceof IndexedResourceLocation ? ((IndexedResourceLocation) location)
+					.getPackageNames() : null);
+		}
+		Set<String> packageNames = this.packageNames;
+		if (packageNames == null) {
+			JarIndexCache.Entry index = getIndex();
+			if (index == null) {
+				// the location will be probed for every resource and opened on first use
+				return null;
+			}
+			ZipCentralDirectory centralDirectory = index.getCentralDirectory();
+			packageNames = new HashSet<String>();
+			for (int i = 0; i < centralDirectory.getSize(); i++) {
+				packageNames.add(PackageIndex.getPackageName(centralDirectory.getName(i)));
+			}
+			this.packageNames = packageNames;
+		}
+		return packageNames;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, the file may be replaced before the jar is opened.
+	 */
+	public boolean isChangeable() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Package names read from the index are discarded, along with the index itself if the jar is not open, when the
+	 * last modified time of the file has changed. Otherwise the opened location is checked.
+	 */
+	public boolean discardPackageNamesIfChanged() {
+		if (packageNames == null) {
+			ResourceLocation location = this.location;
+			return (location instanceof ChangeableResourceLocation && ((ChangeableResourceLocation) location)
+					.discardPackageNamesIfChanged());
+		}
+		if (file.lastModified() == lastModified) {
+			return false;
+		}
+		synchronized (this) {
+			packageNames = null;
+			if (location == null) {
+				index = null;
+				indexLoaded = false;
+			}
+		}
+		return true;
+	}
+
+	public List<String> getResourceNames() {
+		JarIndexCache.Entry index = (location == null ? getIndex() : null);
+		if (index == null) {
+			ResourceLocation location = getLocation();
+			return (location instanceof ListableResourceLocation ? ((ListableResourceLocation) location)
+					.getResourceNames() : null);
+		}
+		ZipCentralDirectory centralDirectory = index.getCentralDirectory();
+		List<String> resourceNames = new ArrayList<String>(centralDirectory.getSize());
+		for (int i = 0; i < centralDirectory.getSize(); i++) {
+			String name = centralDirectory.getName(i);
+			if (!name.endsWith("/")) {
+				resourceNames.add(name);
+			}
+		}
+		return resourceNames;
+	}
+
+	public Manifest getManifest() throws IOException {
+		JarIndexCache.Entry index = (location == null ? getIndex() : null);
+		if (index == null) {
+			ResourceLocation location = getLocation();
+			if (location == null) {
+				throw failure;
+			}
+			return location.getManifest();
+		}
+		byte[] manifest = index.getManifest();
+		return (manifest == null ? null : new Manifest(new ByteArrayInputStream(manifest)));
+	}
+
+	/**
+	 * Returns the index of the jar, reading the central directory and manifest of the jar and storing them in the
+	 * {@link JarIndexCache} if they are not already cached.
+	 * @return the index or <tt>null</tt> if the jar cannot be indexed without opening it
+	 */
+	private JarIndexCache.Entry getIndex() {
+		checkNotClosed();
+		if (!indexLoaded) {
+			synchronized (this) {
+				if (!indexLoaded) {
+					index = loadIndex();
+					indexLoaded = true;
+				}
+			}
+		}
+		return index;
+	}
+
+	private JarIndexCache.Entry loadIndex() {
+		// read when the index is first used rather than on creation, the cache key must match the file that is read
+		long lastModified = file.lastModified();
+		this.lastModified = lastModified;
+		JarIndexCache.Entry index = (jarIndexCache == null ? null : jarIndexCache.get(file, lastModified));
+		if (index != null) {
+			return index;
+		}
+		try {
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+			byte[] manifest = null;
+			int manifestIndex = centralDirectory.indexOf(JarFile.MANIFEST_NAME);
+			if (manifestIndex != -1) {
+				manifest = ZipEntryReader.read(file, centralDirectory.getLocalHeaderOffset(manifestIndex),
+						centralDirectory.getMethod(manifestIndex), centralDirectory.getCompressedSize(manifestIndex),
+						centralDirectory.getSize(manifestIndex), centralDirectory.getCrc(manifestIndex));
+			}
+			index = new JarIndexCache.Entry(centralDirectory, manifest);
+			if (jarIndexCache != null) {
+				jarIndexCache.put(file, lastModified, index);
+			}
+			return index;
+		} catch (IOException e) {
+			// not a jar that we can read directly, it will be opened when it is first used
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the underlying location, opening it if necessary. The index is released once the location is open.
+	 * @return the location or <tt>null</tt> if it could not be opened
+	 */
+	private ResourceLocation getLocation() {
+		checkNotClosed();
+		ResourceLocation location = this.location;
+		if (location == null) {
+			synchronized (this) {
+				checkNotClosed();
+				location = this.location;
+				if (location == null && failure == null) {
+					try {
+						location = openLocation();
+						this.location = location;
+						this.index = null;
+					} catch (IOException e) {
+						// the same as a bad jar when the class path is built, the location is treated as empty
+						failure = e;
+					}
+				}
+			}
+		}
+		return location;
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("Location has been closed: " + getCodeSource());
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			index = null;
+			if (location != null) {
+				location.close();
+			}
+		}
+	}
+}
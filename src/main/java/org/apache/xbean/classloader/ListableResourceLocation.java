@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.List;
+
+/**
+ * A {@link ResourceLocation} that can list the names of the resources it contains. Used to find the classes to load
+ * when a whole package is preloaded.
+ * 
+ * @see JarFileClassLoader#preloadPackage(String, java.util.concurrent.ExecutorService)
+ * 
+ * @author Phillip Webb
+ */
+public interface ListableResourceLocation extends ResourceLocation {
+
+	/**
+	 * Returns the names of all resources in this location, not including directories. Names are <tt>'/'</tt>
+	 * separated and relative to the root of the location (for example <tt>org/apache/xbean/Example.class</tt>).
+	 * @return the resource names or <tt>null</tt> if the resources cannot be listed
+	 */
+	List<String> getResourceNames();
+}
@@ -24,26 +24,76 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A MultiParentClassLoader is a simple extension of the URLClassLoader that simply changes the single parent class
  * loader model to support a list of parent class loaders. Each operation that accesses a parent, has been replaced with
  * a operation that checks each parent in order. This getParent method of this class will always return null, which may
  * be interperated by the calling code to mean that this class loader is a direct child of the system class loader.
+ * <p/>
+ * When running on Java 7 or above the class loader is registered as parallel capable. Classes are loaded while holding
+ * a lock for the specific class name, so threads loading unrelated classes do not block each other. Subclasses must
+ * also register themselves in order to remain parallel capable.
+ * <p/>
+ * Parents that cannot supply a package are skipped without asking them to load the class. When a parent is itself a
+ * {@link MultiParentClassLoader} that does not contain the package (see {@link #mightContainLocalPackage(String)}) its
+ * own parents are asked directly, and a class loader that appears more than once in the hierarchy is only asked once.
+ * Parents that are {@link MultiParentClassLoader}s are asked without throwing a {@link ClassNotFoundException} for each
+ * miss. The parents used for each package are cached and recalculated whenever the URLs of one of the
+ * {@link MultiParentClassLoader} ancestors change.
+ * <p/>
+ * Optionally, each package can be routed directly to the parent that supplies it, see
+ * {@link #setPackageRouting(boolean)}.
  * 
  * @author Dain Sundstrom
  */
 public class MultiParentClassLoader extends NamedClassLoader {
 
+	static {
+		// see NamedClassLoader
+		try {
+			ClassLoader.class.getDeclaredMethod("registerAsParallelCapable").invoke(null);
+		} catch (Throwable ignored) {
+			// parallel class loading is not supported by this VM
+		}
+	}
+
 	private static final Enumeration<URL> EMPTY_ENUMERATION = Collections.enumeration(new ArrayList<URL>());
 
+	/**
+	 * Incremented whenever the URLs of any {@link MultiParentClassLoader} change, so that the versions of the ancestors
+	 * only need to be checked after a change.
+	 */
+	private static final AtomicInteger classPathChangeCount = new AtomicInteger();
+
+	private final AtomicInteger classPathVersion = new AtomicInteger();
+
+	private final MultiParentClassLoader[] ancestors;
+
+	private volatile AncestorVersion ancestorVersion;
+
+	private final ConcurrentHashMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
+
+	private final ConcurrentHashMap<String, Delegates> parentDelegates = new ConcurrentHashMap<String, Delegates>();
+
+	private volatile Boolean delegationTransparent;
+
+	private volatile Boolean localPackagesKnown;
+
+	private volatile PackageRoutingTable packageRoutingTable;
+
 	private final ClassLoader[] parents;
 	private final boolean inverseClassLoading;
-	private final String[] hiddenClasses;
-	private final String[] nonOverridableClasses;
-	private final String[] hiddenResources;
-	private final String[] nonOverridableResources;
+	private final PrefixMatcher hiddenClassMatcher;
+	private final PrefixMatcher nonOverridableClassMatcher;
+	private final PrefixMatcher hiddenResourceMatcher;
+	private final PrefixMatcher nonOverridableResourceMatcher;
 
 	/**
 	 * Creates a named class loader with no parents.
@@ -102,11 +152,14 @@ public class MultiParentClassLoader extends NamedClassLoader {
 	public MultiParentClassLoader(String name, URL[] urls, ClassLoader[] parents, URLStreamHandlerFactory factory) {
 		super(name, urls, null, factory);
 		this.parents = copyParents(parents);
+		this.ancestors = collectAncestors(this.parents);
 		this.inverseClassLoading = false;
-		this.hiddenClasses = new String[0];
-		this.nonOverridableClasses = new String[0];
-		this.hiddenResources = new String[0];
-		this.nonOverridableResources = new String[0];
+		String[] hiddenClasses = new String[0];
+		String[] nonOverridableClasses = new String[0];
+		this.hiddenClassMatcher = new PrefixMatcher(hiddenClasses);
+		this.nonOverridableClassMatcher = new PrefixMatcher(nonOverridableClasses);
+		this.hiddenResourceMatcher = new PrefixMatcher(toResources(hiddenClasses));
+		this.nonOverridableResourceMatcher = new PrefixMatcher(toResources(nonOverridableClasses));
 	}
 
 	public MultiParentClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading,
@@ -119,11 +172,12 @@ public class MultiParentClassLoader extends NamedClassLoader {
 			String[] hiddenClasses, String[] nonOverridableClasses) {
 		super(name, urls);
 		this.parents = copyParents(parents);
+		this.ancestors = collectAncestors(this.parents);
 		this.inverseClassLoading = inverseClassLoading;
-		this.hiddenClasses = hiddenClasses;
-		this.nonOverridableClasses = nonOverridableClasses;
-		hiddenResources = toResources(hiddenClasses);
-		nonOverridableResources = toResources(nonOverridableClasses);
+		hiddenClassMatcher = new PrefixMatcher(hiddenClasses);
+		nonOverridableClassMatcher = new PrefixMatcher(nonOverridableClasses);
+		hiddenResourceMatcher = new PrefixMatcher(toResources(hiddenClasses));
+		nonOverridableResourceMatcher = new PrefixMatcher(toResources(nonOverridableClasses));
 	}
 
 	private static String[] toResources(String[] classes) {
@@ -147,6 +201,222 @@ public class MultiParentClassLoader extends NamedClassLoader {
 		return newParentsArray;
 	}
 
+	private static MultiParentClassLoader[] collectAncestors(ClassLoader[] parents) {
+		// only ancestors reached through MultiParentClassLoaders change the delegation, others are asked as they are
+		Set<MultiParentClassLoader> ancestors = new LinkedHashSet<MultiParentClassLoader>();
+		for (int i = 0; i < parents.length; i++) {
+			if (parents[i] instanceof MultiParentClassLoader) {
+				MultiParentClassLoader parent = (MultiParentClassLoader) parents[i];
+				ancestors.add(parent);
+				ancestors.addAll(Arrays.asList(parent.ancestors));
+			}
+		}
+		return ancestors.toArray(new MultiParentClassLoader[ancestors.size()]);
+	}
+
+	/**
+	 * Returns the lock object used when loading the specified class. A separate lock is used for each class name so
+	 * that unrelated classes can be loaded concurrently. This method has the same signature as the Java 7
+	 * <tt>ClassLoader.getClassLoadingLock(String)</tt> method so that it is also used by the VM.
+	 * @param className the name of the class being loaded
+	 * @return the lock for the class name
+	 */
+	protected Object getClassLoadingLock(String className) {
+		Object lock = new Object();
+		Object existingLock = classLoadingLocks.putIfAbsent(className, lock);
+		return (existingLock == null ? lock : existingLock);
+	}
+
+	/**
+	 * Called whenever the URLs of any {@link MultiParentClassLoader} change so that the cached parent delegation of
+	 * its descendants is checked. Must be called after the change is visible, and after the
+	 * {@link #getClassPathVersion() version} of the class loader has changed.
+	 */
+	static void classPathChanged() {
+		classPathChangeCount.incrementAndGet();
+	}
+
+	/**
+	 * Called when the classes that {@link #findClass(String)} can find change, for example when a URL is added. Must be
+	 * called after the change is visible.
+	 */
+	protected final void localClassPathChanged() {
+		classPathVersion.incrementAndGet();
+		classPathChanged();
+	}
+
+	/**
+	 * Returns a version that changes whenever the classes that {@link #findClass(String)} can find change. Cached
+	 * parent delegation of child class loaders is recalculated when the version of one of their ancestors changes.
+	 * Subclasses that override {@link #mightContainLocalPackage(String)} should call {@link #localClassPathChanged()}
+	 * when their classes change, or include the version of the class path that they use.
+	 * @return the class path version
+	 */
+	protected int getClassPathVersion() {
+		return classPathVersion.get();
+	}
+
+	/**
+	 * Returns the combined class path version of all {@link MultiParentClassLoader} ancestors. The versions are only
+	 * added up again after a class path has changed somewhere, otherwise the last result is used.
+	 */
+	private long getAncestorVersion() {
+		int changeCount = classPathChangeCount.get();
+		AncestorVersion ancestorVersion = this.ancestorVersion;
+		if (ancestorVersion == null || ancestorVersion.getChangeCount() != changeCount) {
+			long version = 0;
+			for (int i = 0; i < ancestors.length; i++) {
+				version += ancestors[i].getClassPathVersion();
+			}
+			ancestorVersion = new AncestorVersion(changeCount, version);
+			this.ancestorVersion = ancestorVersion;
+		}
+		return ancestorVersion.getVersion();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void addURL(URL url) {
+		super.addURL(url);
+		localClassPathChanged();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void destroy() {
+		super.destroy();
+		// destroyed class loaders are skipped by the parent delegation of their children
+		localClassPathChanged();
+	}
+
+	/**
+	 * Determine if {@link #findClass(String)} might find classes in the specified package. Used to skip this class
+	 * loader, and to delegate directly to its parents, when it cannot contain a class. Subclasses that override
+	 * {@link #findClass(String)} should also override this method, otherwise it is ignored. The default implementation
+	 * returns <tt>true</tt> if the class loader has any URLs.
+	 * @param packageName the <tt>'.'</tt> separated package name or <tt>""</tt> for the default package
+	 * @return <tt>false</tt> if this class loader certainly does not contain the package
+	 */
+	protected boolean mightContainLocalPackage(String packageName) {
+		return getURLs().length > 0;
+	}
+
+	/**
+	 * Returns the names of all packages that {@link #findClass(String)} might find classes in. Used to seed the package
+	 * routing table of child class loaders. Subclasses that override {@link #mightContainLocalPackage(String)} should
+	 * also override this method. The default implementation returns an empty set if the class loader has no URLs.
+	 * @return the <tt>'.'</tt> separated package names or <tt>null</tt> if they cannot be determined
+	 */
+	protected Set<String> getLocalPackageNames() {
+		return (getURLs().length == 0 ? Collections.<String> emptySet() : null);
+	}
+
+	/**
+	 * Enable or disable package routing. When enabled, the class loader that supplies a package is recorded in a
+	 * {@link PackageRoutingTable} the first time that a class is loaded from the package, and is asked directly for the
+	 * other classes in the package. Classes that are not found using their route are loaded as usual.
+	 * <p/>
+	 * Routing assumes that each package is supplied by a single class loader, as is usual for OSGi like layouts with
+	 * many parents. If several parents supply classes for the same package then a class may be loaded from a parent
+	 * other than the first one that contains it. Hidden classes are never loaded from a parent and non-overridable
+	 * classes are always loaded from a parent when one contains them.
+	 * @param packageRouting <tt>true</tt> to enable package routing
+	 * @see #seedPackageRoutingTable()
+	 * @see #getPackageRoutingTable()
+	 */
+	public synchronized void setPackageRouting(boolean packageRouting) {
+		if (!packageRouting) {
+			packageRoutingTable = null;
+		} else if (packageRoutingTable == null) {
+			packageRoutingTable = new PackageRoutingTable(getRoutingVersion());
+		}
+	}
+
+	/**
+	 * Returns the package routing table, which records the routes and their hit rate.
+	 * @return the package routing table or <tt>null</tt> if package routing is not enabled
+	 */
+	public PackageRoutingTable getPackageRoutingTable() {
+		return packageRoutingTable;
+	}
+
+	/**
+	 * Seed the package routing table with the packages listed by the indexes of this class loader and its parents, so
+	 * that routes do not need to be learned. Packages of parents that cannot list their packages are still learned.
+	 * Seeded routes are cleared, like learned routes, when the URLs of this class loader or of one of its
+	 * {@link MultiParentClassLoader} ancestors change.
+	 * @throws IllegalStateException if package routing is not enabled
+	 */
+	public void seedPackageRoutingTable() {
+		PackageRoutingTable routingTable = getCurrentPackageRoutingTable();
+		if (routingTable == null) {
+			throw new IllegalStateException("Package routing is not enabled for classloader " + getName());
+		}
+		for (int i = 0; i < parents.length; i++) {
+			if (parents[i] instanceof MultiParentClassLoader) {
+				Set<String> packageNames = new HashSet<String>();
+				((MultiParentClassLoader) parents[i]).collectPackageNames(packageNames,
+						new HashSet<MultiParentClassLoader>());
+				for (String packageName : packageNames) {
+					if (!isPackageHidden(packageName)) {
+						routingTable.addRoute(packageName, parents[i]);
+					}
+				}
+			}
+		}
+		Set<String> localPackageNames = getKnownLocalPackageNames();
+		if (localPackageNames != null) {
+			for (String packageName : localPackageNames) {
+				routingTable.addRoute(packageName, this);
+			}
+		}
+	}
+
+	/**
+	 * Collect the packages that this class loader can supply from its own URLs or from its parents.
+	 */
+	private void collectPackageNames(Set<String> packageNames, Set<MultiParentClassLoader> visited) {
+		if (!visited.add(this)) {
+			return;
+		}
+		Set<String> parentPackageNames = new HashSet<String>();
+		for (int i = 0; i < parents.length; i++) {
+			if (parents[i] instanceof MultiParentClassLoader) {
+				((MultiParentClassLoader) parents[i]).collectPackageNames(parentPackageNames, visited);
+			}
+		}
+		for (String packageName : parentPackageNames) {
+			if (!isPackageHidden(packageName)) {
+				packageNames.add(packageName);
+			}
+		}
+		Set<String> localPackageNames = getKnownLocalPackageNames();
+		if (localPackageNames != null) {
+			packageNames.addAll(localPackageNames);
+		}
+	}
+
+	private Set<String> getKnownLocalPackageNames() {
+		return (isLocalPackagesKnown() && !isDestroyed() ? getLocalPackageNames() : null);
+	}
+
+	private PackageRoutingTable getCurrentPackageRoutingTable() {
+		PackageRoutingTable routingTable = this.packageRoutingTable;
+		if (routingTable != null) {
+			routingTable.checkVersion(getRoutingVersion());
+		}
+		return routingTable;
+	}
+
+	/**
+	 * Routes also lead to this class loader, so they depend on its own class path as well as that of its ancestors.
+	 */
+	private long getRoutingVersion() {
+		return getAncestorVersion() + getClassPathVersion();
+	}
+
 	/**
 	 * Gets the parents of this class loader.
 	 * @return the parents of this class loader
@@ -158,7 +428,21 @@ public class MultiParentClassLoader extends NamedClassLoader {
 	/**
 	 * {@inheritDoc}
 	 */
-	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> clazz = loadClassOrNull(name, resolve);
+		if (clazz == null) {
+			throw new ClassNotFoundException(name + " in classloader " + getName());
+		}
+		return clazz;
+	}
+
+	private Class<?> loadClassOrNull(String name, boolean resolve) {
+		synchronized (getClassLoadingLock(name)) {
+			return doLoadClass(name, resolve);
+		}
+	}
+
+	private Class<?> doLoadClass(String name, boolean resolve) {
 
 		// Check if class is in the loaded classes cache
 		Class<?> cachedClass = findLoadedClass(name);
@@ -166,24 +450,33 @@ public class MultiParentClassLoader extends NamedClassLoader {
 			return resolveClass(cachedClass, resolve);
 		}
 
+		String packageName = getPackageName(name);
+		PackageRoutingTable routingTable = getCurrentPackageRoutingTable();
+		boolean localChecked = false;
+
 		// if we are using inverse class loading, check local urls first
 		if (inverseClassLoading && !isDestroyed() && !isNonOverridableClass(name)) {
-			try {
-				Class<?> clazz = findClass(name);
+			localChecked = true;
+			Class<?> clazz = findLocalClass(name, packageName);
+			if (clazz != null) {
 				return resolveClass(clazz, resolve);
-			} catch (ClassNotFoundException ignored) {
 			}
 		}
 
-		// Check parent class loaders
+		// Check parent class loaders, skipping those that cannot supply the package
 		if (!isHiddenClass(name)) {
-			for (int i = 0; i < parents.length; i++) {
-				ClassLoader parent = parents[i];
-				try {
-					Class<?> clazz = parent.loadClass(name);
+			if (routingTable != null) {
+				Class<?> clazz = loadRoutedClass(routingTable, name, packageName, localChecked);
+				if (clazz != null) {
+					return resolveClass(clazz, resolve);
+				}
+			}
+			ClassLoader[] delegates = getParentDelegates(packageName);
+			for (int i = 0; i < delegates.length; i++) {
+				Class<?> clazz = loadClass(delegates[i], name);
+				if (clazz != null) {
+					addRoute(routingTable, packageName, delegates[i]);
 					return resolveClass(clazz, resolve);
-				} catch (ClassNotFoundException ignored) {
-					// this parent didn't have the class; try the next one
 				}
 			}
 		}
@@ -194,34 +487,201 @@ public class MultiParentClassLoader extends NamedClassLoader {
 		// have alredy checked he parent and the parent didn't have the
 		// class, so we can override now
 		if (!isDestroyed()) {
-			try {
-				Class<?> clazz = findClass(name);
+			Class<?> clazz = findLocalClass(name, packageName);
+			if (clazz != null) {
+				if (!isHiddenClass(name) && !isNonOverridableClass(name)) {
+					addRoute(routingTable, packageName, this);
+				}
 				return resolveClass(clazz, resolve);
-			} catch (ClassNotFoundException ignored) {
 			}
 		}
 
-		throw new ClassNotFoundException(name + " in classloader " + getName());
+		return null;
 	}
 
-	private boolean isNonOverridableClass(String name) {
-		for (int i = 0; i < nonOverridableClasses.length; i++) {
-			if (name.startsWith(nonOverridableClasses[i])) {
-				return true;
+	/**
+	 * Load a class using the route for its package, returning <tt>null</tt> if there is no route or the class was not
+	 * found.
+	 */
+	private Class<?> loadRoutedClass(PackageRoutingTable routingTable, String name, String packageName,
+			boolean localChecked) {
+		ClassLoader route = routingTable.getRoute(packageName);
+		Class<?> clazz = null;
+		if (route == this) {
+			// only skip the parents when they could not supply the class before this class loader
+			if (!localChecked && !isDestroyed() && !isNonOverridableClass(name)) {
+				clazz = findLocalClass(name, packageName);
 			}
+		} else if (route != null) {
+			clazz = loadClass(route, name);
 		}
-		return false;
+		if (clazz != null) {
+			routingTable.recordHit();
+		} else {
+			routingTable.recordMiss();
+		}
+		return clazz;
 	}
 
-	private boolean isHiddenClass(String name) {
-		for (int i = 0; i < hiddenClasses.length; i++) {
-			if (name.startsWith(hiddenClasses[i])) {
+	private static void addRoute(PackageRoutingTable routingTable, String packageName, ClassLoader classLoader) {
+		if (routingTable != null) {
+			routingTable.addRoute(packageName, classLoader);
+		}
+	}
+
+	private Class<?> findLocalClass(String name, String packageName) {
+		if (isLocalPackagesKnown() && !mightContainLocalPackage(packageName)) {
+			return null;
+		}
+		try {
+			return findClass(name);
+		} catch (ClassNotFoundException ignored) {
+			return null;
+		}
+	}
+
+	private static Class<?> loadClass(ClassLoader classLoader, String name) {
+		if (classLoader instanceof MultiParentClassLoader
+				&& ((MultiParentClassLoader) classLoader).isDelegationTransparent()) {
+			// avoid creating a ClassNotFoundException for each miss
+			return ((MultiParentClassLoader) classLoader).loadClassOrNull(name, false);
+		}
+		try {
+			return classLoader.loadClass(name);
+		} catch (ClassNotFoundException ignored) {
+			// this parent didn't have the class; try the next one
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the class loaders that should be asked, in order, to load a class in the specified package. The result is
+	 * equivalent to asking each parent in turn.
+	 */
+	private ClassLoader[] getParentDelegates(String packageName) {
+		long version = getAncestorVersion();
+		Delegates delegates = parentDelegates.get(packageName);
+		if (delegates == null || delegates.getVersion() != version) {
+			List<ClassLoader> classLoaders = new ArrayList<ClassLoader>(parents.length);
+			for (int i = 0; i < parents.length; i++) {
+				if (parents[i] instanceof MultiParentClassLoader) {
+					((MultiParentClassLoader) parents[i]).addDelegates(packageName, classLoaders);
+				} else {
+					addDelegate(classLoaders, parents[i]);
+				}
+			}
+			delegates = new Delegates(version, classLoaders.toArray(new ClassLoader[classLoaders.size()]));
+			parentDelegates.put(packageName, delegates);
+		}
+		return delegates.getClassLoaders();
+	}
+
+	/**
+	 * Add the class loaders that are equivalent to asking this class loader for a class in the specified package.
+	 */
+	private void addDelegates(String packageName, List<ClassLoader> classLoaders) {
+		if (!isDelegationTransparent() || isPackagePartiallyHidden(packageName)
+				|| (!isDestroyed() && (!isLocalPackagesKnown() || mightContainLocalPackage(packageName)))) {
+			addDelegate(classLoaders, this);
+		} else if (!isPackageHidden(packageName)) {
+			ClassLoader[] delegates = getParentDelegates(packageName);
+			for (int i = 0; i < delegates.length; i++) {
+				addDelegate(classLoaders, delegates[i]);
+			}
+		}
+	}
+
+	private static void addDelegate(List<ClassLoader> classLoaders, ClassLoader classLoader) {
+		// a class loader that has already been asked will not find the class the second time
+		for (ClassLoader existing : classLoaders) {
+			if (existing == classLoader) {
+				return;
+			}
+		}
+		classLoaders.add(classLoader);
+	}
+
+	/**
+	 * Determine if loading a class can be replaced by asking the parents directly, ie subclasses have not changed the
+	 * way that classes are loaded.
+	 */
+	private boolean isDelegationTransparent() {
+		Boolean delegationTransparent = this.delegationTransparent;
+		if (delegationTransparent == null) {
+			delegationTransparent = Boolean.valueOf(!isDeclaredBelow(MultiParentClassLoader.class, "loadClass",
+					String.class, Boolean.TYPE)
+					&& !isDeclaredBelow(MultiParentClassLoader.class, "loadClass", String.class));
+			this.delegationTransparent = delegationTransparent;
+		}
+		return delegationTransparent.booleanValue();
+	}
+
+	/**
+	 * Determine if {@link #mightContainLocalPackage(String)} can be used, ie {@link #findClass(String)} has not been
+	 * overridden by a subclass that does not also override it.
+	 */
+	private boolean isLocalPackagesKnown() {
+		Boolean localPackagesKnown = this.localPackagesKnown;
+		if (localPackagesKnown == null) {
+			Class<?> declaringClass = getClass();
+			while (declaringClass != MultiParentClassLoader.class
+					&& !isDeclared(declaringClass, "mightContainLocalPackage", String.class)) {
+				declaringClass = declaringClass.getSuperclass();
+			}
+			localPackagesKnown = Boolean.valueOf(!isDeclaredBelow(declaringClass, "findClass", String.class));
+			this.localPackagesKnown = localPackagesKnown;
+		}
+		return localPackagesKnown.booleanValue();
+	}
+
+	private boolean isDeclaredBelow(Class<?> type, String name, Class<?>... parameterTypes) {
+		for (Class<?> candidate = getClass(); candidate != type; candidate = candidate.getSuperclass()) {
+			if (isDeclared(candidate, name, parameterTypes)) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	private static boolean isDeclared(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			type.getDeclaredMethod(name, parameterTypes);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		} catch (SecurityException e) {
+			// assume the worst
+			return true;
+		}
+	}
+
+	private static String getPackageName(String className) {
+		int packageEnd = className.lastIndexOf('.');
+		return (packageEnd == -1 ? "" : className.substring(0, packageEnd));
+	}
+
+	/**
+	 * Determine if every class in the package is hidden.
+	 */
+	private boolean isPackageHidden(String packageName) {
+		return hiddenClassMatcher.matches(packageName.length() == 0 ? "" : packageName + ".");
+	}
+
+	/**
+	 * Determine if some, but not necessarily all, classes in the package are hidden.
+	 */
+	private boolean isPackagePartiallyHidden(String packageName) {
+		return hiddenClassMatcher.hasPrefixExtending(packageName.length() == 0 ? "" : packageName + ".", '.');
+	}
+
+	private boolean isNonOverridableClass(String name) {
+		return nonOverridableClassMatcher.matches(name);
+	}
+
+	private boolean isHiddenClass(String name) {
+		return hiddenClassMatcher.matches(name);
+	}
+
 	private Class<?> resolveClass(Class<?> clazz, boolean resolve) {
 		if (resolve) {
 			resolveClass(clazz);
@@ -277,46 +737,28 @@ public class MultiParentClassLoader extends NamedClassLoader {
 			return EMPTY_ENUMERATION;
 		}
 
-		List<URL> resources = new ArrayList<URL>();
-
-		// if we are using inverse class loading, add the resources from local urls first
-		if (inverseClassLoading && !isDestroyed()) {
-			List<URL> myResources = Collections.list(super.findResources(name));
-			resources.addAll(myResources);
+		// if we are using inverse class loading the resources from local urls are first, otherwise they are last. Every
+		// source is asked for its resources here, so that an IOException is thrown to the caller, but the resources of
+		// each one are only read when the enumeration reaches them
+		List<Enumeration<URL>> resources = new ArrayList<Enumeration<URL>>(parents.length + 1);
+		if (inverseClassLoading) {
+			resources.add(super.findResources(name));
 		}
-
-		// Add parent resources
 		for (int i = 0; i < parents.length; i++) {
-			ClassLoader parent = parents[i];
-			List<URL> parentResources = Collections.list(parent.getResources(name));
-			resources.addAll(parentResources);
+			resources.add(parents[i].getResources(name));
 		}
-
-		// if we are not using inverse class loading, add the resources from local urls now
 		if (!inverseClassLoading && !isDestroyed()) {
-			List<URL> myResources = Collections.list(super.findResources(name));
-			resources.addAll(myResources);
+			resources.add(super.findResources(name));
 		}
-
-		return Collections.enumeration(resources);
+		return new UnionEnumeration<URL>(resources);
 	}
 
 	private boolean isNonOverridableResource(String name) {
-		for (int i = 0; i < nonOverridableResources.length; i++) {
-			if (name.startsWith(nonOverridableResources[i])) {
-				return true;
-			}
-		}
-		return false;
+		return nonOverridableResourceMatcher.matches(name);
 	}
 
 	private boolean isHiddenResource(String name) {
-		for (int i = 0; i < hiddenResources.length; i++) {
-			if (name.startsWith(hiddenResources[i])) {
-				return true;
-			}
-		}
-		return false;
+		return hiddenResourceMatcher.matches(name);
 	}
 
 	/**
@@ -326,4 +768,49 @@ public class MultiParentClassLoader extends NamedClassLoader {
 		return "[" + getClass().getName() + ":" + " name=" + getName() + " urls=" + Arrays.asList(getURLs())
 				+ " parents=" + Arrays.asList(parents) + "]";
 	}
+
+	/**
+	 * Cached class loaders to ask for a package, valid until the URLs of a {@link MultiParentClassLoader} ancestor
+	 * change.
+	 */
+	private static final class Delegates {
+
+		private final long version;
+		private final ClassLoader[] classLoaders;
+
+		public Delegates(long version, ClassLoader[] classLoaders) {
+			this.version = version;
+			this.classLoaders = classLoaders;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public ClassLoader[] getClassLoaders() {
+			return classLoaders;
+		}
+	}
+
+	/**
+	 * The combined class path version of the ancestors and the change count when it was calculated.
+	 */
+	private static final class AncestorVersion {
+
+		private final int changeCount;
+		private final long version;
+
+		public AncestorVersion(int changeCount, long version) {
+			this.changeCount = changeCount;
+			this.version = version;
+		}
+
+		public int getChangeCount() {
+			return changeCount;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+	}
 }
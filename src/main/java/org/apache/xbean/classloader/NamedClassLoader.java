@@ -29,6 +29,16 @@ import java.util.Arrays;
  */
 public class NamedClassLoader extends URLClassLoader implements DestroyableClassLoader {
 
+	static {
+		// registered using reflection to remain compatible with Java 5 and 6, the registration applies to the class
+		// that calls the method so each class loader subclass must do this in its own static initializer
+		try {
+			ClassLoader.class.getDeclaredMethod("registerAsParallelCapable").invoke(null);
+		} catch (Throwable ignored) {
+			// parallel class loading is not supported by this VM
+		}
+	}
+
 	private final String name;
 	private volatile boolean destroyed = false;
 
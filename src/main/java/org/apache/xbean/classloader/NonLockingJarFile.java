@@ -25,35 +25,46 @@ import java.lang.ref.SoftReference;
 import java.net.URLClassLoader;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedHashMap;
 import java.util.Locale;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 /**
  * A {@link JarFile} implementation that does not lock the underlying JAR file as entries are accessed. This
  * implementation can be used to overcome the file locking issues that occur when using {@link URLClassLoader}s on
  * Microsoft Windows.
+ * <p/>
+ * The {@link JarFile} constructor still opens the file and reads its central directory natively, the file is closed
+ * again as soon as the object has been constructed. The {@link #getJarIndexCache() jar index cache} only saves reading
+ * the central directory a second time when entries are first used, jars that should not be opened at all until they
+ * are needed must be added to a {@link UrlResourceFinder} with {@link UrlResourceFinder#setLazyOpening(boolean) lazy
+ * opening} enabled (see {@link LazyJarResourceLocation}).
  * 
  * @author Phillip Webb
  */
-public class NonLockingJarFile extends JarFile {
+public class NonLockingJarFile extends JarFile implements ChangeDetectionPolicy.Checkable {
 
 	private static final JarEntry NO_MANIFEST = new JarEntry(NonLockingJarFile.class.getName() + ".NO_MANIFEST");
 
 	private File file;
 
-	private Long previousLastModified;
+	private volatile ChangeDetectionPolicy changeDetectionPolicy;
 
-	private SoftReference<Map<String, CachedJarEntry>> jarEntryCache;
+	private volatile long lastChecked;
 
-	private JarEntry manifestJarEntry;
+	private volatile Long previousLastModified;
 
-	private SoftReference<Manifest> manifestRef;
+	private volatile SoftReference<JarEntryCache> jarEntryCache;
+
+	private volatile JarEntry manifestJarEntry;
+
+	private volatile SoftReference<Manifest> manifestRef;
 
 	/**
 	 * Creates a new <code>NonLockingJarFile</code> to read from the specified file <code>name</code>. The
@@ -112,6 +123,8 @@ public class NonLockingJarFile extends JarFile {
 	public NonLockingJarFile(File file, boolean verify, int mode) throws IOException {
 		super(file, verify, mode);
 		initialize(file, verify, mode);
+		// only hand this jar file to the policy, which may check it from another thread, once it is constructed
+		changeDetectionPolicy.register(this);
 	}
 
 	/**
@@ -123,6 +136,7 @@ public class NonLockingJarFile extends JarFile {
 	 */
 	protected void initialize(File file, boolean verify, int mode) throws IOException {
 		this.file = file;
+		this.changeDetectionPolicy = ChangeDetectionPolicy.getDefault();
 		close();
 	}
 
@@ -143,44 +157,174 @@ public class NonLockingJarFile extends JarFile {
 		return new JarFile(file, false, ZipFile.OPEN_READ);
 	}
 
+	/**
+	 * Set the policy used to determine when the underlying file is checked for changes. Defaults to
+	 * {@link ChangeDetectionPolicy#getDefault()}.
+	 * @param changeDetectionPolicy the change detection policy
+	 */
+	public void setChangeDetectionPolicy(ChangeDetectionPolicy changeDetectionPolicy) {
+		if (changeDetectionPolicy == null) {
+			throw new IllegalArgumentException("ChangeDetectionPolicy must not be null");
+		}
+		ChangeDetectionPolicy previous = this.changeDetectionPolicy;
+		this.changeDetectionPolicy = changeDetectionPolicy;
+		if (previous != changeDetectionPolicy) {
+			previous.unregister(this);
+			changeDetectionPolicy.register(this);
+		}
+	}
+
+	/**
+	 * @return the policy used to determine when the underlying file is checked for changes
+	 */
+	public ChangeDetectionPolicy getChangeDetectionPolicy() {
+		return changeDetectionPolicy;
+	}
+
+	/**
+	 * Returns the cache used to hold entry data. By default entry data is held in the
+	 * {@link EntryDataCache#getSharedInstance() shared} cache.
+	 * @return the entry data cache
+	 */
+	protected EntryDataCache getEntryDataCache() {
+		return EntryDataCache.getSharedInstance();
+	}
+
+	/**
+	 * Returns the persistent cache used to hold the entry index, so that the central directory does not need to be
+	 * read again after a restart. By default the {@link JarIndexCache#getDefault() default} cache is used. The cache
+	 * does not avoid the native open made by the {@link JarFile} constructor.
+	 * @return the jar index cache or <tt>null</tt> if the index should not be cached
+	 */
+	protected JarIndexCache getJarIndexCache() {
+		return JarIndexCache.getDefault();
+	}
+
+	/**
+	 * Clears any cached data if the underlying file has been modified. The file is always checked before the cache is
+	 * first loaded, subsequent checks are controlled by the {@link ChangeDetectionPolicy}.
+	 */
 	private void clearJarEntryCacheIfFileHasChanged() {
+		if (previousLastModified == null || changeDetectionPolicy.isCheckRequired(lastChecked)) {
+			checkForChanges();
+		}
+	}
+
+	/**
+	 * Check the underlying file and clear any cached data if it has been modified. Cached state is held in volatile
+	 * fields so that lookups can run concurrently, any changes to the cache are made while holding the monitor of this
+	 * object.
+	 */
+	public void checkForChanges() {
+		lastChecked = System.currentTimeMillis();
 		long lastModified = file.lastModified();
+		Long previousLastModified = this.previousLastModified;
 		if (previousLastModified == null || previousLastModified.longValue() != lastModified) {
-			previousLastModified = new Long(lastModified);
-			jarEntryCache = null;
-			manifestJarEntry = null;
-			manifestRef = null;
+			synchronized (this) {
+				this.previousLastModified = new Long(lastModified);
+				jarEntryCache = null;
+				manifestJarEntry = null;
+				manifestRef = null;
+			}
 		}
 	}
 
-	private Map<String, CachedJarEntry> getJarEntryCache() {
+	/**
+	 * Returns the last modified time of the file that entries are currently read from, first checking the file for
+	 * changes if the {@link ChangeDetectionPolicy} requires it. Used to detect that cached package names are stale.
+	 * @return the last modified time
+	 */
+	long getLastModified() {
+		clearJarEntryCacheIfFileHasChanged();
+		return previousLastModified.longValue();
+	}
+
+	private JarEntryCache getJarEntryCache() {
 		clearJarEntryCacheIfFileHasChanged();
-		Map<String, CachedJarEntry> rtn = (jarEntryCache == null ? null : jarEntryCache.get());
+		JarEntryCache rtn = getCachedJarEntries();
 		if (rtn == null) {
-			try {
-				JarFile jarFile = reopenJarFile();
-				try {
-					rtn = new LinkedHashMap<String, CachedJarEntry>();
-					Enumeration<JarEntry> entries = jarFile.entries();
-					while (entries.hasMoreElements()) {
-						JarEntry entry = entries.nextElement();
-						rtn.put(entry.getName(), new CachedJarEntry(entry));
-					}
-					jarEntryCache = new SoftReference<Map<String, CachedJarEntry>>(rtn);
-				} finally {
-					jarFile.close();
+			synchronized (this) {
+				rtn = getCachedJarEntries();
+				if (rtn == null) {
+					rtn = loadJarEntries();
+					jarEntryCache = new SoftReference<JarEntryCache>(rtn);
 				}
-			} catch (IOException e) {
-				throw new IllegalStateException(e);
 			}
 		}
 		return rtn;
 	}
 
-	private byte[] getZipEntryBytes(ZipEntry ze) throws IOException {
+	private JarEntryCache getCachedJarEntries() {
+		SoftReference<JarEntryCache> jarEntryCache = this.jarEntryCache;
+		return (jarEntryCache == null ? null : jarEntryCache.get());
+	}
+
+	private JarEntryCache loadJarEntries() {
+		try {
+			long lastModified = previousLastModified.longValue();
+			JarIndexCache jarIndexCache = getJarIndexCache();
+			JarIndexCache.Entry cached = (jarIndexCache == null ? null : jarIndexCache.get(file, lastModified));
+			if (cached != null) {
+				if (cached.getManifest() != null) {
+					getEntryDataCache().put(file, lastModified, MANIFEST_NAME, cached.getManifest());
+				}
+				return new JarEntryCache(cached.getCentralDirectory(), lastModified);
+			}
+			ZipCentralDirectory centralDirectory;
+			try {
+				centralDirectory = ZipCentralDirectory.read(file);
+			} catch (ZipException e) {
+				// unsupported zip format, fallback to reopening the jar
+				return new JarEntryCache(loadCentralDirectoryFromJarFile(), lastModified);
+			}
+			if (jarIndexCache != null) {
+				jarIndexCache.put(file, lastModified, new JarIndexCache.Entry(centralDirectory,
+						getManifestBytes(centralDirectory, lastModified)));
+			}
+			return new JarEntryCache(centralDirectory, lastModified);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the manifest so that it can be stored in the {@link JarIndexCache}, also adding it to the
+	 * {@link EntryDataCache} since it is almost always needed.
+	 */
+	private byte[] getManifestBytes(ZipCentralDirectory centralDirectory, long lastModified) throws IOException {
+		int index = centralDirectory.indexOf(MANIFEST_NAME);
+		if (index == -1) {
+			return null;
+		}
+		byte[] manifest = getZipEntryBytes(centralDirectory, index);
+		getEntryDataCache().put(file, lastModified, MANIFEST_NAME, manifest);
+		return manifest;
+	}
+
+	/**
+	 * Load entries by enumerating a reopened {@link JarFile}. Entries loaded this way have no local header offset and
+	 * will also be read using {@link #reopenJarFile()}.
+	 * @return the loaded entries
+	 * @throws IOException
+	 */
+	private ZipCentralDirectory loadCentralDirectoryFromJarFile() throws IOException {
 		JarFile jarFile = reopenJarFile();
 		try {
-			return getBytes(jarFile.getInputStream(ze));
+			return ZipCentralDirectory.create(Collections.list(jarFile.entries()));
+		} finally {
+			jarFile.close();
+		}
+	}
+
+	private byte[] getZipEntryBytes(ZipCentralDirectory centralDirectory, int index) throws IOException {
+		long localHeaderOffset = centralDirectory.getLocalHeaderOffset(index);
+		if (localHeaderOffset != -1) {
+			return ZipEntryReader.read(file, localHeaderOffset, centralDirectory.getMethod(index), centralDirectory
+					.getCompressedSize(index), centralDirectory.getSize(index), centralDirectory.getCrc(index));
+		}
+		JarFile jarFile = reopenJarFile();
+		try {
+			return getBytes(jarFile.getInputStream(jarFile.getEntry(centralDirectory.getName(index))));
 		} finally {
 			jarFile.close();
 		}
@@ -210,46 +354,74 @@ public class NonLockingJarFile extends JarFile {
 
 	@Override
 	public JarEntry getJarEntry(String name) {
-		CachedJarEntry cachedJarEntry = getJarEntryCache().get(name);
-		return cachedJarEntry == null ? null : cachedJarEntry.getJarEntry();
+		ZipCentralDirectory centralDirectory = getJarEntryCache().getCentralDirectory();
+		int index = centralDirectory.indexOf(name);
+		return (index == -1 ? null : new NonLockingJarEntry(centralDirectory, index));
 	}
 
 	@Override
 	public Enumeration<JarEntry> entries() {
 
-		final Enumeration<CachedJarEntry> cacheEnumeration = Collections.enumeration(getJarEntryCache().values());
+		final ZipCentralDirectory centralDirectory = getJarEntryCache().getCentralDirectory();
 
 		return new Enumeration<JarEntry>() {
 
+			private int index;
+
 			public boolean hasMoreElements() {
-				return cacheEnumeration.hasMoreElements();
+				return index < centralDirectory.getSize();
 			}
 
 			public JarEntry nextElement() {
-				return cacheEnumeration.nextElement().getJarEntry();
+				if (!hasMoreElements()) {
+					throw new NoSuchElementException();
+				}
+				return new NonLockingJarEntry(centralDirectory, index++);
 			}
 		};
 	}
 
 	@Override
-	public synchronized InputStream getInputStream(ZipEntry ze) throws IOException {
+	public int size() {
+		return getJarEntryCache().getCentralDirectory().getSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Entries are read without holding the monitor of this object, a jar file shared between class loaders can be read
+	 * by many threads at once. Entry data is read with positional reads and only the cached index is guarded.
+	 */
+	@Override
+	public InputStream getInputStream(ZipEntry ze) throws IOException {
 		if (ze == null) {
 			throw new IllegalArgumentException("The zip entry is required");
 		}
-		CachedJarEntry cacheEntry = getJarEntryCache().get(ze.getName());
-		if (cacheEntry == null) {
-			throw new IOException("Unable to locate JAR entry with name " + ze.getName());
+		String name = ze.getName();
+		JarEntryCache cache = getJarEntryCache();
+		ZipCentralDirectory centralDirectory = cache.getCentralDirectory();
+		int index = centralDirectory.indexOf(name);
+		if (index == -1) {
+			throw new IOException("Unable to locate JAR entry with name " + name);
+		}
+		EntryDataCache entryDataCache = getEntryDataCache();
+		byte[] data = entryDataCache.get(file, cache.getLastModified(), name);
+		if (data == null) {
+			data = getZipEntryBytes(centralDirectory, index);
+			entryDataCache.put(file, cache.getLastModified(), name, data);
 		}
-		return cacheEntry.getInputStream(this);
+		return new ByteArrayInputStream(data);
 	}
 
-	private JarEntry getManifestEntry() {
+	private synchronized JarEntry getManifestEntry() {
 		if (manifestJarEntry == null) {
 			manifestJarEntry = getJarEntry(MANIFEST_NAME);
 			if (manifestJarEntry == null) {
-				for (CachedJarEntry cachedJarEntry : getJarEntryCache().values()) {
-					if (MANIFEST_NAME.equals(cachedJarEntry.getJarEntry().getName().toUpperCase(Locale.ENGLISH))) {
-						manifestJarEntry = cachedJarEntry.getJarEntry();
+				ZipCentralDirectory centralDirectory = getJarEntryCache().getCentralDirectory();
+				for (int i = 0; i < centralDirectory.getSize(); i++) {
+					if (centralDirectory.getNameLength(i) == MANIFEST_NAME.length()
+							&& MANIFEST_NAME.equals(centralDirectory.getName(i).toUpperCase(Locale.ENGLISH))) {
+						manifestJarEntry = new NonLockingJarEntry(centralDirectory, i);
 						break;
 					}
 				}
@@ -263,35 +435,80 @@ public class NonLockingJarFile extends JarFile {
 
 	public Manifest getManifest() throws IOException {
 		clearJarEntryCacheIfFileHasChanged();
+		SoftReference<Manifest> manifestRef = this.manifestRef;
 		Manifest manifest = (manifestRef != null ? manifestRef.get() : null);
 		if (manifest == null) {
 			JarEntry manEntry = getManifestEntry();
 			if (manEntry != null) {
 				manifest = new Manifest(getInputStream(manEntry));
 			}
-			manifestRef = new SoftReference<Manifest>(manifest);
+			this.manifestRef = new SoftReference<Manifest>(manifest);
 		}
 		return manifest;
 	}
 
-	private static class CachedJarEntry {
-		private JarEntry jarEntry;
+	/**
+	 * {@link JarEntry} created directly from the {@link ZipCentralDirectory}. Attributes are obtained from the manifest
+	 * of the enclosing {@link NonLockingJarFile}.
+	 */
+	private class NonLockingJarEntry extends JarEntry {
 
-		private byte[] inputStreamData;
+		private final int dosTime;
 
-		public CachedJarEntry(JarEntry jarEntry) {
-			this.jarEntry = jarEntry;
-		}
+		private boolean timeSet;
 
-		public JarEntry getJarEntry() {
-			return jarEntry;
+		public NonLockingJarEntry(ZipCentralDirectory centralDirectory, int index) {
+			super(centralDirectory.getName(index));
+			setMethod(centralDirectory.getMethod(index));
+			setSize(centralDirectory.getSize(index));
+			setCompressedSize(centralDirectory.getCompressedSize(index));
+			setCrc(centralDirectory.getCrc(index));
+			this.dosTime = centralDirectory.getDosTime(index);
 		}
 
-		public InputStream getInputStream(NonLockingJarFile file) throws IOException {
-			if (inputStreamData == null) {
-				inputStreamData = file.getZipEntryBytes(jarEntry);
+		@Override
+		public long getTime() {
+			// Converting the DOS time needs a Calendar so only do it when the time is actually used
+			if (!this.timeSet) {
+				setTime(ZipCentralDirectory.toJavaTime(this.dosTime));
 			}
-			return new ByteArrayInputStream(inputStreamData);
+			return super.getTime();
+		}
+
+		@Override
+		public void setTime(long time) {
+			super.setTime(time);
+			this.timeSet = true;
+		}
+
+		@Override
+		public Attributes getAttributes() throws IOException {
+			Manifest manifest = getManifest();
+			return (manifest == null ? null : manifest.getAttributes(getName()));
+		}
+	}
+
+	/**
+	 * Cached entry details for the jar file, held via a {@link SoftReference}. Entry data is held separately in the
+	 * {@link EntryDataCache}.
+	 */
+	private static class JarEntryCache {
+
+		private final ZipCentralDirectory centralDirectory;
+
+		private final long lastModified;
+
+		public JarEntryCache(ZipCentralDirectory centralDirectory, long lastModified) {
+			this.centralDirectory = centralDirectory;
+			this.lastModified = lastModified;
+		}
+
+		public ZipCentralDirectory getCentralDirectory() {
+			return centralDirectory;
+		}
+
+		public long getLastModified() {
+			return lastModified;
 		}
 	}
 }
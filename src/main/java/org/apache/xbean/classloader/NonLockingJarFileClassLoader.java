@@ -16,16 +16,8 @@
  */
 package org.apache.xbean.classloader;
 
-import java.io.File;
-import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.net.URL;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.jar.JarFile;
-
-import org.apache.xbean.classloader.UrlResourceFinder.JarFileFactory;
 
 /**
  * A variation of {@link JarFileClassLoader} that never locks underlying JAR files, allowing JARs to be deleted even if
@@ -35,20 +27,14 @@ import org.apache.xbean.classloader.UrlResourceFinder.JarFileFactory;
  */
 public class NonLockingJarFileClassLoader extends JarFileClassLoader {
 
-	private static final JarFileFactory JAR_FILE_FACTORY = new JarFileFactory() {
-
-		private Map<File, SoftReference<NonLockingJarFile>> jarFileCache = new HashMap<File, SoftReference<NonLockingJarFile>>();
-
-		public JarFile newJarFile(File file) throws IOException {
-			SoftReference<NonLockingJarFile> cached = jarFileCache.get(file);
-			NonLockingJarFile rtn = (cached == null ? null : cached.get());
-			if (rtn == null) {
-				rtn = new NonLockingJarFile(file);
-				jarFileCache.put(file, new SoftReference<NonLockingJarFile>(rtn));
-			}
-			return rtn;
+	static {
+		// see NamedClassLoader
+		try {
+			ClassLoader.class.getDeclaredMethod("registerAsParallelCapable").invoke(null);
+		} catch (Throwable ignored) {
+			// parallel class loading is not supported by this VM
 		}
-	};
+	}
 
 	public NonLockingJarFileClassLoader(String name, URL[] urls, ClassLoader parent, boolean inverseClassLoading,
 			String[] hiddenClasses, String[] nonOverridableClasses) {
@@ -77,7 +63,12 @@ public class NonLockingJarFileClassLoader extends JarFileClassLoader {
 		super(name, urls);
 	}
 
+	/**
+	 * Creates a {@link UrlResourceFinder} that obtains jar files from the {@link JarFileRegistry#getSharedInstance()
+	 * shared registry} so that loaders referencing the same jar share a single {@link NonLockingJarFile}. Jar files are
+	 * released when the loader is {@link #destroy() destroyed}.
+	 */
 	protected UrlResourceFinder newResourceFinder() {
-		return new UrlResourceFinder(JAR_FILE_FACTORY);
+		return new UrlResourceFinder(JarFileRegistry.getSharedInstance());
 	}
 }
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index from package names to the ordered list of {@link ResourceLocation}s that contain them. Used by the
+ * {@link UrlResourceFinder} so that a resource lookup only probes locations that can actually supply the resource,
+ * similar to the JDK <tt>INDEX.LIST</tt> support but computed automatically from the location contents.
+ * <p/>
+ * Locations that do not implement {@link IndexedResourceLocation} (or cannot list their packages) are considered to
+ * contain every package and will be returned for all lookups. Locations are always returned in the order that they were
+ * {@link #add added}.
+ * <p/>
+ * The index is append only. Lookups can be performed concurrently with {@link #add}, and can be limited to the
+ * locations that had been added when a snapshot of the class path was taken, see {@link #size()}.
+ *
+ * @see IndexedResourceLocation
+ *
+ * @author Phillip Webb
+ */
+public class PackageIndex {
+
+	private final Map<String, LocationList> packages = new ConcurrentHashMap<String, LocationList>();
+
+	private volatile LocationList unindexedLocations = LocationList.EMPTY;
+
+	private final Map<ResourceLocation, Integer> positions = new IdentityHashMap<ResourceLocation, Integer>();
+
+	private volatile int size;
+
+	/**
+	 * Add a location to the end of the index.
+	 * @param location the location to add
+	 */
+	public synchronized void add(ResourceLocation location) {
+		if (location == null) {
+			throw new IllegalArgumentException("Illegal null location specified for PackageIndex");
+		}
+		if (positions.containsKey(location)) {
+			return;
+		}
+		int position = positions.size();
+		positions.put(location, Integer.valueOf(position));
+		Set<String> packageNames = null;
+		if (location instanceof IndexedResourceLocation) {
+			packageNames = ((IndexedResourceLocation) location).getPackageNames();
+		}
+		if (packageNames == null) {
+			unindexedLocations = unindexedLocations.add(location, position);
+		} else {
+			for (String packageName : packageNames) {
+				LocationList locations = packages.get(packageName);
+				packages.put(packageName, (locations == null ? LocationList.EMPTY : locations).add(location, position));
+			}
+		}
+		// publish the location to limited lookups last
+		size = position + 1;
+	}
+
+	/**
+	 * @return the number of locations that have been added to the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the locations that may contain the specified resource, in the order that they were added. The returned
+	 * list must not be modified.
+	 * @param resourceName the name of the resource
+	 * @return the candidate locations
+	 */
+	public List<ResourceLocation> getLocations(String resourceName) {
+		return getLocations(resourceName, size);
+	}
+
+	/**
+	 * Returns the locations that may contain the specified resource, considering only the first <tt>limit</tt>
+	 * locations that were added. The returned list must not be modified.
+	 * @param resourceName the name of the resource
+	 * @param limit the number of locations to consider
+	 * @return the candidate locations
+	 */
+	public List<ResourceLocation> getLocations(String resourceName, int limit) {
+		LocationList indexedLocations = packages.get(getPackageName(resourceName));
+		LocationList unindexedLocations = this.unindexedLocations;
+		if (unindexedLocations.isEmpty(limit)) {
+			return (indexedLocations == null ? Collections.<ResourceLocation> emptyList() : indexedLocations
+					.getLocations(limit));
+		}
+		if (indexedLocations == null || indexedLocations.isEmpty(limit)) {
+			return unindexedLocations.getLocations(limit);
+		}
+		return merge(indexedLocations, unindexedLocations, limit);
+	}
+
+	private List<ResourceLocation> merge(LocationList first, LocationList second, int limit) {
+		int firstSize = first.size(limit);
+		int secondSize = second.size(limit);
+		List<ResourceLocation> merged = new ArrayList<ResourceLocation>(firstSize + secondSize);
+		int i = 0;
+		int j = 0;
+		while (i < firstSize && j < secondSize) {
+			if (first.getPosition(i) < second.getPosition(j)) {
+				merged.add(first.get(i++));
+			} else {
+				merged.add(second.get(j++));
+			}
+		}
+		merged.addAll(first.getLocations(limit).subList(i, firstSize));
+		merged.addAll(second.getLocations(limit).subList(j, secondSize));
+		return merged;
+	}
+
+	/**
+	 * Determine if any location might contain the specified package.
+	 * @param packageName the package name, see {@link #getPackageName(String)}
+	 * @return <tt>false</tt> if no location contains the package
+	 */
+	public boolean mightContainPackage(String packageName) {
+		return mightContainPackage(packageName, size);
+	}
+
+	/**
+	 * Determine if any of the first <tt>limit</tt> locations that were added might contain the specified package.
+	 * @param packageName the package name, see {@link #getPackageName(String)}
+	 * @param limit the number of locations to consider
+	 * @return <tt>false</tt> if no location contains the package
+	 */
+	public boolean mightContainPackage(String packageName, int limit) {
+		if (!unindexedLocations.isEmpty(limit)) {
+			return true;
+		}
+		LocationList locations = packages.get(packageName);
+		return (locations != null && !locations.isEmpty(limit));
+	}
+
+	/**
+	 * Returns the names of all packages in the index, or <tt>null</tt> if the index contains locations that cannot
+	 * list their packages. The returned set must not be modified.
+	 * @return the package names or <tt>null</tt>
+	 */
+	public Set<String> getPackageNames() {
+		return getPackageNames(size);
+	}
+
+	/**
+	 * Returns the names of all packages in the first <tt>limit</tt> locations that were added, or <tt>null</tt> if any
+	 * of them cannot list their packages. The returned set must not be modified.
+	 * @param limit the number of locations to consider
+	 * @return the package names or <tt>null</tt>
+	 */
+	public Set<String> getPackageNames(int limit) {
+		if (!unindexedLocations.isEmpty(limit)) {
+			return null;
+		}
+		if (limit >= size) {
+			return Collections.unmodifiableSet(packages.keySet());
+		}
+		// only needed when a newer location has been added since the limit was taken
+		Set<String> packageNames = new HashSet<String>();
+		for (Map.Entry<String, LocationList> entry : packages.entrySet()) {
+			if (!entry.getValue().isEmpty(limit)) {
+				packageNames.add(entry.getKey());
+			}
+		}
+		return Collections.unmodifiableSet(packageNames);
+	}
+
+	/**
+	 * @return the number of distinct packages in the index
+	 */
+	public int getPackageCount() {
+		return packages.size();
+	}
+
+	/**
+	 * Returns the package name of the specified resource, ie the <tt>'/'</tt> separated directory that contains it. Any
+	 * trailing <tt>'/'</tt> is ignored so that directory resources belong to their parent package, the same way that
+	 * {@link java.util.zip.ZipFile#getEntry(String)} matches directory entries.
+	 * @param resourceName the resource name
+	 * @return the package name or <tt>""</tt> for resources in the root
+	 */
+	public static String getPackageName(String resourceName) {
+		int end = resourceName.length();
+		if (end > 0 && resourceName.charAt(end - 1) == '/') {
+			end--;
+		}
+		int packageEnd = resourceName.lastIndexOf('/', end - 1);
+		return (packageEnd <= 0 ? "" : resourceName.substring(0, packageEnd));
+	}
+
+	/**
+	 * Immutable list of locations and their positions in the index. Lists created by {@link #add} share the same
+	 * arrays, growing them when they are full, and each list only reads the elements that it contains. A location can
+	 * therefore be added without copying the list, as long as only the latest list is ever added to.
+	 */
+	private static final class LocationList {
+
+		public static final LocationList EMPTY = new LocationList(new ResourceLocation[0], new int[0], 0);
+
+		private final ResourceLocation[] locations;
+
+		private final int[] positions;
+
+		private final int size;
+
+		private final List<ResourceLocation> list;
+
+		private LocationList(ResourceLocation[] locations, int[] positions, int size) {
+			this.locations = locations;
+			this.positions = positions;
+			this.size = size;
+			this.list = Collections.unmodifiableList(Arrays.asList(locations).subList(0, size));
+		}
+
+		public LocationList add(ResourceLocation location, int position) {
+			ResourceLocation[] locations = this.locations;
+			int[] positions = this.positions;
+			if (size == locations.length) {
+				int capacity = Math.max(1, size * 2);
+				locations = new ResourceLocation[capacity];
+				positions = new int[capacity];
+				System.arraycopy(this.locations, 0, locations, 0, size);
+				System.arraycopy(this.positions, 0, positions, 0, size);
+			}
+			locations[size] = location;
+			positions[size] = position;
+			return new LocationList(locations, positions, size + 1);
+		}
+
+		public ResourceLocation get(int index) {
+			return locations[index];
+		}
+
+		public int getPosition(int index) {
+			return positions[index];
+		}
+
+		/**
+		 * Returns the number of locations in the list whose position is less than the limit.
+		 */
+		public int size(int limit) {
+			int size = this.size;
+			while (size > 0 && positions[size - 1] >= limit) {
+				size--;
+			}
+			return size;
+		}
+
+		public boolean isEmpty(int limit) {
+			return (size == 0 || positions[0] >= limit);
+		}
+
+		public List<ResourceLocation> getLocations(int limit) {
+			int size = size(limit);
+			return (size == this.size ? list : list.subList(0, size));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes from package names to the class loader that supplies them, used by a {@link MultiParentClassLoader} to ask a
+ * single parent for a class instead of asking each parent in turn. Routes are either learned as classes are loaded or
+ * seeded from the package indexes of the parents, see {@link MultiParentClassLoader#setPackageRouting(boolean)}.
+ * <p/>
+ * Routes are cleared whenever the URLs of the class loader or of one of its {@link MultiParentClassLoader} ancestors
+ * change. The table also records how often a route was used to load a class (a hit) compared with how often the
+ * parents had to be searched (a miss).
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Phillip Webb
+ */
+public final class PackageRoutingTable {
+
+	private final ConcurrentHashMap<String, ClassLoader> routes = new ConcurrentHashMap<String, ClassLoader>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private volatile long version;
+
+	PackageRoutingTable(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Clear all routes if they were added for a different class path version.
+	 */
+	void checkVersion(long version) {
+		if (this.version != version) {
+			synchronized (this) {
+				if (this.version != version) {
+					routes.clear();
+					this.version = version;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the class loader that supplies the specified package.
+	 * @param packageName the <tt>'.'</tt> separated package name or <tt>""</tt> for the default package
+	 * @return the class loader or <tt>null</tt> if the package has no route
+	 */
+	public ClassLoader getRoute(String packageName) {
+		return routes.get(packageName);
+	}
+
+	/**
+	 * Add a route for the specified package unless it already has one.
+	 * @param packageName the <tt>'.'</tt> separated package name or <tt>""</tt> for the default package
+	 * @param classLoader the class loader that supplies the package
+	 * @return <tt>true</tt> if the route was added
+	 */
+	public boolean addRoute(String packageName, ClassLoader classLoader) {
+		if (classLoader == null) {
+			throw new IllegalArgumentException("ClassLoader must not be null");
+		}
+		return routes.putIfAbsent(packageName, classLoader) == null;
+	}
+
+	void recordHit() {
+		hitCount.incrementAndGet();
+	}
+
+	void recordMiss() {
+		missCount.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of packages that have a route
+	 */
+	public int getRouteCount() {
+		return routes.size();
+	}
+
+	/**
+	 * @return the number of classes loaded using a route
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of classes that had no route, or that were not found using their route
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the proportion of classes that were loaded using a route, out of all classes that were not hidden or
+	 * loaded before the parents were asked.
+	 * @return the hit rate between <tt>0.0</tt> and <tt>1.0</tt>
+	 */
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return (total == 0 ? 0.0 : (double) hits / total);
+	}
+
+	public String toString() {
+		return "PackageRoutingTable[routes=" + getRouteCount() + ", hits=" + getHitCount() + ", misses="
+				+ getMissCount() + ", hitRate=" + getHitRate() + "]";
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable matcher that determines if a name starts with any of a set of prefixes. The prefixes are compiled into a
+ * trie so that matching a name costs at most one step per character, regardless of the number of prefixes. Runs of
+ * characters without a branch, such as a common <tt>org.apache.</tt> prefix, are compared in a single step and each
+ * branch is a binary search of the characters that can follow. Matching stops as soon as a prefix is found or no
+ * prefix can match.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Phillip Webb
+ */
+final class PrefixMatcher {
+
+	private static final char[] NO_CHARS = {};
+
+	private static final Node[] NO_NODES = {};
+
+	private final Node root;
+
+	/**
+	 * Create a new matcher.
+	 * @param prefixes the prefixes to match
+	 */
+	public PrefixMatcher(String[] prefixes) {
+		Builder builder = new Builder();
+		for (int i = 0; i < prefixes.length; i++) {
+			builder.add(prefixes[i]);
+		}
+		this.root = builder.build();
+	}
+
+	/**
+	 * Determine if the name starts with any of the prefixes.
+	 * @param name the name to test
+	 * @return <tt>true</tt> if a prefix matches
+	 */
+	public boolean matches(String name) {
+		Node node = root;
+		int length = name.length();
+		int i = 0;
+		while (true) {
+			String path = node.path;
+			if (!name.startsWith(path, i)) {
+				return false;
+			}
+			i += path.length();
+			if (node.terminal) {
+				return true;
+			}
+			if (i == length || (node = node.getChild(name.charAt(i))) == null) {
+				return false;
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Determine if any prefix extends the name, ie it is longer than the name, starts with it and does not contain the
+	 * separator after it. Names that already match a prefix, see {@link #matches(String)}, are not extended. Like
+	 * {@link #matches(String)} only the part of the trie that follows the name is searched.
+	 * @param name the name to test
+	 * @param separator the character that must not follow the name in the prefix
+	 * @return <tt>true</tt> if a prefix extends the name
+	 */
+	public boolean hasPrefixExtending(String name, char separator) {
+		Node node = root;
+		int length = name.length();
+		int i = 0;
+		while (true) {
+			String path = node.path;
+			int common = Math.min(path.length(), length - i);
+			if (!name.regionMatches(i, path, 0, common)) {
+				return false;
+			}
+			if (common < path.length()) {
+				// the name ends within the path
+				return path.indexOf(separator, common) == -1 && node.hasTerminalWithout(separator);
+			}
+			i += common;
+			if (node.terminal) {
+				return false;
+			}
+			if (i == length) {
+				return node.hasTerminalWithout(separator);
+			}
+			if ((node = node.getChild(name.charAt(i))) == null) {
+				return false;
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * A compiled trie node. The path holds the characters that must follow before the node is reached, children are
+	 * held in parallel arrays sorted by character.
+	 */
+	private static final class Node {
+
+		private final String path;
+
+		private final boolean terminal;
+
+		private final char[] chars;
+
+		private final Node[] children;
+
+		public Node(String path, boolean terminal, char[] chars, Node[] children) {
+			this.path = path;
+			this.terminal = terminal;
+			this.chars = chars;
+			this.children = children;
+		}
+
+		public Node getChild(char c) {
+			int low = 0;
+			int high = chars.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midChar = chars[mid];
+				if (midChar < c) {
+					low = mid + 1;
+				} else if (midChar > c) {
+					high = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Determine if this node, or a node below it that can be reached without the separator, is terminal. The path
+		 * of this node is not checked.
+		 */
+		public boolean hasTerminalWithout(char separator) {
+			if (terminal) {
+				return true;
+			}
+			for (int i = 0; i < chars.length; i++) {
+				if (chars[i] != separator && children[i].path.indexOf(separator) == -1
+						&& children[i].hasTerminalWithout(separator)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Mutable trie node used while the matcher is being built.
+	 */
+	private static final class Builder {
+
+		private boolean terminal;
+
+		private final Map<Character, Builder> children = new TreeMap<Character, Builder>();
+
+		public void add(String prefix) {
+			Builder builder = this;
+			for (int i = 0; i < prefix.length() && !builder.terminal; i++) {
+				Character c = Character.valueOf(prefix.charAt(i));
+				Builder child = builder.children.get(c);
+				if (child == null) {
+					child = new Builder();
+					builder.children.put(c, child);
+				}
+				builder = child;
+			}
+			// longer prefixes are redundant since a shorter prefix already matches
+			builder.terminal = true;
+			builder.children.clear();
+		}
+
+		public Node build() {
+			// collapse a run of nodes that each have a single child into the path
+			StringBuilder path = new StringBuilder();
+			Builder builder = this;
+			while (!builder.terminal && builder.children.size() == 1) {
+				Map.Entry<Character, Builder> entry = builder.children.entrySet().iterator().next();
+				path.append(entry.getKey().charValue());
+				builder = entry.getValue();
+			}
+			if (builder.children.isEmpty()) {
+				return new Node(path.toString(), builder.terminal, NO_CHARS, NO_NODES);
+			}
+			char[] chars = new char[builder.children.size()];
+			Node[] nodes = new Node[builder.children.size()];
+			int i = 0;
+			for (Map.Entry<Character, Builder> entry : builder.children.entrySet()) {
+				chars[i] = entry.getKey().charValue();
+				nodes[i] = entry.getValue().build();
+				i++;
+			}
+			return new Node(path.toString(), builder.terminal, chars, nodes);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle used to follow classes that are being preloaded in the background by a {@link JarFileClassLoader}. Each class
+ * is either loaded or has failed once the handle {@link #isDone() is done}. A failure to load one class does not stop
+ * the other classes from being loaded.
+ * <p/>
+ * This class is thread safe.
+ * 
+ * @see JarFileClassLoader#preloadClasses(Collection, java.util.concurrent.ExecutorService)
+ * @see JarFileClassLoader#preloadPackage(String, java.util.concurrent.ExecutorService)
+ * 
+ * @author Phillip Webb
+ */
+public final class PreloadHandle {
+
+	private final int classCount;
+
+	private final CountDownLatch remaining;
+
+	private final ConcurrentHashMap<String, Class<?>> loadedClasses = new ConcurrentHashMap<String, Class<?>>();
+
+	private final ConcurrentHashMap<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+
+	PreloadHandle(int classCount) {
+		this.classCount = classCount;
+		this.remaining = new CountDownLatch(classCount);
+	}
+
+	void loaded(String className, Class<?> loadedClass) {
+		loadedClasses.put(className, loadedClass);
+		remaining.countDown();
+	}
+
+	void failed(String className, Throwable failure) {
+		failures.put(className, failure);
+		remaining.countDown();
+	}
+
+	/**
+	 * Wait until every class has been loaded or has failed.
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public void await() throws InterruptedException {
+		remaining.await();
+	}
+
+	/**
+	 * Wait until every class has been loaded or has failed, or the timeout has elapsed.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return <tt>true</tt> if the handle is done or <tt>false</tt> if the timeout elapsed first
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return remaining.await(timeout, unit);
+	}
+
+	/**
+	 * @return <tt>true</tt> if every class has been loaded or has failed
+	 */
+	public boolean isDone() {
+		return remaining.getCount() == 0;
+	}
+
+	/**
+	 * @return <tt>true</tt> if every class has been loaded without a failure
+	 */
+	public boolean isSuccessful() {
+		return isDone() && failures.isEmpty();
+	}
+
+	/**
+	 * @return the number of classes being preloaded
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * Returns the classes that have been loaded so far.
+	 * @return a read only map of class names to the loaded class
+	 */
+	public Map<String, Class<?>> getLoadedClasses() {
+		return Collections.unmodifiableMap(loadedClasses);
+	}
+
+	/**
+	 * Returns the classes that have failed so far, for example because they could not be found or could not be
+	 * linked.
+	 * @return a read only map of class names to the failure
+	 */
+	public Map<String, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	public String toString() {
+		return "PreloadHandle[classes=" + classCount + ", loaded=" + loadedClasses.size() + ", failed="
+				+ failures.size() + "]";
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+/**
+ * Compact Bloom filter over the resource names of a {@link ResourceLocation}. Used to skip locations that certainly do
+ * not contain a resource without touching the file system. The filter may report that a name is contained when it is
+ * not (a false positive) but never the reverse.
+ * <p/>
+ * Names are compared without any trailing <tt>'/'</tt> so that directory entries match with or without the slash, the
+ * same way that {@link java.util.zip.ZipFile#getEntry(String)} and {@link java.io.File} match them. Names are hashed
+ * using {@link String#hashCode()}, which is cached by the string, so a lookup does not allocate.
+ * <p/>
+ * Names must all be {@link #add added} before the filter is published to other threads.
+ *
+ * @author Phillip Webb
+ */
+public final class ResourceNameFilter {
+
+	/**
+	 * Number of bits used for each expected name, together with {@link #HASH_COUNT} this gives a false positive rate
+	 * of just under 1%.
+	 */
+	static final int BITS_PER_NAME = 10;
+
+	static final int HASH_COUNT = 7;
+
+	private final long[] bits;
+
+	private final int bitCount;
+
+	private int nameCount;
+
+	/**
+	 * Create a new filter.
+	 * @param expectedNames the expected number of names
+	 */
+	public ResourceNameFilter(int expectedNames) {
+		if (expectedNames < 0) {
+			throw new IllegalArgumentException("Expected names must not be negative");
+		}
+		long bitCount = Math.max(64L, (long) expectedNames * BITS_PER_NAME);
+		this.bits = new long[(int) Math.min((bitCount + 63) / 64, Integer.MAX_VALUE / 64)];
+		this.bitCount = this.bits.length * 64;
+	}
+
+	/**
+	 * Add a name to the filter.
+	 * @param name the resource name
+	 */
+	public void add(String name) {
+		int hash = stripTrailingSlash(name).hashCode();
+		int increment = getIncrement(hash);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (hash & Integer.MAX_VALUE) % bitCount;
+			bits[bit >>> 6] |= (1L << bit);
+			hash += increment;
+		}
+		nameCount++;
+	}
+
+	/**
+	 * Determine if the filter might contain the specified name.
+	 * @param name the resource name
+	 * @return <tt>false</tt> if the name is certainly not contained, <tt>true</tt> if it may be contained
+	 */
+	public boolean mightContain(String name) {
+		int hash = stripTrailingSlash(name).hashCode();
+		int increment = getIncrement(hash);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (hash & Integer.MAX_VALUE) % bitCount;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+			hash += increment;
+		}
+		return true;
+	}
+
+	private static String stripTrailingSlash(String name) {
+		int length = name.length();
+		return (length > 0 && name.charAt(length - 1) == '/' ? name.substring(0, length - 1) : name);
+	}
+
+	private static int getIncrement(int hash) {
+		// double hashing, the second hash is an odd mix of the first so that every bit position can be reached
+		return Integer.reverse(hash * 0x9E3779B9) | 1;
+	}
+
+	/**
+	 * @return the number of names added to the filter
+	 */
+	public int getNameCount() {
+		return nameCount;
+	}
+
+	/**
+	 * @return the size of the filter bits in bytes
+	 */
+	public int getByteSize() {
+		return bits.length * 8;
+	}
+
+	/**
+	 * Returns the expected false positive rate of the filter, calculated from the number of names that have been added.
+	 * @return the expected false positive rate between <tt>0.0</tt> and <tt>1.0</tt>
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) HASH_COUNT * nameCount / bitCount), HASH_COUNT);
+	}
+
+	public String toString() {
+		return "ResourceNameFilter[names=" + nameCount + ", bytes=" + getByteSize() + ", expectedFalsePositiveRate="
+				+ getExpectedFalsePositiveRate() + "]";
+	}
+}
@@ -24,15 +24,26 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -40,7 +51,7 @@ import java.util.jar.Manifest;
 /**
  * @author Dain Sundstrom
  */
-public class UrlResourceFinder implements ResourceFinder {
+public class UrlResourceFinder implements ResourceFinder, ChangeDetectionPolicy.Checkable {
 
 	private static final JarFileFactory DEFAULT_JAR_FILE_FACTORY = new JarFileFactory() {
 		public JarFile newJarFile(File file) throws IOException {
@@ -50,12 +61,30 @@ public class UrlResourceFinder implements ResourceFinder {
 
 	private final Object lock = new Object();
 
-	private final LinkedHashSet<URL> urls = new LinkedHashSet<URL>();
-	private final LinkedHashMap<URL, ResourceLocation> classPath = new LinkedHashMap<URL, ResourceLocation>();
-	private final LinkedHashSet<File> watchedFiles = new LinkedHashSet<File>();
+	/**
+	 * The URLs that have been added, keyed by their {@link UrlKey}. Internally URLs are only identified by their keys.
+	 */
+	private final LinkedHashMap<UrlKey, URL> urls = new LinkedHashMap<UrlKey, URL>();
+
+	/**
+	 * Interning table so that equal URLs share a single {@link UrlKey}, guarded by the lock.
+	 */
+	private final Map<String, UrlKey> urlKeys = new HashMap<String, UrlKey>();
 
-	private boolean destroyed = false;
-	private JarFileFactory jarFileFactory;
+	/**
+	 * The current class path snapshot. Lookups read this field without locking, it is only replaced while holding the
+	 * lock.
+	 */
+	private volatile ClassPath classPath = ClassPath.EMPTY;
+
+	private volatile boolean destroyed = false;
+	private final JarFileFactory jarFileFactory;
+
+	private volatile ChangeDetectionPolicy changeDetectionPolicy;
+	private volatile long lastChecked;
+	private volatile ExecutorService openingExecutor;
+	private volatile boolean lazyOpening;
+	private volatile int classPathVersion;
 
 	public UrlResourceFinder(JarFileFactory jarFileFactory) {
 		this(jarFileFactory, new URL[] {});
@@ -63,68 +92,227 @@ public class UrlResourceFinder implements ResourceFinder {
 
 	public UrlResourceFinder(JarFileFactory jarFileFactory, URL[] urls) {
 		this.jarFileFactory = (jarFileFactory == null ? DEFAULT_JAR_FILE_FACTORY : jarFileFactory);
+		this.changeDetectionPolicy = ChangeDetectionPolicy.getDefault();
 		addUrls(urls);
+		// only hand this finder to the policy, which may check it from another thread, once it is constructed
+		changeDetectionPolicy.register(this);
 	}
 
 	protected final JarFileFactory getJarFileFactory() {
 		return jarFileFactory;
 	}
 
+	/**
+	 * Returns a version that changes whenever the class path changes, ie URLs are added, watched files appear, the
+	 * packages of a {@link ChangeableResourceLocation} change or the finder is destroyed.
+	 * @return the class path version
+	 */
+	public int getClassPathVersion() {
+		return classPathVersion;
+	}
+
+	/**
+	 * Called with the lock held after a new class path snapshot has been published.
+	 */
+	private void classPathChanged() {
+		classPathVersion++;
+		MultiParentClassLoader.classPathChanged();
+	}
+
+	/**
+	 * Set the policy used to determine when missing class path files are checked to see if they have appeared. Defaults
+	 * to {@link ChangeDetectionPolicy#getDefault()}. The policy is also applied to class path directories, see
+	 * {@link DirectoryResourceLocation#setChangeDetectionPolicy(ChangeDetectionPolicy)}.
+	 * @param changeDetectionPolicy the change detection policy
+	 */
+	public void setChangeDetectionPolicy(ChangeDetectionPolicy changeDetectionPolicy) {
+		if (changeDetectionPolicy == null) {
+			throw new IllegalArgumentException("ChangeDetectionPolicy must not be null");
+		}
+		ChangeDetectionPolicy previous = this.changeDetectionPolicy;
+		this.changeDetectionPolicy = changeDetectionPolicy;
+		if (previous != changeDetectionPolicy) {
+			previous.unregister(this);
+			changeDetectionPolicy.register(this);
+		}
+		for (ResourceLocation resourceLocation : classPath.getLocations()) {
+			if (resourceLocation instanceof DirectoryResourceLocation) {
+				((DirectoryResourceLocation) resourceLocation).setChangeDetectionPolicy(changeDetectionPolicy);
+			}
+		}
+	}
+
+	/**
+	 * @return the policy used to determine when missing class path files are checked
+	 */
+	public ChangeDetectionPolicy getChangeDetectionPolicy() {
+		return changeDetectionPolicy;
+	}
+
+	/**
+	 * Set the executor used to open the class path locations concurrently when the class path is built. Each location
+	 * is opened, indexed and has its manifest read as a separate task, the class path is then assembled from the
+	 * results in the usual order, including the order of any manifest class paths. When <tt>null</tt>, the default,
+	 * locations are opened one at a time. Subclasses that override {@link #cacheUrl(URL)} or
+	 * {@link #createResourceLocation(URL, File)} must be thread safe before an executor is set.
+	 * @param openingExecutor the executor or <tt>null</tt>
+	 */
+	public void setOpeningExecutor(ExecutorService openingExecutor) {
+		this.openingExecutor = openingExecutor;
+	}
+
+	/**
+	 * @return the executor used to open class path locations or <tt>null</tt>
+	 */
+	public ExecutorService getOpeningExecutor() {
+		return openingExecutor;
+	}
+
+	/**
+	 * Set if jar files are opened lazily. When <tt>true</tt> jars are represented by a {@link LazyJarResourceLocation}
+	 * which is indexed from the {@link #getJarIndexCache() jar index cache}, or from the jar central directory, and
+	 * only opened when a resource that the jar contains is requested. Jars that are never used are not opened. Only
+	 * applies to locations that are added after it is set, defaults to <tt>false</tt>.
+	 * @param lazyOpening if jar files are opened lazily
+	 */
+	public void setLazyOpening(boolean lazyOpening) {
+		this.lazyOpening = lazyOpening;
+	}
+
+	/**
+	 * @return <tt>true</tt> if jar files are opened lazily
+	 */
+	public boolean isLazyOpening() {
+		return lazyOpening;
+	}
+
+	/**
+	 * Returns the persistent cache used to index jar files that are {@link #setLazyOpening(boolean) opened lazily}. By
+	 * default the {@link JarIndexCache#getDefault() default} cache is used.
+	 * @return the jar index cache or <tt>null</tt> if the index should not be cached
+	 */
+	protected JarIndexCache getJarIndexCache() {
+		return JarIndexCache.getDefault();
+	}
+
 	public void destroy() {
 		synchronized (lock) {
 			if (destroyed) {
 				return;
 			}
 			destroyed = true;
+			changeDetectionPolicy.unregister(this);
 			urls.clear();
-			for (Iterator<ResourceLocation> iterator = classPath.values().iterator(); iterator.hasNext();) {
+			urlKeys.clear();
+			ClassPath classPath = this.classPath;
+			this.classPath = ClassPath.EMPTY;
+			classPathChanged();
+			for (Iterator<ResourceLocation> iterator = classPath.getLocations().iterator(); iterator.hasNext();) {
 				ResourceLocation resourceLocation = iterator.next();
 				resourceLocation.close();
 			}
-			classPath.clear();
 		}
 	}
 
 	public ResourceHandle getResource(String resourceName) {
-		synchronized (lock) {
-			if (destroyed) {
-				return null;
-			}
-			for (Iterator<Map.Entry<URL, ResourceLocation>> iterator = getClassPath().entrySet().iterator(); iterator
-					.hasNext();) {
-				Map.Entry<URL, ResourceLocation> entry = iterator.next();
-				ResourceLocation resourceLocation = entry.getValue();
-				ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
+		if (destroyed) {
+			return null;
+		}
+		try {
+			// this is the class loading path, use an index rather than allocating an iterator
+			List<ResourceLocation> resourceLocations = getClassPath().getLocations(resourceName);
+			for (int i = 0; i < resourceLocations.size(); i++) {
+				ResourceHandle resourceHandle = resourceLocations.get(i).getResourceHandle(resourceName);
 				if (resourceHandle != null && !resourceHandle.isDirectory()) {
 					return resourceHandle;
 				}
 			}
+		} catch (IllegalStateException e) {
+			// the location was closed by a concurrent destroy
+			if (!destroyed) {
+				throw e;
+			}
 		}
 		return null;
 	}
 
 	public URL findResource(String resourceName) {
-		synchronized (lock) {
-			if (destroyed) {
-				return null;
-			}
-			for (Iterator<Map.Entry<URL, ResourceLocation>> iterator = getClassPath().entrySet().iterator(); iterator
-					.hasNext();) {
-				Map.Entry<URL, ResourceLocation> entry = iterator.next();
-				ResourceLocation resourceLocation = entry.getValue();
+		if (destroyed) {
+			return null;
+		}
+		try {
+			for (ResourceLocation resourceLocation : getClassPath().getLocations(resourceName)) {
 				ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
 				if (resourceHandle != null) {
 					return resourceHandle.getUrl();
 				}
 			}
+		} catch (IllegalStateException e) {
+			// the location was closed by a concurrent destroy
+			if (!destroyed) {
+				throw e;
+			}
 		}
 		return null;
 	}
 
 	public Enumeration<URL> findResources(String resourceName) {
-		synchronized (lock) {
-			return new ResourceEnumeration(new ArrayList<ResourceLocation>(getClassPath().values()), resourceName);
+		return new ResourceEnumeration(getClassPath().getLocations(resourceName), resourceName);
+	}
+
+	/**
+	 * Determine if the class path might contain resources in the specified package. Locations that cannot list their
+	 * packages, and missing files that are being watched, are assumed to contain every package.
+	 * @param packageName the <tt>'/'</tt> separated package name, see {@link PackageIndex#getPackageName(String)}
+	 * @return <tt>false</tt> if the class path certainly does not contain the package
+	 */
+	public boolean mightContainPackage(String packageName) {
+		ClassPath classPath = getClassPath();
+		return classPath.hasWatchedLocations() || classPath.mightContainPackage(packageName);
+	}
+
+	/**
+	 * Returns the names of all packages on the class path, or <tt>null</tt> if they cannot be determined because some
+	 * locations cannot list their packages or are being watched.
+	 * @return the <tt>'/'</tt> separated package names or <tt>null</tt>
+	 */
+	public Set<String> getPackageNames() {
+		ClassPath classPath = getClassPath();
+		return (classPath.hasWatchedLocations() ? null : classPath.getPackageNames());
+	}
+
+	/**
+	 * Returns the names of all resources on the class path that start with the specified prefix, in class path order
+	 * and without duplicates. Directories, and locations that cannot list their resources, are not included.
+	 * @param prefix the <tt>'/'</tt> separated prefix, for example <tt>org/apache/xbean/</tt>
+	 * @return the resource names
+	 * @see ListableResourceLocation
+	 */
+	public Set<String> getResourceNames(String prefix) {
+		Set<String> resourceNames = new LinkedHashSet<String>();
+		if (destroyed) {
+			return resourceNames;
 		}
+		try {
+			for (ResourceLocation resourceLocation : getClassPath().getLocations()) {
+				if (resourceLocation instanceof ListableResourceLocation) {
+					List<String> names = ((ListableResourceLocation) resourceLocation).getResourceNames();
+					if (names != null) {
+						for (String name : names) {
+							if (name.startsWith(prefix)) {
+								resourceNames.add(name);
+							}
+						}
+					}
+				}
+			}
+		} catch (IllegalStateException e) {
+			// the location was closed by a concurrent destroy
+			if (!destroyed) {
+				throw e;
+			}
+		}
+		return resourceNames;
 	}
 
 	public void addUrl(URL url) {
@@ -133,7 +321,7 @@ public class UrlResourceFinder implements ResourceFinder {
 
 	public URL[] getUrls() {
 		synchronized (lock) {
-			return urls.toArray(new URL[urls.size()]);
+			return urls.values().toArray(new URL[urls.size()]);
 		}
 	}
 
@@ -146,7 +334,8 @@ public class UrlResourceFinder implements ResourceFinder {
 	}
 
 	/**
-	 * Adds a list of urls to the end of this class loader.
+	 * Adds a list of urls to the end of this class loader. The new locations, and those of their manifest class paths,
+	 * are appended to the current class path without opening or indexing the existing locations again.
 	 * @param urls the URLs to add
 	 */
 	protected void addUrls(List<URL> urls) {
@@ -155,89 +344,396 @@ public class UrlResourceFinder implements ResourceFinder {
 				throw new IllegalStateException("UrlResourceFinder has been destroyed");
 			}
 
-			boolean shouldRebuild = this.urls.addAll(urls);
-			if (shouldRebuild) {
-				rebuildClassPath();
+			List<UrlKey> addedUrls = new ArrayList<UrlKey>(urls.size());
+			for (URL url : urls) {
+				UrlKey key = getUrlKey(url);
+				if (!this.urls.containsKey(key)) {
+					this.urls.put(key, url);
+					addedUrls.add(key);
+				}
+			}
+			if (!addedUrls.isEmpty()) {
+				try {
+					appendToClassPath(addedUrls);
+				} catch (Error e) {
+					// the class path is unchanged, forget the URLs so that they are not used by a later rebuild
+					for (UrlKey key : addedUrls) {
+						this.urls.remove(key);
+					}
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the current class path snapshot, first checking for changes if the {@link ChangeDetectionPolicy}
+	 * requires it. This method does not lock unless a watched file has appeared or a location has changed.
+	 * @return the class path snapshot
+	 */
+	private ClassPath getClassPath() {
+		ClassPath classPath = this.classPath;
+		if ((classPath.hasWatchedLocations() || classPath.hasChangeableLocations())
+				&& changeDetectionPolicy.isCheckRequired(lastChecked)) {
+			checkForChanges();
+			classPath = this.classPath;
+		}
+		return classPath;
+	}
+
+	/**
+	 * Check if any of the missing class path files have appeared and add them to the class path. The
+	 * {@link PackageIndex} is rebuilt if the packages of a {@link ChangeableResourceLocation}, for example a replaced
+	 * {@link NonLockingJarFile}, have changed.
+	 */
+	public void checkForChanges() {
+		lastChecked = System.currentTimeMillis();
+		ClassPath classPath = this.classPath;
+		boolean changed = classPath.discardChangedPackageNames();
+		if (changed || classPath.hasReadableWatchedFile()) {
+			synchronized (lock) {
+				if (destroyed) {
+					return;
+				}
+				if (changed) {
+					// publish a snapshot with the same locations, its package index reads the new package names
+					this.classPath = this.classPath.reindex();
+					classPathChanged();
+				}
+				if (this.classPath.hasReadableWatchedFile()) {
+					addWatchedLocations();
+				}
 			}
 		}
 	}
 
-	private LinkedHashMap<URL, ResourceLocation> getClassPath() {
+	/**
+	 * Adds watched files that have become readable to the class path. Each new location is inserted at the position it
+	 * would have had if it had existed when the class path was built, existing locations and the remaining watched
+	 * files are kept as they are. If a new location has a manifest class path the entire class path is rebuilt instead
+	 * so that the referenced locations are also added in the correct order.
+	 */
+	private void addWatchedLocations() {
 		assert Thread.holdsLock(lock) : "This method can only be called while holding the lock";
 
-		for (Iterator<File> iterator = watchedFiles.iterator(); iterator.hasNext();) {
-			File file = iterator.next();
-			if (file.canRead()) {
+		List<ResourceLocation> locations = new ArrayList<ResourceLocation>(this.classPath.getLocations());
+		List<ResourceLocation> addedLocations = new ArrayList<ResourceLocation>();
+		List<WatchedLocation> watchedLocations = new ArrayList<WatchedLocation>();
+		for (WatchedLocation watchedLocation : this.classPath.getWatchedLocations()) {
+			int position = watchedLocation.getPosition() + addedLocations.size();
+			if (!watchedLocation.getFile().canRead()) {
+				watchedLocations.add(watchedLocation.moveTo(position));
+				continue;
+			}
+			ResourceLocation resourceLocation;
+			try {
+				URL url = watchedLocation.getUrl();
+				resourceLocation = createResourceLocation(url, cacheUrl(url));
+			} catch (FileNotFoundException e) {
+				watchedLocations.add(watchedLocation.moveTo(position));
+				continue;
+			} catch (IOException ignored) {
+				// the same as rebuildClassPath, bad files are no longer watched
+				continue;
+			}
+			addedLocations.add(resourceLocation);
+			if (!getManifestClassPath(resourceLocation).isEmpty()) {
+				for (ResourceLocation addedLocation : addedLocations) {
+					addedLocation.close();
+				}
 				rebuildClassPath();
-				break;
+				return;
 			}
+			locations.add(position, resourceLocation);
 		}
 
-		return classPath;
+		LinkedHashMap<UrlKey, ResourceLocation> classPath = new LinkedHashMap<UrlKey, ResourceLocation>();
+		for (ResourceLocation resourceLocation : locations) {
+			classPath.put(getUrlKey(resourceLocation.getCodeSource()), resourceLocation);
+		}
+		this.classPath = new ClassPath(classPath, watchedLocations);
+		classPathChanged();
 	}
 
 	/**
-	 * Rebuilds the entire class path. This class is called when new URLs are added or one of the watched files becomes
-	 * readable. This method will not open jar files again, but will add any new entries not alredy open to the class
-	 * path. If any file based url is does not exist, we will watch for that file to appear.
+	 * Appends the locations of new URLs, and of their manifest class paths, to the end of the class path. The new
+	 * snapshot shares the locations and the {@link PackageIndex} of the current one, so the cost is proportional to the
+	 * number of added locations rather than the size of the class path. URLs that are already on the class path are
+	 * skipped, and missing files are watched, in the same way as {@link #rebuildClassPath()}.
+	 * @param urls the URLs that have been added
+	 */
+	private void appendToClassPath(List<UrlKey> urls) {
+		assert Thread.holdsLock(lock) : "This method can only be called while holding the lock";
+
+		ClassPath currentClassPath = this.classPath;
+		Set<File> watchedFiles = new HashSet<File>();
+		for (WatchedLocation watchedLocation : currentClassPath.getWatchedLocations()) {
+			watchedFiles.add(watchedLocation.getFile());
+		}
+		LinkedHashMap<UrlKey, ResourceLocation> addedLocations = new LinkedHashMap<UrlKey, ResourceLocation>();
+		List<WatchedLocation> addedWatchedLocations = new ArrayList<WatchedLocation>();
+		addLocations(urls, currentClassPath.getLocationMap(), Collections.<UrlKey, ResourceLocation> emptyMap(),
+				addedLocations, addedWatchedLocations, watchedFiles);
+		if (addedLocations.isEmpty() && addedWatchedLocations.isEmpty()) {
+			return;
+		}
+
+		// publish the new snapshot, lookups will see it from now on
+		this.classPath = currentClassPath.append(addedLocations, addedWatchedLocations);
+		classPathChanged();
+	}
+
+	/**
+	 * Rebuilds the entire class path. This class is called when one of the watched files becomes readable and declares
+	 * a manifest class path. This method will not open jar files again, but will add any new entries not alredy open to
+	 * the class path. If any file based url is does not exist, we will watch for that file to appear. The new class
+	 * path and its {@link PackageIndex} are published as a single immutable snapshot once all locations have been
+	 * added.
 	 */
 	private void rebuildClassPath() {
 		assert Thread.holdsLock(lock) : "This method can only be called while holding the lock";
 
-		// copy all of the existing locations into a temp map and clear the class path
-		Map<URL, ResourceLocation> existingJarFiles = new LinkedHashMap<URL, ResourceLocation>(classPath);
-		classPath.clear();
+		// copy all of the existing locations into a temp map and build a new class path
+		Map<UrlKey, ResourceLocation> existingJarFiles = new LinkedHashMap<UrlKey, ResourceLocation>(this.classPath
+				.getLocationMap());
+		LinkedHashMap<UrlKey, ResourceLocation> classPath = new LinkedHashMap<UrlKey, ResourceLocation>();
+		List<WatchedLocation> watchedLocations = new ArrayList<WatchedLocation>();
+		addLocations(urls.keySet(), Collections.<UrlKey, ResourceLocation> emptyMap(), existingJarFiles, classPath,
+				watchedLocations, new HashSet<File>());
+
+		// publish the new snapshot, lookups will see it from now on
+		this.classPath = new ClassPath(classPath, watchedLocations);
+		classPathChanged();
+
+		for (Iterator<ResourceLocation> iterator = existingJarFiles.values().iterator(); iterator.hasNext();) {
+			ResourceLocation resourceLocation = iterator.next();
+			resourceLocation.close();
+		}
+	}
+
+	/**
+	 * Adds the locations of the URLs, and of their manifest class paths, to a class path that is being built.
+	 * @param urls the URLs to add
+	 * @param existingClassPath the locations that precede the class path being built, these are skipped
+	 * @param reusableLocations open locations that can be used rather than opening the URL again, locations that are
+	 * used are removed
+	 * @param classPath the class path being built, locations are added in class path order
+	 * @param watchedLocations receives the files that do not exist yet
+	 * @param watchedFiles the files that are already being watched
+	 */
+	private void addLocations(Collection<UrlKey> urls, Map<UrlKey, ResourceLocation> existingClassPath,
+			Map<UrlKey, ResourceLocation> reusableLocations, LinkedHashMap<UrlKey, ResourceLocation> classPath,
+			List<WatchedLocation> watchedLocations, Set<File> watchedFiles) {
 
-		LinkedList<URL> locationStack = new LinkedList<URL>(urls);
+		// open any new locations concurrently if we can, the class path is still assembled in order below
+		Map<UrlKey, OpenedLocation> openedLocations = openLocations(urls, existingClassPath, reusableLocations);
+
+		LinkedList<UrlKey> locationStack = new LinkedList<UrlKey>(urls);
+		List<ResourceLocation> newLocations = new ArrayList<ResourceLocation>();
 		try {
 			while (!locationStack.isEmpty()) {
-				URL url = locationStack.removeFirst();
+				UrlKey key = locationStack.removeFirst();
 
 				// Skip any duplicate urls in the claspath
-				if (classPath.containsKey(url)) {
+				if (existingClassPath.containsKey(key) || classPath.containsKey(key)) {
 					continue;
 				}
 
 				// Check is this URL has already been opened
-				ResourceLocation resourceLocation = existingJarFiles.remove(url);
+				ResourceLocation resourceLocation = reusableLocations.remove(key);
+				List<URL> manifestClassPath;
 
 				// If not opened, cache the url and wrap it with a resource location
 				if (resourceLocation == null) {
-					try {
-						File file = cacheUrl(url);
-						resourceLocation = createResourceLocation(url, file);
-					} catch (FileNotFoundException e) {
+					OpenedLocation openedLocation = openedLocations.remove(key);
+					if (openedLocation == null) {
+						openedLocation = openLocation(key.getUrl());
+					}
+					IOException failure = openedLocation.getFailure();
+					if (failure instanceof FileNotFoundException) {
 						// if this is a file URL, the file doesn't exist yet... watch to see if it appears later
+						URL url = key.getUrl();
 						if ("file".equals(url.getProtocol())) {
 							File file = new File(url.getPath());
-							watchedFiles.add(file);
-							continue;
-
+							if (watchedFiles.add(file)) {
+								int position = existingClassPath.size() + classPath.size();
+								watchedLocations.add(new WatchedLocation(url, file, position));
+							}
 						}
-					} catch (IOException ignored) {
+						continue;
+					}
+					if (failure != null) {
 						// can't seem to open the file... this is most likely a bad jar file
 						// so don't keep a watch out for it because that would require lots of checking
 						// Dain: We may want to review this decision later
 						continue;
 					}
+					resourceLocation = openedLocation.getResourceLocation();
+					if (existingClassPath.containsKey(getCodeSourceKey(key, resourceLocation))) {
+						// a different URL for a location that is already on the class path
+						resourceLocation.close();
+						continue;
+					}
+					manifestClassPath = openedLocation.getManifestClassPath();
+					newLocations.add(resourceLocation);
+				} else {
+					manifestClassPath = getManifestClassPath(resourceLocation);
 				}
 
 				// add the jar to our class path
-				classPath.put(resourceLocation.getCodeSource(), resourceLocation);
+				classPath.put(getCodeSourceKey(key, resourceLocation), resourceLocation);
 
 				// push the manifest classpath on the stack (make sure to maintain the order)
-				List<URL> manifestClassPath = getManifestClassPath(resourceLocation);
-				locationStack.addAll(0, manifestClassPath);
+				locationStack.addAll(0, getUrlKeys(manifestClassPath));
 			}
 		} catch (Error e) {
-			destroy();
+			// the new class path was never published, close what this call opened but not the reused locations, which
+			// still belong to the current class path
+			for (ResourceLocation resourceLocation : newLocations) {
+				resourceLocation.close();
+			}
+			closeOpenedLocations(openedLocations);
 			throw e;
 		}
 
-		for (Iterator<ResourceLocation> iterator = existingJarFiles.values().iterator(); iterator.hasNext();) {
-			ResourceLocation resourceLocation = iterator.next();
-			resourceLocation.close();
+		// locations are only opened ahead of time when they are reachable, but make sure that none are left open
+		closeOpenedLocations(openedLocations);
+	}
+
+	/**
+	 * Open a location that is not already on the class path, reading its manifest class path. Errors are thrown,
+	 * other failures are returned.
+	 */
+	private OpenedLocation openLocation(URL url) {
+		try {
+			ResourceLocation resourceLocation = createResourceLocation(url, cacheUrl(url));
+			return new OpenedLocation(resourceLocation, getManifestClassPath(resourceLocation), null);
+		} catch (IOException e) {
+			return new OpenedLocation(null, null, e);
+		}
+	}
+
+	/**
+	 * Open every location reachable from the URLs, and from their manifest class paths, that is not already open using
+	 * the {@link #setOpeningExecutor(ExecutorService) opening executor}. Locations are opened in waves, starting with
+	 * the URLs and then the manifest class paths of the previous wave. Each location is also indexed so that building
+	 * the {@link PackageIndex} does not read it again.
+	 * @param urls the URLs to open
+	 * @param existingClassPath locations that are already on the class path
+	 * @param reusableLocations locations that are already open
+	 * @return the opened locations, empty if there is no executor
+	 */
+	private Map<UrlKey, OpenedLocation> openLocations(Collection<UrlKey> urls,
+			Map<UrlKey, ResourceLocation> existingClassPath, Map<UrlKey, ResourceLocation> reusableLocations) {
+		Map<UrlKey, OpenedLocation> openedLocations = new HashMap<UrlKey, OpenedLocation>();
+		ExecutorService openingExecutor = this.openingExecutor;
+		if (openingExecutor == null) {
+			return openedLocations;
+		}
+		Set<UrlKey> seen = new HashSet<UrlKey>();
+		List<UrlKey> wave = new ArrayList<UrlKey>();
+		for (UrlKey key : urls) {
+			if (isUnopened(key, existingClassPath, reusableLocations) && seen.add(key)) {
+				wave.add(key);
+			}
+		}
+		boolean interrupted = false;
+		while (!wave.isEmpty()) {
+			List<Future<OpenedLocation>> futures = new ArrayList<Future<OpenedLocation>>(wave.size());
+			for (UrlKey key : wave) {
+				final URL url = key.getUrl();
+				FutureTask<OpenedLocation> future = new FutureTask<OpenedLocation>(new Callable<OpenedLocation>() {
+					public OpenedLocation call() {
+						try {
+							OpenedLocation openedLocation = openLocation(url);
+							ResourceLocation resourceLocation = openedLocation.getResourceLocation();
+							if (resourceLocation instanceof IndexedResourceLocation) {
+								((IndexedResourceLocation) resourceLocation).getPackageNames();
+							}
+							return openedLocation;
+						} catch (Error e) {
+							return new OpenedLocation(e);
+						}
+					}
+				});
+				try {
+					openingExecutor.execute(future);
+				} catch (RejectedExecutionException e) {
+					future.run();
+				}
+				futures.add(future);
+			}
+			List<UrlKey> nextWave = new ArrayList<UrlKey>();
+			for (int i = 0; i < wave.size(); i++) {
+				OpenedLocation openedLocation = null;
+				while (openedLocation == null) {
+					try {
+						openedLocation = futures.get(i).get();
+					} catch (InterruptedException e) {
+						// the class path must still be built, finish waiting and restore the interrupt
+						interrupted = true;
+					} catch (ExecutionException e) {
+						throw new IllegalStateException(e.getCause());
+					}
+				}
+				openedLocations.put(wave.get(i), openedLocation);
+				for (UrlKey key : getUrlKeys(openedLocation.getManifestClassPath())) {
+					if (isUnopened(key, existingClassPath, reusableLocations) && seen.add(key)) {
+						nextWave.add(key);
+					}
+				}
+			}
+			wave = nextWave;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return openedLocations;
+	}
+
+	private boolean isUnopened(UrlKey key, Map<UrlKey, ResourceLocation> existingClassPath,
+			Map<UrlKey, ResourceLocation> reusableLocations) {
+		return !existingClassPath.containsKey(key) && !reusableLocations.containsKey(key);
+	}
+
+	private void closeOpenedLocations(Map<UrlKey, OpenedLocation> openedLocations) {
+		for (OpenedLocation openedLocation : openedLocations.values()) {
+			if (openedLocation.getResourceLocation() != null) {
+				openedLocation.getResourceLocation().close();
+			}
+		}
+		openedLocations.clear();
+	}
+
+	/**
+	 * Returns the interned key of the URL.
+	 */
+	private UrlKey getUrlKey(URL url) {
+		assert Thread.holdsLock(lock) : "This method can only be called while holding the lock";
+		String normalizedUrl = UrlKey.normalize(url);
+		UrlKey key = urlKeys.get(normalizedUrl);
+		if (key == null) {
+			key = new UrlKey(normalizedUrl, url);
+			urlKeys.put(normalizedUrl, key);
+		}
+		return key;
+	}
+
+	private List<UrlKey> getUrlKeys(List<URL> urls) {
+		List<UrlKey> keys = new ArrayList<UrlKey>(urls.size());
+		for (URL url : urls) {
+			keys.add(getUrlKey(url));
 		}
+		return keys;
+	}
+
+	/**
+	 * Returns the key of the code source of a location opened from the URL of the key. The code source of a jar is
+	 * the URL that it was opened from, so it does not need to be normalized again.
+	 */
+	private UrlKey getCodeSourceKey(UrlKey key, ResourceLocation resourceLocation) {
+		URL codeSource = resourceLocation.getCodeSource();
+		return (codeSource == key.getUrl() ? key : getUrlKey(codeSource));
 	}
 
 	protected File cacheUrl(URL url) throws IOException {
@@ -261,7 +757,7 @@ public class UrlResourceFinder implements ResourceFinder {
 		return file;
 	}
 
-	protected ResourceLocation createResourceLocation(URL codeSource, File cacheFile) throws IOException {
+	protected ResourceLocation createResourceLocation(final URL codeSource, final File cacheFile) throws IOException {
 		if (!cacheFile.exists()) {
 			throw new FileNotFoundException(cacheFile.getAbsolutePath());
 		}
@@ -273,13 +769,34 @@ public class UrlResourceFinder implements ResourceFinder {
 		if (cacheFile.isDirectory()) {
 			// DirectoryResourceLocation will only return "file" URLs within this directory
 			// do not user the DirectoryResourceLocation for non file based urls
-			resourceLocation = new DirectoryResourceLocation(cacheFile);
+			DirectoryResourceLocation directoryResourceLocation = new DirectoryResourceLocation(cacheFile);
+			directoryResourceLocation.setChangeDetectionPolicy(changeDetectionPolicy);
+			resourceLocation = directoryResourceLocation;
+		} else if (lazyOpening) {
+			resourceLocation = new LazyJarResourceLocation(codeSource, cacheFile, getJarIndexCache()) {
+				protected ResourceLocation openLocation() throws IOException {
+					return createJarResourceLocation(codeSource, cacheFile);
+				}
+			};
 		} else {
-			resourceLocation = new JarResourceLocation(codeSource, jarFileFactory.newJarFile(cacheFile));
+			resourceLocation = createJarResourceLocation(codeSource, cacheFile);
 		}
 		return resourceLocation;
 	}
 
+	private ResourceLocation createJarResourceLocation(URL codeSource, File cacheFile) throws IOException {
+		final JarFile jarFile = jarFileFactory.newJarFile(cacheFile);
+		if (jarFileFactory instanceof SharedJarFileFactory) {
+			// shared jar files are released rather than closed
+			return new JarResourceLocation(codeSource, jarFile) {
+				public void close() {
+					((SharedJarFileFactory) jarFileFactory).releaseJarFile(jarFile);
+				}
+			};
+		}
+		return new JarResourceLocation(codeSource, jarFile);
+	}
+
 	private List<URL> getManifestClassPath(ResourceLocation resourceLocation) {
 		try {
 			// get the manifest, if possible
@@ -316,6 +833,318 @@ public class UrlResourceFinder implements ResourceFinder {
 		}
 	}
 
+	/**
+	 * Immutable snapshot of the class path. Lookups read the current snapshot without locking, writers build a new
+	 * snapshot while holding the lock and publish it atomically. A snapshot that is {@link #append appended} to shares
+	 * its storage and {@link PackageIndex} with the new snapshot, each snapshot only reads the locations that it
+	 * contains.
+	 */
+	private static final class ClassPath {
+
+		public static final ClassPath EMPTY = new ClassPath(new LinkedHashMap<UrlKey, ResourceLocation>(),
+				Collections.<WatchedLocation> emptyList());
+
+		private final ResourceLocation[] locations;
+		private final int size;
+		private final Map<UrlKey, ResourceLocation> locationMap;
+		private final PackageIndex packageIndex;
+		private final WatchedLocation[] watchedLocations;
+		private final ChangeableResourceLocation[] changeableLocations;
+
+		public ClassPath(LinkedHashMap<UrlKey, ResourceLocation> locations,
+				Collection<WatchedLocation> watchedLocations) {
+			this.locations = locations.values().toArray(new ResourceLocation[locations.size()]);
+			this.size = this.locations.length;
+			this.locationMap = locations;
+			this.packageIndex = new PackageIndex();
+			for (ResourceLocation resourceLocation : this.locations) {
+				packageIndex.add(resourceLocation);
+			}
+			this.watchedLocations = watchedLocations.toArray(new WatchedLocation[watchedLocations.size()]);
+			this.changeableLocations = addChangeableLocations(new ChangeableResourceLocation[0], this.locations);
+		}
+
+		private ClassPath(ResourceLocation[] locations, int size, Map<UrlKey, ResourceLocation> locationMap,
+				PackageIndex packageIndex, WatchedLocation[] watchedLocations,
+				ChangeableResourceLocation[] changeableLocations) {
+			this.locations = locations;
+			this.size = size;
+			this.locationMap = locationMap;
+			this.packageIndex = packageIndex;
+			this.watchedLocations = watchedLocations;
+			this.changeableLocations = changeableLocations;
+		}
+
+		private static ChangeableResourceLocation[] addChangeableLocations(
+				ChangeableResourceLocation[] changeableLocations, ResourceLocation[] locations) {
+			List<ChangeableResourceLocation> added = new ArrayList<ChangeableResourceLocation>();
+			for (ResourceLocation resourceLocation : locations) {
+				if (resourceLocation instanceof ChangeableResourceLocation
+						&& ((ChangeableResourceLocation) resourceLocation).isChangeable()) {
+					added.add((ChangeableResourceLocation) resourceLocation);
+				}
+			}
+			if (added.isEmpty()) {
+				return changeableLocations;
+			}
+			added.addAll(0, Arrays.asList(changeableLocations));
+			return added.toArray(new ChangeableResourceLocation[added.size()]);
+		}
+
+		/**
+		 * Returns a new snapshot with the locations and watched locations added to the end. Must only be called on the
+		 * current snapshot while holding the lock, this snapshot remains valid for lookups.
+		 * @param addedLocations the locations to add, keyed by code source
+		 * @param addedWatchedLocations the watched locations to add
+		 * @return the new snapshot
+		 */
+		public ClassPath append(LinkedHashMap<UrlKey, ResourceLocation> addedLocations,
+				Collection<WatchedLocation> addedWatchedLocations) {
+			if (this == EMPTY) {
+				// the empty snapshot is shared by all finders
+				return new ClassPath(addedLocations, addedWatchedLocations);
+			}
+			ResourceLocation[] locations = this.locations;
+			int size = this.size + addedLocations.size();
+			if (size > locations.length) {
+				locations = new ResourceLocation[Math.max(size, this.size * 2)];
+				System.arraycopy(this.locations, 0, locations, 0, this.size);
+			}
+			int index = this.size;
+			for (Map.Entry<UrlKey, ResourceLocation> entry : addedLocations.entrySet()) {
+				ResourceLocation resourceLocation = entry.getValue();
+				locations[index++] = resourceLocation;
+				locationMap.put(entry.getKey(), resourceLocation);
+				packageIndex.add(resourceLocation);
+			}
+			WatchedLocation[] watchedLocations = this.watchedLocations;
+			if (!addedWatchedLocations.isEmpty()) {
+				List<WatchedLocation> allWatchedLocations = new ArrayList<WatchedLocation>(getWatchedLocations());
+				allWatchedLocations.addAll(addedWatchedLocations);
+				watchedLocations = allWatchedLocations.toArray(new WatchedLocation[allWatchedLocations.size()]);
+			}
+			ChangeableResourceLocation[] changeableLocations = addChangeableLocations(this.changeableLocations,
+					addedLocations.values().toArray(new ResourceLocation[addedLocations.size()]));
+			return new ClassPath(locations, size, locationMap, packageIndex, watchedLocations, changeableLocations);
+		}
+
+		/**
+		 * Returns a new snapshot with the same locations and a new {@link PackageIndex}, used once package names have
+		 * been discarded. Must only be called on the current snapshot while holding the lock.
+		 * @return the new snapshot
+		 */
+		public ClassPath reindex() {
+			if (this == EMPTY) {
+				return this;
+			}
+			return new ClassPath(new LinkedHashMap<UrlKey, ResourceLocation>(locationMap), getWatchedLocations());
+		}
+
+		/**
+		 * Returns the locations keyed by code source. Only valid for the current snapshot while holding the lock.
+		 */
+		public Map<UrlKey, ResourceLocation> getLocationMap() {
+			return Collections.unmodifiableMap(locationMap);
+		}
+
+		public List<ResourceLocation> getLocations() {
+			return Collections.unmodifiableList(Arrays.asList(locations).subList(0, size));
+		}
+
+		public List<ResourceLocation> getLocations(String resourceName) {
+			return packageIndex.getLocations(resourceName, size);
+		}
+
+		public boolean mightContainPackage(String packageName) {
+			return packageIndex.mightContainPackage(packageName, size);
+		}
+
+		public Set<String> getPackageNames() {
+			return packageIndex.getPackageNames(size);
+		}
+
+		public List<WatchedLocation> getWatchedLocations() {
+			return Arrays.asList(watchedLocations);
+		}
+
+		public boolean hasWatchedLocations() {
+			return watchedLocations.length > 0;
+		}
+
+		public boolean hasChangeableLocations() {
+			return changeableLocations.length > 0;
+		}
+
+		/**
+		 * Discard the package names of every changeable location that has changed.
+		 * @return <tt>true</tt> if any location has changed
+		 */
+		public boolean discardChangedPackageNames() {
+			boolean changed = false;
+			for (int i = 0; i < changeableLocations.length; i++) {
+				changed |= changeableLocations[i].discardPackageNamesIfChanged();
+			}
+			return changed;
+		}
+
+		public boolean hasReadableWatchedFile() {
+			for (int i = 0; i < watchedLocations.length; i++) {
+				if (watchedLocations[i].getFile().canRead()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The result of opening a class path location, see {@link UrlResourceFinder#openLocation(URL)}.
+	 */
+	private static final class OpenedLocation {
+
+		private final ResourceLocation resourceLocation;
+		private final List<URL> manifestClassPath;
+		private final IOException failure;
+		private final Error error;
+
+		public OpenedLocation(ResourceLocation resourceLocation, List<URL> manifestClassPath, IOException failure) {
+			this.resourceLocation = resourceLocation;
+			this.manifestClassPath = (manifestClassPath == null ? Collections.<URL> emptyList() : manifestClassPath);
+			this.failure = failure;
+			this.error = null;
+		}
+
+		public OpenedLocation(Error error) {
+			this.resourceLocation = null;
+			this.manifestClassPath = Collections.emptyList();
+			this.failure = null;
+			this.error = error;
+		}
+
+		public ResourceLocation getResourceLocation() {
+			return resourceLocation;
+		}
+
+		public List<URL> getManifestClassPath() {
+			return manifestClassPath;
+		}
+
+		/**
+		 * Returns the failure to open the location, throwing any error that occurred when the location was opened by
+		 * another thread.
+		 */
+		public IOException getFailure() {
+			if (error != null) {
+				throw error;
+			}
+			return failure;
+		}
+	}
+
+	/**
+	 * Identity of a class path URL, used instead of {@link URL#equals(Object)} and {@link URL#hashCode()} which can
+	 * resolve host names and are slow for URLs with custom handlers. The key is a normalized form of the URL, equal
+	 * when the URLs refer to the same file, that is computed once along with its hash code. Keys are interned by the
+	 * finder so that equal keys are normally the same instance.
+	 */
+	private static final class UrlKey {
+
+		private final String normalizedUrl;
+		private final int hashCode;
+		private final URL url;
+
+		public UrlKey(String normalizedUrl, URL url) {
+			this.normalizedUrl = normalizedUrl;
+			this.hashCode = normalizedUrl.hashCode();
+			this.url = url;
+		}
+
+		/**
+		 * Returns the first URL that was seen with this key.
+		 */
+		public URL getUrl() {
+			return url;
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || obj.getClass() != getClass()) {
+				return false;
+			}
+			UrlKey other = (UrlKey) obj;
+			return hashCode == other.hashCode && normalizedUrl.equals(other.normalizedUrl);
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public String toString() {
+			return normalizedUrl;
+		}
+
+		/**
+		 * Normalize a URL using the same parts as {@link URL#equals(Object)}, comparing host names rather than
+		 * resolving them.
+		 * @param url the URL to normalize
+		 * @return the normalized URL
+		 */
+		public static String normalize(URL url) {
+			String host = url.getHost();
+			int port = url.getPort();
+			String ref = url.getRef();
+			StringBuilder normalizedUrl = new StringBuilder(url.getProtocol()).append(':');
+			if (host != null && host.length() > 0) {
+				normalizedUrl.append("//").append(host.toLowerCase(Locale.ENGLISH));
+				normalizedUrl.append(':').append(port == -1 ? url.getDefaultPort() : port);
+			}
+			normalizedUrl.append(url.getFile());
+			if (ref != null) {
+				normalizedUrl.append('#').append(ref);
+			}
+			return normalizedUrl.toString();
+		}
+	}
+
+	/**
+	 * A file based class path entry that did not exist when the class path was built.
+	 */
+	private static final class WatchedLocation {
+
+		private final URL url;
+		private final File file;
+		private final int position;
+
+		/**
+		 * @param url the class path URL
+		 * @param file the file being watched
+		 * @param position the number of class path locations that precede the watched file
+		 */
+		public WatchedLocation(URL url, File file, int position) {
+			this.url = url;
+			this.file = file;
+			this.position = position;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public int getPosition() {
+			return position;
+		}
+
+		public WatchedLocation moveTo(int position) {
+			return (position == this.position ? this : new WatchedLocation(url, file, position));
+		}
+	}
+
 	/**
 	 * Factory interface that is used by the {@link UrlResourceFinder} to create a new {@link JarFile} instance. Allows
 	 * for various different {@link JarFile} implementations to be supported by the finder.
@@ -329,4 +1158,17 @@ public class UrlResourceFinder implements ResourceFinder {
 		 */
 		public JarFile newJarFile(File file) throws IOException;
 	}
+
+	/**
+	 * {@link JarFileFactory} that may share {@link JarFile} instances between finders. Jar files created by the factory
+	 * are released, rather than closed, when the finder no longer needs them.
+	 * @see JarFileRegistry
+	 */
+	public static interface SharedJarFileFactory extends JarFileFactory {
+		/**
+		 * Release a {@link JarFile} previously obtained from {@link #newJarFile(File)}.
+		 * @param jarFile The jar file to release
+		 */
+		public void releaseJarFile(JarFile jarFile);
+	}
 }
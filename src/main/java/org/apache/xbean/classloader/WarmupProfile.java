@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The ordered list of classes and resources that a {@link JarFileClassLoader} found in its own URLs during a run,
+ * together with the time taken to find each one. A profile is recorded during one run and replayed on the next start
+ * to warm the class loader up, see {@link JarFileClassLoader#startWarmupRecording()} and
+ * {@link JarFileClassLoader#replayWarmupProfile(WarmupProfile, java.util.concurrent.ExecutorService)}.
+ * <p/>
+ * Classes are recorded once they have been defined. Defining a class first loads its super class and interfaces, so
+ * the recorded order is also an order in which the classes can be defined without waiting for their dependencies.
+ * <p/>
+ * Profiles are saved as a small gzip compressed binary file.
+ *
+ * @author Phillip Webb
+ */
+public final class WarmupProfile {
+
+	private static final int MAGIC = 0x58575031;
+
+	private static final int VERSION = 1;
+
+	private final List<Entry> entries;
+
+	private WarmupProfile(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return the recorded entries, in the order that they were found
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Save the profile to a file.
+	 * @param file the destination file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+					outputStream)));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(entries.size());
+			for (Entry entry : entries) {
+				output.writeBoolean(entry.isClass());
+				output.writeUTF(entry.getName());
+				output.writeInt(entry.getTime());
+			}
+			output.close();
+		} finally {
+			IoUtil.close(outputStream);
+		}
+	}
+
+	/**
+	 * Load a profile that was previously {@link #save(File) saved}.
+	 * @param file the source file
+	 * @return the profile
+	 * @throws IOException if the file cannot be read or is not a profile
+	 */
+	public static WarmupProfile load(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(inputStream)));
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Unsupported warmup profile " + file);
+			}
+			int size = input.readInt();
+			List<Entry> entries = new ArrayList<Entry>(Math.min(size, 1 << 16));
+			for (int i = 0; i < size; i++) {
+				entries.add(new Entry(input.readBoolean(), input.readUTF(), input.readInt()));
+			}
+			return new WarmupProfile(entries);
+		} finally {
+			IoUtil.close(inputStream);
+		}
+	}
+
+	public String toString() {
+		return "WarmupProfile[entries=" + entries.size() + "]";
+	}
+
+	/**
+	 * A class or resource in a {@link WarmupProfile}.
+	 */
+	public static final class Entry {
+
+		private final boolean isClass;
+
+		private final String name;
+
+		private final int time;
+
+		Entry(boolean isClass, String name, int time) {
+			this.isClass = isClass;
+			this.name = name;
+			this.time = time;
+		}
+
+		/**
+		 * @return <tt>true</tt> if the entry is a class or <tt>false</tt> if it is a resource
+		 */
+		public boolean isClass() {
+			return isClass;
+		}
+
+		/**
+		 * @return the class name or the resource name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the time taken to find the class or resource in microseconds
+		 */
+		public int getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the name of the resource that contains the entry
+		 */
+		public String getResourceName() {
+			return (isClass ? name.replace('.', '/') + ".class" : name);
+		}
+
+		public String toString() {
+			return name + " (" + time + "us)";
+		}
+	}
+
+	/**
+	 * Records the entries of a profile, may be used by several threads at once. Only the first time that a class or
+	 * resource is found is recorded.
+	 */
+	static final class Recorder {
+
+		private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+
+		private final ConcurrentHashMap<String, Boolean> recorded = new ConcurrentHashMap<String, Boolean>();
+
+		public void record(boolean isClass, String name, long startNanos) {
+			if (recorded.putIfAbsent((isClass ? "class:" : "resource:") + name, Boolean.TRUE) != null) {
+				return;
+			}
+			long time = (System.nanoTime() - startNanos) / 1000;
+			entries.add(new Entry(isClass, name, (int) Math.min(time, Integer.MAX_VALUE)));
+		}
+
+		public WarmupProfile toProfile() {
+			return new WarmupProfile(new ArrayList<Entry>(entries));
+		}
+	}
+}
@@ -0,0 +1,559 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file. The central directory lists every entry in the file along with the
+ * location of the entry data, allowing entries to be indexed and read directly using {@link ZipEntryReader} without
+ * opening a {@link java.util.zip.ZipFile}. Both standard and Zip64 archives are supported, multi-disk archives are not.
+ * <p/>
+ * Entry data is held in parallel primitive arrays indexed from <tt>0</tt> to <tt>{@link #getSize()} - 1</tt>, in the
+ * order that entries appear in the central directory. Names are kept as a single UTF-8 blob with an open addressing
+ * hash table for {@link #indexOf(String) lookups}, so no per entry objects are created until a name is requested.
+ * Extra fields and comments are skipped rather than being copied for each entry.
+ *
+ * @author Phillip Webb
+ */
+public class ZipCentralDirectory {
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private static final String NAME_ENCODING = "UTF-8";
+
+	private byte[] nameData;
+	private final int[] nameOffsets;
+	private final int[] nameHashes;
+	private BitSet nonAsciiNames;
+	private final int[] table;
+
+	private final short[] methods;
+	private final long[] compressedSizes;
+	private final long[] sizes;
+	private final int[] crcs;
+	private final long[] localHeaderOffsets;
+	private final int[] dosTimes;
+
+	private ZipCentralDirectory(int size, int nameCapacity) {
+		this.nameData = new byte[nameCapacity];
+		this.nameOffsets = new int[size + 1];
+		this.nameHashes = new int[size];
+		int capacity = 2;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		this.table = new int[capacity];
+		this.methods = new short[size];
+		this.compressedSizes = new long[size];
+		this.sizes = new long[size];
+		this.crcs = new int[size];
+		this.localHeaderOffsets = new long[size];
+		this.dosTimes = new int[size];
+	}
+
+	/**
+	 * @return the number of entries in the central directory
+	 */
+	public int getSize() {
+		return nameHashes.length;
+	}
+
+	/**
+	 * Returns the index of the first entry with the specified name.
+	 * @param name the entry name
+	 * @return the entry index or <tt>-1</tt> if there is no such entry
+	 */
+	public int indexOf(String name) {
+		int hash = name.hashCode();
+		int mask = table.length - 1;
+		for (int slot = spread(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int index = table[slot] - 1;
+			if (nameHashes[index] == hash && nameEquals(index, name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private boolean nameEquals(int index, String name) {
+		if (nonAsciiNames != null && nonAsciiNames.get(index)) {
+			return getName(index).equals(name);
+		}
+		int offset = nameOffsets[index];
+		int length = nameOffsets[index + 1] - offset;
+		if (length != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (nameData[offset + i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of an entry. A new {@link String} is created for each call.
+	 * @param index the entry index
+	 * @return the entry name
+	 */
+	public String getName(int index) {
+		try {
+			return new String(nameData, nameOffsets[index], getNameLength(index), NAME_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param index the entry index
+	 * @return the length of the entry name in bytes
+	 */
+	public int getNameLength(int index) {
+		return nameOffsets[index + 1] - nameOffsets[index];
+	}
+
+	public int getMethod(int index) {
+		return methods[index] & 0xFFFF;
+	}
+
+	public long getCompressedSize(int index) {
+		return compressedSizes[index];
+	}
+
+	public long getSize(int index) {
+		return sizes[index];
+	}
+
+	public long getCrc(int index) {
+		return crcs[index] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param index the entry index
+	 * @return the offset of the local file header from the start of the file
+	 */
+	public long getLocalHeaderOffset(int index) {
+		return localHeaderOffsets[index];
+	}
+
+	/**
+	 * @param index the entry index
+	 * @return the last modification time of the entry in MS-DOS date and time format
+	 * @see #toJavaTime(int)
+	 */
+	public int getDosTime(int index) {
+		return dosTimes[index];
+	}
+
+	/**
+	 * Read the central directory of the specified file.
+	 * @param file the zip file to read
+	 * @return the central directory
+	 * @throws IOException if the file cannot be read or is not a supported zip file
+	 */
+	public static ZipCentralDirectory read(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			return read(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static ZipCentralDirectory read(RandomAccessFile input) throws IOException {
+		long length = input.length();
+
+		// the end record is followed by a variable length comment so read the largest possible tail in one go
+		int tailSize = (int) Math.min(length, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE + ZIP64_LOCATOR_SIZE
+				+ END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		long tailStart = length - tailSize;
+		byte[] tail = new byte[tailSize];
+		input.seek(tailStart);
+		input.readFully(tail);
+
+		int end = findEndOfCentralDirectory(tail);
+		if (end == -1) {
+			throw new ZipException("Unable to find end of central directory record");
+		}
+		long entryCount = readShort(tail, end + 10);
+		long centralDirectorySize = readInt(tail, end + 12);
+		long centralDirectoryOffset = readInt(tail, end + 16);
+		long centralDirectoryEnd = tailStart + end;
+
+		int locator = end - ZIP64_LOCATOR_SIZE;
+		if (locator >= 0 && readInt(tail, locator) == ZIP64_LOCATOR_SIGNATURE) {
+			byte[] record = new byte[ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE];
+			long recordStart = findZip64EndOfCentralDirectory(input, tailStart + locator, readLong(tail, locator + 8),
+					record);
+			entryCount = readLong(record, 32);
+			centralDirectorySize = readLong(record, 40);
+			centralDirectoryOffset = readLong(record, 48);
+			centralDirectoryEnd = recordStart;
+		}
+		if (entryCount > Integer.MAX_VALUE || centralDirectorySize > Integer.MAX_VALUE) {
+			throw new ZipException("Central directory too large");
+		}
+
+		// the actual position may differ from the recorded offset if data has been prepended to the file
+		long centralDirectoryStart = centralDirectoryEnd - centralDirectorySize;
+		if (centralDirectoryStart < 0) {
+			throw new ZipException("Invalid central directory size");
+		}
+		long prefixLength = centralDirectoryStart - centralDirectoryOffset;
+
+		// the central directory is usually in the tail we have already read
+		byte[] data;
+		int offset;
+		if (centralDirectoryStart >= tailStart) {
+			data = tail;
+			offset = (int) (centralDirectoryStart - tailStart);
+		} else {
+			data = new byte[(int) centralDirectorySize];
+			offset = 0;
+			input.seek(centralDirectoryStart);
+			input.readFully(data);
+		}
+
+		ZipCentralDirectory centralDirectory = new ZipCentralDirectory((int) entryCount, (int) centralDirectorySize);
+		for (int i = 0; i < entryCount; i++) {
+			offset = centralDirectory.readEntry(i, data, offset, prefixLength);
+		}
+		centralDirectory.trimNameData();
+		return centralDirectory;
+	}
+
+	/**
+	 * Create a central directory from existing entries. Used when a file cannot be read directly, the entries will not
+	 * have a {@link #getLocalHeaderOffset(int) local header offset}.
+	 * @param entries the entries
+	 * @return the central directory
+	 * @throws IOException
+	 */
+	static ZipCentralDirectory create(List<? extends ZipEntry> entries) throws IOException {
+		byte[][] names = new byte[entries.size()][];
+		int nameCapacity = 0;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = entries.get(i).getName().getBytes(NAME_ENCODING);
+			nameCapacity += names[i].length;
+		}
+		ZipCentralDirectory centralDirectory = new ZipCentralDirectory(names.length, nameCapacity);
+		for (int i = 0; i < names.length; i++) {
+			ZipEntry entry = entries.get(i);
+			centralDirectory.methods[i] = (short) entry.getMethod();
+			centralDirectory.dosTimes[i] = toDosTime(entry.getTime());
+			centralDirectory.crcs[i] = (int) entry.getCrc();
+			centralDirectory.compressedSizes[i] = entry.getCompressedSize();
+			centralDirectory.sizes[i] = entry.getSize();
+			centralDirectory.localHeaderOffsets[i] = -1;
+			centralDirectory.addName(i, names[i], 0, names[i].length);
+		}
+		return centralDirectory;
+	}
+
+	/**
+	 * Write the central directory so that it can be {@link #readFrom(ByteBuffer) read} without parsing the zip file
+	 * again. Used by the {@link JarIndexCache}. Each array is written in one block so that it can be bulk copied from a
+	 * memory mapped file.
+	 * @param output the output
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput output) throws IOException {
+		int size = getSize();
+		output.writeInt(size);
+		output.writeInt(nameData.length);
+		output.writeInt(table.length);
+		output.write(nameData);
+		for (int i = 0; i <= size; i++) {
+			output.writeInt(nameOffsets[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeInt(nameHashes[i]);
+		}
+		for (int i = 0; i < table.length; i++) {
+			output.writeInt(table[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeInt(crcs[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeInt(dosTimes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeLong(compressedSizes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeLong(sizes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeLong(localHeaderOffsets[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			output.writeShort(methods[i]);
+		}
+		output.writeInt(nonAsciiNames == null ? 0 : nonAsciiNames.cardinality());
+		if (nonAsciiNames != null) {
+			for (int i = nonAsciiNames.nextSetBit(0); i >= 0; i = nonAsciiNames.nextSetBit(i + 1)) {
+				output.writeInt(i);
+			}
+		}
+	}
+
+	/**
+	 * Read a central directory that was written using {@link #writeTo(DataOutput)}.
+	 * @param buffer the buffer to read, positioned at the start of the central directory
+	 * @return the central directory
+	 * @throws IOException if the data is not valid
+	 */
+	static ZipCentralDirectory readFrom(ByteBuffer buffer) throws IOException {
+		try {
+			int size = buffer.getInt();
+			int nameCapacity = buffer.getInt();
+			int tableLength = buffer.getInt();
+			if (size < 0 || nameCapacity < 0 || size > buffer.remaining() || nameCapacity > buffer.remaining()) {
+				throw new IOException("Invalid central directory data");
+			}
+			ZipCentralDirectory centralDirectory = new ZipCentralDirectory(size, nameCapacity);
+			if (centralDirectory.table.length != tableLength) {
+				throw new IOException("Invalid central directory data");
+			}
+			buffer.get(centralDirectory.nameData);
+			get(buffer, centralDirectory.nameOffsets);
+			get(buffer, centralDirectory.nameHashes);
+			get(buffer, centralDirectory.table);
+			get(buffer, centralDirectory.crcs);
+			get(buffer, centralDirectory.dosTimes);
+			get(buffer, centralDirectory.compressedSizes);
+			get(buffer, centralDirectory.sizes);
+			get(buffer, centralDirectory.localHeaderOffsets);
+			buffer.asShortBuffer().get(centralDirectory.methods);
+			buffer.position(buffer.position() + size * 2);
+			int nonAsciiCount = buffer.getInt();
+			for (int i = 0; i < nonAsciiCount; i++) {
+				if (centralDirectory.nonAsciiNames == null) {
+					centralDirectory.nonAsciiNames = new BitSet();
+				}
+				centralDirectory.nonAsciiNames.set(buffer.getInt());
+			}
+			if (centralDirectory.nameOffsets[size] != nameCapacity) {
+				throw new IOException("Invalid central directory data");
+			}
+			return centralDirectory;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated central directory data");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Invalid central directory data");
+		}
+	}
+
+	private static void get(ByteBuffer buffer, int[] values) {
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 4);
+	}
+
+	private static void get(ByteBuffer buffer, long[] values) {
+		buffer.asLongBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 8);
+	}
+
+	private static int findEndOfCentralDirectory(byte[] tail) {
+		for (int i = tail.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+					&& i + END_OF_CENTRAL_DIRECTORY_SIZE + readShort(tail, i + 20) == tail.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long findZip64EndOfCentralDirectory(RandomAccessFile input, long locatorStart,
+			long recordedOffset, byte[] record) throws IOException {
+		// the record normally immediately precedes the locator, the recorded offset is wrong if data was prepended
+		long recordStart = locatorStart - ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE;
+		if (!readZip64EndOfCentralDirectory(input, recordStart, record)) {
+			recordStart = recordedOffset;
+			if (!readZip64EndOfCentralDirectory(input, recordStart, record)) {
+				throw new ZipException("Invalid Zip64 end of central directory record");
+			}
+		}
+		return recordStart;
+	}
+
+	private static boolean readZip64EndOfCentralDirectory(RandomAccessFile input, long position, byte[] record)
+			throws IOException {
+		if (position < 0 || position + record.length > input.length()) {
+			return false;
+		}
+		input.seek(position);
+		input.readFully(record);
+		return readInt(record, 0) == ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE;
+	}
+
+	private int readEntry(int index, byte[] data, int offset, long prefixLength) throws IOException {
+		if (offset + CENTRAL_DIRECTORY_HEADER_SIZE > data.length
+				|| readInt(data, offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+			throw new ZipException("Invalid central directory header");
+		}
+		int nameLength = readShort(data, offset + 28);
+		int extraLength = readShort(data, offset + 30);
+		int commentLength = readShort(data, offset + 32);
+		int nameOffset = offset + CENTRAL_DIRECTORY_HEADER_SIZE;
+		if (nameOffset + nameLength + extraLength + commentLength > data.length) {
+			throw new ZipException("Invalid central directory header");
+		}
+		methods[index] = (short) readShort(data, offset + 10);
+		dosTimes[index] = (int) readInt(data, offset + 12);
+		crcs[index] = (int) readInt(data, offset + 16);
+		compressedSizes[index] = readInt(data, offset + 20);
+		sizes[index] = readInt(data, offset + 24);
+		localHeaderOffsets[index] = readInt(data, offset + 42);
+		if (sizes[index] == ZIP64_MAGIC || compressedSizes[index] == ZIP64_MAGIC
+				|| localHeaderOffsets[index] == ZIP64_MAGIC) {
+			readZip64ExtraField(index, data, nameOffset + nameLength, extraLength);
+		}
+		localHeaderOffsets[index] += prefixLength;
+		addName(index, data, nameOffset, nameLength);
+		return nameOffset + nameLength + extraLength + commentLength;
+	}
+
+	private void addName(int index, byte[] data, int offset, int length) throws IOException {
+		int nameOffset = nameOffsets[index];
+		System.arraycopy(data, offset, nameData, nameOffset, length);
+		nameOffsets[index + 1] = nameOffset + length;
+
+		// hash codes match String.hashCode() so that lookups can use the cached hash of the requested name
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			if (data[offset + i] < 0) {
+				if (nonAsciiNames == null) {
+					nonAsciiNames = new BitSet();
+				}
+				nonAsciiNames.set(index);
+				hash = new String(data, offset, length, NAME_ENCODING).hashCode();
+				break;
+			}
+			hash = 31 * hash + data[offset + i];
+		}
+		nameHashes[index] = hash;
+
+		int mask = table.length - 1;
+		int slot = spread(hash) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = index + 1;
+	}
+
+	private void trimNameData() {
+		int length = nameOffsets[getSize()];
+		if (length < nameData.length) {
+			byte[] trimmed = new byte[length];
+			System.arraycopy(nameData, 0, trimmed, 0, length);
+			nameData = trimmed;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private void readZip64ExtraField(int index, byte[] data, int offset, int length) throws ZipException {
+		int end = offset + length;
+		while (offset + 4 <= end) {
+			int id = readShort(data, offset);
+			int size = readShort(data, offset + 2);
+			offset += 4;
+			if (id == ZIP64_EXTRA_FIELD_ID) {
+				// only the values that overflowed are present, always in this order
+				int fieldEnd = Math.min(offset + size, end);
+				if (sizes[index] == ZIP64_MAGIC && offset + 8 <= fieldEnd) {
+					sizes[index] = readLong(data, offset);
+					offset += 8;
+				}
+				if (compressedSizes[index] == ZIP64_MAGIC && offset + 8 <= fieldEnd) {
+					compressedSizes[index] = readLong(data, offset);
+					offset += 8;
+				}
+				if (localHeaderOffsets[index] == ZIP64_MAGIC && offset + 8 <= fieldEnd) {
+					localHeaderOffsets[index] = readLong(data, offset);
+				}
+				return;
+			}
+			offset += size;
+		}
+		throw new ZipException("Missing Zip64 extended information for entry " + index);
+	}
+
+	/**
+	 * Convert an MS-DOS date and time, as stored in the central directory, to Java time.
+	 * @param dosTime the MS-DOS date and time
+	 * @return the time in milliseconds since the epoch, using the default time zone
+	 */
+	public static long toJavaTime(int dosTime) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f,
+				(dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+		return calendar.getTimeInMillis();
+	}
+
+	private static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	static int readShort(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	static long readInt(byte[] data, int offset) {
+		return (readShort(data, offset) | ((long) readShort(data, offset + 2) << 16)) & 0xFFFFFFFFL;
+	}
+
+	static long readLong(byte[] data, int offset) {
+		return readInt(data, offset) | (readInt(data, offset + 4) << 32);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the data of a single zip entry using positional reads against a short lived {@link FileChannel}. The location
+ * of the entry is taken from the {@link ZipCentralDirectory} so reading an entry only costs the size of the entry,
+ * regardless of the number of entries in the file. The file is closed before any method returns.
+ * <p/>
+ * Deflated entries are inflated directly from the buffer they are read into, using a small pool of {@link Inflater}s
+ * that are reset and reused in the same way as {@link java.util.zip.ZipFile}.
+ *
+ * @author Phillip Webb
+ */
+public final class ZipEntryReader {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int MAX_POOLED_INFLATERS = 16;
+
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	private static final AtomicInteger pooledInflaterCount = new AtomicInteger();
+
+	private ZipEntryReader() {
+	}
+
+	/**
+	 * Read the uncompressed data of an entry.
+	 * @param file the zip file
+	 * @param localHeaderOffset the offset of the local file header
+	 * @param method the compression method, either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+	 * @param compressedSize the compressed size of the entry
+	 * @param size the uncompressed size of the entry
+	 * @param crc the expected CRC-32 of the uncompressed data
+	 * @return the uncompressed entry data
+	 * @throws IOException if the entry cannot be read
+	 */
+	public static byte[] read(File file, long localHeaderOffset, int method, long compressedSize, long size, long crc)
+			throws IOException {
+		if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+			throw new ZipException("Entry too large to read into memory");
+		}
+		if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + method);
+		}
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE);
+			readFully(channel, header, localHeaderOffset);
+			byte[] headerBytes = header.array();
+			if (ZipCentralDirectory.readInt(headerBytes, 0) != LOCAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid local file header");
+			}
+			long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + ZipCentralDirectory.readShort(headerBytes, 26)
+					+ ZipCentralDirectory.readShort(headerBytes, 28);
+			byte[] bytes;
+			if (method == ZipEntry.STORED) {
+				bytes = new byte[(int) compressedSize];
+				readFully(channel, ByteBuffer.wrap(bytes), dataOffset);
+			} else {
+				// nowrap inflaters need an extra dummy byte to finish, see Inflater(boolean)
+				byte[] compressed = new byte[(int) compressedSize + 1];
+				readFully(channel, ByteBuffer.wrap(compressed, 0, (int) compressedSize), dataOffset);
+				bytes = inflate(compressed, (int) size);
+			}
+			checkCrc(bytes, crc);
+			return bytes;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read == -1) {
+				throw new EOFException("Unexpected end of zip file");
+			}
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int size) throws IOException {
+		Inflater inflater = getInflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] bytes = new byte[size];
+			int offset = 0;
+			while (offset < size) {
+				int inflated = inflater.inflate(bytes, offset, size - offset);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new ZipException("Unexpected end of compressed data");
+				}
+				offset += inflated;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			ZipException exception = new ZipException("Invalid compressed data");
+			exception.initCause(e);
+			throw exception;
+		} finally {
+			releaseInflater(inflater);
+		}
+	}
+
+	private static Inflater getInflater() {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		pooledInflaterCount.decrementAndGet();
+		return inflater;
+	}
+
+	private static void releaseInflater(Inflater inflater) {
+		if (pooledInflaterCount.incrementAndGet() > MAX_POOLED_INFLATERS) {
+			pooledInflaterCount.decrementAndGet();
+			inflater.end();
+			return;
+		}
+		inflater.reset();
+		inflaters.offer(inflater);
+	}
+
+	private static void checkCrc(byte[] bytes, long expected) throws ZipException {
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		if (crc.getValue() != expected) {
+			throw new ZipException("Invalid entry CRC (expected 0x" + Long.toHexString(expected) + " but got 0x"
+					+ Long.toHexString(crc.getValue()) + ")");
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.xbean.classloader.ChangeDetectionPolicy.BackgroundPolicy;
+import org.apache.xbean.classloader.ChangeDetectionPolicy.Checkable;
+import org.apache.xbean.classloader.TstUtils.StatCountingFile;
+
+/**
+ * Tests for {@link ChangeDetectionPolicy}.
+ *
+ * @author Phillip Webb
+ */
+public class ChangeDetectionPolicyTest extends TestCase {
+
+	private static final int LOOKUPS = 10;
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		super.tearDown();
+	}
+
+	/**
+	 * Given the {@link ChangeDetectionPolicy#ALWAYS} policy when entries are looked up then the file is checked on each
+	 * lookup and changes are detected.
+	 * @throws Exception
+	 */
+	public void testAlways() throws Exception {
+		StatCountingFile countingFile = new StatCountingFile(file);
+		NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+		jarFile.setChangeDetectionPolicy(ChangeDetectionPolicy.ALWAYS);
+		lookup(jarFile);
+		assertEquals(LOOKUPS, countingFile.getStatCount());
+		replaceFile();
+		assertNull(jarFile.getJarEntry(TstUtils.SAMPLE_JAR_CLASS));
+		assertNotNull(jarFile.getJarEntry("replaced"));
+	}
+
+	/**
+	 * Given the {@link ChangeDetectionPolicy#NEVER} policy when entries are looked up then the file is only checked
+	 * once and changes are not detected.
+	 * @throws Exception
+	 */
+	public void testNever() throws Exception {
+		StatCountingFile countingFile = new StatCountingFile(file);
+		NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+		jarFile.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+		lookup(jarFile);
+		assertEquals(1, countingFile.getStatCount());
+		replaceFile();
+		assertNotNull(jarFile.getJarEntry(TstUtils.SAMPLE_JAR_CLASS));
+	}
+
+	/**
+	 * Given an interval policy when entries are looked up then the file is only checked once the interval has
+	 * elapsed.
+	 * @throws Exception
+	 */
+	public void testInterval() throws Exception {
+		ChangeDetectionPolicy policy = ChangeDetectionPolicy.interval(60000);
+		assertFalse(policy.isCheckRequired(System.currentTimeMillis()));
+		assertTrue(policy.isCheckRequired(System.currentTimeMillis() - 60000));
+		StatCountingFile countingFile = new StatCountingFile(file);
+		NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+		jarFile.setChangeDetectionPolicy(policy);
+		lookup(jarFile);
+		assertEquals(1, countingFile.getStatCount());
+		jarFile.setChangeDetectionPolicy(ChangeDetectionPolicy.interval(0));
+		lookup(jarFile);
+		assertEquals(LOOKUPS + 1, countingFile.getStatCount());
+	}
+
+	/**
+	 * Given a background policy when entries are looked up then the file is not checked and changes are detected by
+	 * the background thread.
+	 * @throws Exception
+	 */
+	public void testBackground() throws Exception {
+		BackgroundPolicy policy = ChangeDetectionPolicy.background(10);
+		try {
+			StatCountingFile countingFile = new StatCountingFile(file);
+			NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+			jarFile.setChangeDetectionPolicy(policy);
+			lookup(jarFile);
+			replaceFile();
+			long timeout = System.currentTimeMillis() + 5000;
+			while (jarFile.getJarEntry("replaced") == null) {
+				assertTrue("Change not detected", System.currentTimeMillis() < timeout);
+				Thread.sleep(10);
+			}
+		} finally {
+			policy.destroy();
+		}
+	}
+
+	/**
+	 * Given a background policy with registered jar files when checkForChanges() is called then jar files that use a
+	 * different policy are no longer checked.
+	 * @throws Exception
+	 */
+	public void testBackgroundIgnoresJarFilesWithDifferentPolicy() throws Exception {
+		BackgroundPolicy policy = ChangeDetectionPolicy.background(60000);
+		try {
+			StatCountingFile countingFile = new StatCountingFile(file);
+			NonLockingJarFile jarFile = new NonLockingJarFile(countingFile);
+			jarFile.setChangeDetectionPolicy(policy);
+			policy.checkForChanges();
+			assertEquals(1, countingFile.getStatCount());
+			jarFile.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+			policy.checkForChanges();
+			assertEquals(1, countingFile.getStatCount());
+		} finally {
+			policy.destroy();
+		}
+	}
+
+	/**
+	 * Given a background policy with registered items when the items use a different policy or are destroyed then
+	 * they are unregistered.
+	 * @throws Exception
+	 */
+	public void testBackgroundUnregisters() throws Exception {
+		BackgroundPolicy policy = ChangeDetectionPolicy.background(60000);
+		try {
+			NonLockingJarFile jarFile = new NonLockingJarFile(file);
+			jarFile.setChangeDetectionPolicy(policy);
+			jarFile.setChangeDetectionPolicy(policy);
+			assertEquals(1, policy.getRegistrationCount());
+			jarFile.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+			assertEquals(0, policy.getRegistrationCount());
+			UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { file.getParentFile().toURI()
+					.toURL() });
+			resourceFinder.setChangeDetectionPolicy(policy);
+			assertEquals(2, policy.getRegistrationCount());
+			resourceFinder.destroy();
+			assertEquals(0, policy.getRegistrationCount());
+		} finally {
+			policy.destroy();
+		}
+	}
+
+	/**
+	 * Given a thread with a context class loader when it registers with a background policy then the background thread
+	 * does not inherit the context class loader.
+	 * @throws Exception
+	 */
+	public void testBackgroundThreadDoesNotInheritContextClassLoader() throws Exception {
+		final BackgroundPolicy policy = ChangeDetectionPolicy.background(10);
+		final AtomicReference<Thread> checkingThread = new AtomicReference<Thread>();
+		final CountDownLatch checked = new CountDownLatch(1);
+		final Checkable checkable = new Checkable() {
+			public ChangeDetectionPolicy getChangeDetectionPolicy() {
+				return policy;
+			}
+
+			public void checkForChanges() {
+				checkingThread.set(Thread.currentThread());
+				checked.countDown();
+			}
+		};
+		try {
+			Thread registeringThread = new Thread() {
+				public void run() {
+					policy.register(checkable);
+				}
+			};
+			registeringThread.setContextClassLoader(new ClassLoader() {
+			});
+			registeringThread.start();
+			registeringThread.join();
+			assertTrue(checked.await(5, TimeUnit.SECONDS));
+			assertNull(checkingThread.get().getContextClassLoader());
+			assertTrue(checkingThread.get().isDaemon());
+		} finally {
+			policy.destroy();
+		}
+	}
+
+	/**
+	 * Given a background policy when items that are equal but not identical are registered then each is registered
+	 * once and can be unregistered.
+	 * @throws Exception
+	 */
+	public void testBackgroundRegistersByIdentity() throws Exception {
+		BackgroundPolicy policy = ChangeDetectionPolicy.background(60000);
+		try {
+			List<Checkable> checkables = new ArrayList<Checkable>();
+			for (int i = 0; i < 3; i++) {
+				checkables.add(new EqualCheckable(policy));
+			}
+			for (Checkable checkable : checkables) {
+				policy.register(checkable);
+				policy.register(checkable);
+			}
+			assertEquals(3, policy.getRegistrationCount());
+			policy.unregister(checkables.get(1));
+			assertEquals(2, policy.getRegistrationCount());
+			policy.unregister(new EqualCheckable(policy));
+			assertEquals(2, policy.getRegistrationCount());
+		} finally {
+			policy.destroy();
+		}
+	}
+
+	/**
+	 * Given a default policy when items are created then they are only registered once they have been constructed.
+	 * @throws Exception
+	 */
+	public void testRegisteredOnceConstructed() throws Exception {
+		final List<Checkable> registered = new ArrayList<Checkable>();
+		final List<URL[]> registeredUrls = new ArrayList<URL[]>();
+		ChangeDetectionPolicy.setDefault(new ChangeDetectionPolicy() {
+
+			public boolean isCheckRequired(long lastChecked) {
+				return false;
+			}
+
+			public void register(Checkable checkable) {
+				registered.add(checkable);
+				if (checkable instanceof UrlResourceFinder) {
+					registeredUrls.add(((UrlResourceFinder) checkable).getUrls());
+				}
+			}
+		});
+		try {
+			NonLockingJarFile jarFile = new NonLockingJarFile(file);
+			assertEquals(1, registered.size());
+			assertSame(jarFile, registered.get(0));
+			UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { file.toURI().toURL() });
+			assertSame(resourceFinder, registered.get(1));
+			assertEquals(1, registeredUrls.get(0).length);
+			resourceFinder.destroy();
+		} finally {
+			ChangeDetectionPolicy.setDefault(ChangeDetectionPolicy.ALWAYS);
+		}
+	}
+
+	/**
+	 * Given a default policy when a {@link NonLockingJarFile} is created then the default is used.
+	 * @throws Exception
+	 */
+	public void testSetDefault() throws Exception {
+		assertSame(ChangeDetectionPolicy.ALWAYS, ChangeDetectionPolicy.getDefault());
+		ChangeDetectionPolicy.setDefault(ChangeDetectionPolicy.NEVER);
+		try {
+			assertSame(ChangeDetectionPolicy.NEVER, new NonLockingJarFile(file).getChangeDetectionPolicy());
+		} finally {
+			ChangeDetectionPolicy.setDefault(ChangeDetectionPolicy.ALWAYS);
+		}
+		try {
+			ChangeDetectionPolicy.setDefault(null);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private void lookup(NonLockingJarFile jarFile) {
+		for (int i = 0; i < LOOKUPS; i++) {
+			assertNotNull(jarFile.getJarEntry(TstUtils.SAMPLE_JAR_CLASS));
+		}
+	}
+
+	private void replaceFile() throws Exception {
+		long lastModified = file.lastModified();
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(file));
+		try {
+			outputStream.putNextEntry(new JarEntry("replaced"));
+		} finally {
+			outputStream.close();
+		}
+		file.setLastModified(lastModified + 10000);
+	}
+
+	private static class EqualCheckable implements Checkable {
+
+		private final ChangeDetectionPolicy policy;
+
+		public EqualCheckable(ChangeDetectionPolicy policy) {
+			this.policy = policy;
+		}
+
+		public ChangeDetectionPolicy getChangeDetectionPolicy() {
+			return policy;
+		}
+
+		public void checkForChanges() {
+		}
+
+		public boolean equals(Object obj) {
+			return obj instanceof EqualCheckable;
+		}
+
+		public int hashCode() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates synthetic class paths for benchmarks and stress tests. The class path is built from a seed and a
+ * {@link Profile} so the same seed and profile always produce the same jars, directories, entries and
+ * <tt>Class-Path</tt> manifests. Generated classes are created with {@link TstUtils#createClassBytes(String)} and can
+ * be loaded.
+ *
+ * @author Phillip Webb
+ */
+public class ClassPathGenerator {
+
+	/**
+	 * Resource included in every location of the class path.
+	 */
+	public static final String DUPLICATE_RESOURCE = "generated/duplicate.properties";
+
+	// fixed entry times keep generated jars byte for byte identical between runs
+	private static final long ENTRY_TIME = 1262304000000L;
+
+	private final long seed;
+
+	private final Profile profile;
+
+	public ClassPathGenerator(long seed, Profile profile) {
+		this.seed = seed;
+		this.profile = profile;
+	}
+
+	/**
+	 * Generate the class path.
+	 * @param directory the directory that will contain the generated locations
+	 * @return the generated class path
+	 * @throws IOException
+	 */
+	public GeneratedClassPath generate(File directory) throws IOException {
+		Random random = new Random(seed);
+		List<Location> locations = createLocations(random);
+		List<String> packageNames = new ArrayList<String>();
+		List<String> classNames = new ArrayList<String>();
+		List<String> resourceNames = new ArrayList<String>();
+		for (Location location : locations) {
+			addEntries(random, location, packageNames, classNames, resourceNames);
+		}
+		addNestedClassPaths(random, locations);
+		List<URL> urls = new ArrayList<URL>();
+		List<File> files = new ArrayList<File>();
+		for (Location location : locations) {
+			File file = new File(directory, location.name);
+			if (location.directory) {
+				writeDirectory(file, location);
+			} else {
+				writeJar(random, file, location);
+			}
+			if (!location.nested) {
+				urls.add(file.toURI().toURL());
+			}
+			files.add(file);
+		}
+		return new GeneratedClassPath(directory, urls.toArray(new URL[urls.size()]), files, packageNames, classNames,
+				resourceNames);
+	}
+
+	private List<Location> createLocations(Random random) {
+		int count = profile.jars + profile.directories;
+		List<Boolean> directories = new ArrayList<Boolean>(count);
+		for (int i = 0; i < count; i++) {
+			directories.add(Boolean.valueOf(i < profile.directories));
+		}
+		Collections.shuffle(directories, random);
+		List<Location> locations = new ArrayList<Location>(count);
+		for (int i = 0; i < count; i++) {
+			boolean directory = directories.get(i).booleanValue();
+			String name = (directory ? "classes" : "lib") + format(i, count) + (directory ? "" : ".jar");
+			locations.add(new Location(name, directory));
+		}
+		return locations;
+	}
+
+	private void addEntries(Random random, Location location, List<String> packageNames, List<String> classNames,
+			List<String> resourceNames) {
+		Set<String> locationPackages = new LinkedHashSet<String>();
+		for (int p = 0; p < profile.packagesPerLocation; p++) {
+			boolean duplicate = !packageNames.isEmpty() && random.nextDouble() < profile.duplicatePackageRatio;
+			if (duplicate) {
+				locationPackages.add(packageNames.get(random.nextInt(packageNames.size())));
+			} else {
+				String packageName = "generated.m" + packageNames.size() + ".p" + p;
+				packageNames.add(packageName);
+				locationPackages.add(packageName);
+			}
+		}
+		for (String packageName : locationPackages) {
+			String path = packageName.replace('.', '/');
+			location.entries.add(path + "/");
+			int classes = profile.classesPerPackage / 2 + random.nextInt(profile.classesPerPackage + 1);
+			for (int c = 0; c < classes; c++) {
+				String className = packageName + ".C" + classNames.size();
+				location.entries.add(className.replace('.', '/') + ".class");
+				classNames.add(className);
+			}
+			for (int r = 0; r < profile.resourcesPerPackage; r++) {
+				String resourceName = path + "/resource" + resourceNames.size() + ".properties";
+				location.entries.add(resourceName);
+				resourceNames.add(resourceName);
+			}
+		}
+		location.entries.add("generated/");
+		location.entries.add(DUPLICATE_RESOURCE);
+	}
+
+	private void addNestedClassPaths(Random random, List<Location> locations) {
+		List<Location> jars = new ArrayList<Location>();
+		for (Location location : locations) {
+			if (!location.directory) {
+				if (!jars.isEmpty() && random.nextDouble() < profile.nestedClassPathRatio) {
+					Location parent = jars.get(random.nextInt(jars.size()));
+					parent.classPath.add(location.name);
+					location.nested = true;
+				}
+				jars.add(location);
+			}
+		}
+	}
+
+	private void writeDirectory(File directory, Location location) throws IOException {
+		for (String name : location.entries) {
+			File file = new File(directory, name);
+			if (name.endsWith("/")) {
+				if (!file.isDirectory() && !file.mkdirs()) {
+					throw new IOException("Unable to create folder " + file);
+				}
+			} else {
+				OutputStream outputStream = new FileOutputStream(file);
+				try {
+					outputStream.write(getContent(name));
+				} finally {
+					outputStream.close();
+				}
+			}
+		}
+	}
+
+	private void writeJar(Random random, File file, Location location) throws IOException {
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(file));
+		try {
+			outputStream.putNextEntry(createEntry("META-INF/"));
+			outputStream.putNextEntry(createEntry(JarFile.MANIFEST_NAME));
+			getManifest(location).write(outputStream);
+			for (String name : location.entries) {
+				JarEntry entry = createEntry(name);
+				byte[] content = (name.endsWith("/") ? new byte[0] : getContent(name));
+				if (!name.endsWith("/") && random.nextDouble() < profile.storedRatio) {
+					CRC32 crc = new CRC32();
+					crc.update(content);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(content.length);
+					entry.setCompressedSize(content.length);
+					entry.setCrc(crc.getValue());
+				}
+				outputStream.putNextEntry(entry);
+				outputStream.write(content);
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private JarEntry createEntry(String name) {
+		JarEntry entry = new JarEntry(name);
+		entry.setTime(ENTRY_TIME);
+		return entry;
+	}
+
+	private Manifest getManifest(Location location) {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (!location.classPath.isEmpty()) {
+			StringBuilder classPath = new StringBuilder();
+			for (String name : location.classPath) {
+				classPath.append(classPath.length() == 0 ? "" : " ").append(name);
+			}
+			attributes.put(Attributes.Name.CLASS_PATH, classPath.toString());
+		}
+		return manifest;
+	}
+
+	private byte[] getContent(String name) throws IOException {
+		if (name.endsWith(".class")) {
+			return TstUtils.createClassBytes(name.substring(0, name.length() - ".class".length()));
+		}
+		return ("name=" + name + "\n").getBytes("UTF-8");
+	}
+
+	private static String format(int value, int count) {
+		String digits = String.valueOf(Math.max(count - 1, 0));
+		String formatted = String.valueOf(value);
+		while (formatted.length() < digits.length()) {
+			formatted = "0" + formatted;
+		}
+		return formatted;
+	}
+
+	/**
+	 * A jar or directory planned by the generator.
+	 */
+	private static class Location {
+
+		private final String name;
+
+		private final boolean directory;
+
+		private final List<String> entries = new ArrayList<String>();
+
+		private final List<String> classPath = new ArrayList<String>();
+
+		private boolean nested;
+
+		public Location(String name, boolean directory) {
+			this.name = name;
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * The size and shape of a generated class path. Ratios are the probability, between 0 and 1, that the generator
+	 * will apply a feature to each package, jar or entry.
+	 */
+	public static class Profile {
+
+		private int jars;
+
+		private int directories;
+
+		private int packagesPerLocation;
+
+		private int classesPerPackage;
+
+		private int resourcesPerPackage;
+
+		private double duplicatePackageRatio;
+
+		private double nestedClassPathRatio;
+
+		private double storedRatio;
+
+		public Profile(int jars, int packagesPerLocation, int classesPerPackage) {
+			this.jars = jars;
+			this.packagesPerLocation = packagesPerLocation;
+			this.classesPerPackage = classesPerPackage;
+		}
+
+		/**
+		 * A handful of jars and directories using every feature of the generator.
+		 */
+		public static Profile small() {
+			return new Profile(10, 5, 20).directories(2).resourcesPerPackage(1).duplicatePackageRatio(0.1)
+					.nestedClassPathRatio(0.2).storedRatio(0.1);
+		}
+
+		/**
+		 * Around a hundred jars with tens of thousands of classes, similar to a typical application.
+		 */
+		public static Profile medium() {
+			return new Profile(100, 10, 20).directories(5).resourcesPerPackage(1).duplicatePackageRatio(0.05)
+					.nestedClassPathRatio(0.1).storedRatio(0.1);
+		}
+
+		/**
+		 * Around a thousand jars with hundreds of thousands of classes, similar to a large application server.
+		 */
+		public static Profile large() {
+			return new Profile(1000, 10, 20).directories(10).resourcesPerPackage(1).duplicatePackageRatio(0.05)
+					.nestedClassPathRatio(0.1).storedRatio(0.1);
+		}
+
+		public Profile directories(int directories) {
+			this.directories = directories;
+			return this;
+		}
+
+		public Profile resourcesPerPackage(int resourcesPerPackage) {
+			this.resourcesPerPackage = resourcesPerPackage;
+			return this;
+		}
+
+		public Profile duplicatePackageRatio(double duplicatePackageRatio) {
+			this.duplicatePackageRatio = duplicatePackageRatio;
+			return this;
+		}
+
+		public Profile nestedClassPathRatio(double nestedClassPathRatio) {
+			this.nestedClassPathRatio = nestedClassPathRatio;
+			return this;
+		}
+
+		public Profile storedRatio(double storedRatio) {
+			this.storedRatio = storedRatio;
+			return this;
+		}
+
+		public String toString() {
+			return jars + " jars, " + directories + " directories, " + packagesPerLocation + " packages per location, "
+					+ classesPerPackage + " classes per package";
+		}
+	}
+
+	/**
+	 * The result of {@link ClassPathGenerator#generate(File)}.
+	 */
+	public static class GeneratedClassPath {
+
+		private final File directory;
+
+		private final URL[] urls;
+
+		private final List<File> files;
+
+		private final List<String> packageNames;
+
+		private final List<String> classNames;
+
+		private final List<String> resourceNames;
+
+		GeneratedClassPath(File directory, URL[] urls, List<File> files, List<String> packageNames,
+				List<String> classNames, List<String> resourceNames) {
+			this.directory = directory;
+			this.urls = urls;
+			this.files = Collections.unmodifiableList(files);
+			this.packageNames = Collections.unmodifiableList(packageNames);
+			this.classNames = Collections.unmodifiableList(classNames);
+			this.resourceNames = Collections.unmodifiableList(resourceNames);
+		}
+
+		public File getDirectory() {
+			return directory;
+		}
+
+		/**
+		 * Returns the class path URLs. Jars that are only reachable from a <tt>Class-Path</tt> manifest attribute are
+		 * not included.
+		 */
+		public URL[] getUrls() {
+			return urls.clone();
+		}
+
+		/**
+		 * Returns every generated jar and directory, including those reachable from a <tt>Class-Path</tt> manifest.
+		 */
+		public List<File> getFiles() {
+			return files;
+		}
+
+		public List<String> getPackageNames() {
+			return packageNames;
+		}
+
+		public List<String> getClassNames() {
+			return classNames;
+		}
+
+		/**
+		 * Returns the resource names of all generated classes.
+		 */
+		public List<String> getClassResourceNames() {
+			List<String> resourceNames = new ArrayList<String>(classNames.size());
+			for (String className : classNames) {
+				resourceNames.add(className.replace('.', '/') + ".class");
+			}
+			return resourceNames;
+		}
+
+		/**
+		 * Returns the names of generated resources that are not classes, excluding {@link #DUPLICATE_RESOURCE}.
+		 */
+		public List<String> getResourceNames() {
+			return resourceNames;
+		}
+
+		/**
+		 * Delete the generated class path.
+		 */
+		public void delete() {
+			delete(directory);
+		}
+
+		private void delete(File file) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					delete(child);
+				}
+			}
+			file.delete();
+		}
+	}
+}
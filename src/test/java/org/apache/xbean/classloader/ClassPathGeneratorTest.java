@@ -0,0 +1,128 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
+
+/**
+ * Tests for {@link ClassPathGenerator}.
+ *
+ * @author Phillip Webb
+ */
+public class ClassPathGeneratorTest extends TestCase {
+
+	private GeneratedClassPath classPath;
+
+	private GeneratedClassPath otherClassPath;
+
+	protected void tearDown() throws Exception {
+		if (classPath != null) {
+			classPath.delete();
+		}
+		if (otherClassPath != null) {
+			otherClassPath.delete();
+		}
+	}
+
+	public void testGenerateIsDeterministic() throws Exception {
+		classPath = new ClassPathGenerator(1, Profile.small()).generate(TstUtils.createTempDir());
+		otherClassPath = new ClassPathGenerator(1, Profile.small()).generate(TstUtils.createTempDir());
+		assertEquals(classPath.getClassNames(), otherClassPath.getClassNames());
+		assertEquals(classPath.getResourceNames(), otherClassPath.getResourceNames());
+		assertEquals(classPath.getFiles().size(), otherClassPath.getFiles().size());
+		for (int i = 0; i < classPath.getFiles().size(); i++) {
+			File file = classPath.getFiles().get(i);
+			File otherFile = otherClassPath.getFiles().get(i);
+			assertEquals(file.getName(), otherFile.getName());
+			if (file.isFile()) {
+				assertTrue(file.getName(), Arrays.equals(read(file), read(otherFile)));
+			}
+		}
+	}
+
+	public void testGenerateWithDifferentSeed() throws Exception {
+		classPath = new ClassPathGenerator(1, Profile.small()).generate(TstUtils.createTempDir());
+		otherClassPath = new ClassPathGenerator(2, Profile.small()).generate(TstUtils.createTempDir());
+		assertFalse(classPath.getClassNames().equals(otherClassPath.getClassNames()));
+	}
+
+	public void testGenerateUsesProfile() throws Exception {
+		Profile profile = Profile.small();
+		classPath = new ClassPathGenerator(1, profile).generate(TstUtils.createTempDir());
+		assertEquals(12, classPath.getFiles().size());
+		int directories = 0;
+		for (File file : classPath.getFiles()) {
+			directories += (file.isDirectory() ? 1 : 0);
+		}
+		assertEquals(2, directories);
+		assertTrue(classPath.getUrls().length < classPath.getFiles().size());
+		assertTrue(classPath.getPackageNames().size() < 12 * 5);
+		assertEquals(classPath.getClassNames().size(), classPath.getClassResourceNames().size());
+		assertFalse(classPath.getResourceNames().isEmpty());
+	}
+
+	public void testGenerateStoredAndDeflatedEntries() throws Exception {
+		classPath = new ClassPathGenerator(1, Profile.small().storedRatio(0.5)).generate(TstUtils.createTempDir());
+		int stored = 0;
+		int deflated = 0;
+		for (File file : classPath.getFiles()) {
+			if (file.isFile()) {
+				JarFile jarFile = new JarFile(file);
+				try {
+					for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+						JarEntry entry = entries.nextElement();
+						if (!entry.isDirectory()) {
+							stored += (entry.getMethod() == ZipEntry.STORED ? 1 : 0);
+							deflated += (entry.getMethod() == ZipEntry.DEFLATED ? 1 : 0);
+						}
+					}
+				} finally {
+					jarFile.close();
+				}
+			}
+		}
+		assertTrue(stored > 0);
+		assertTrue(deflated > 0);
+	}
+
+	public void testGeneratedClassPathCanBeLoaded() throws Exception {
+		classPath = new ClassPathGenerator(1, Profile.small()).generate(TstUtils.createTempDir());
+		NonLockingJarFileClassLoader classLoader = new NonLockingJarFileClassLoader("test", classPath.getUrls(),
+				ClassLoader.getSystemClassLoader().getParent());
+		try {
+			for (String className : classPath.getClassNames()) {
+				assertSame(classLoader, classLoader.loadClass(className).getClassLoader());
+			}
+			for (String resourceName : classPath.getResourceNames()) {
+				assertNotNull(resourceName, classLoader.getResource(resourceName));
+			}
+			List<?> duplicates = Collections.list(classLoader.getResources(ClassPathGenerator.DUPLICATE_RESOURCE));
+			assertEquals(classPath.getFiles().size(), duplicates.size());
+		} finally {
+			classLoader.destroy();
+		}
+	}
+
+	private byte[] read(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			return IOUtils.toByteArray(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+}
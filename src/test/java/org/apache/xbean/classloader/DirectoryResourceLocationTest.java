@@ -2,6 +2,11 @@ package org.apache.xbean.classloader;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.Manifest;
 
 import junit.framework.TestCase;
@@ -106,4 +111,140 @@ public class DirectoryResourceLocationTest extends TestCase {
 			FileUtils.deleteDirectory(baseDir);
 		}
 	}
+
+	/**
+	 * Given a {@link DirectoryResourceLocation} using the {@link ChangeDetectionPolicy#ALWAYS} policy when
+	 * getResourceHandle() is called then new files are found and no filter is used.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetResourceHandleWithAlwaysPolicy() throws Exception {
+		File baseDir = TstUtils.createTempDir();
+		try {
+			DirectoryResourceLocation location = new DirectoryResourceLocation(baseDir);
+			location.setChangeDetectionPolicy(ChangeDetectionPolicy.ALWAYS);
+			assertNull(location.getResourceHandle("a/b.txt"));
+			writeFile(new File(baseDir, "a/b.txt"));
+			assertNotNull(location.getResourceHandle("a/b.txt"));
+			assertNull(location.getResourceNameFilter());
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	/**
+	 * Given a {@link DirectoryResourceLocation} using the {@link ChangeDetectionPolicy#NEVER} policy when
+	 * getResourceHandle() is called then the directory is only walked once and new files are not found.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetResourceHandleWithNeverPolicy() throws Exception {
+		File baseDir = TstUtils.createTempDir();
+		try {
+			writeFile(new File(baseDir, "a/b.txt"));
+			DirectoryResourceLocation location = new DirectoryResourceLocation(baseDir);
+			location.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+			assertNotNull(location.getResourceHandle("a/b.txt"));
+			assertNotNull(location.getResourceHandle("a"));
+			assertNotNull(location.getResourceHandle("a/"));
+			assertNull(location.getResourceHandle("a/c.txt"));
+			ResourceNameFilter filter = location.getResourceNameFilter();
+			assertEquals(2, filter.getNameCount());
+			writeFile(new File(baseDir, "a/c.txt"));
+			assertNull(location.getResourceHandle("a/c.txt"));
+			assertSame(filter, location.getResourceNameFilter());
+			location.checkForChanges();
+			assertNotNull(location.getResourceHandle("a/c.txt"));
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	/**
+	 * Given a {@link DirectoryResourceLocation} using a filter when getResourceHandle() is called with a name that is
+	 * not normalized then the file system is checked.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetResourceHandleWithUnnormalizedName() throws Exception {
+		File baseDir = TstUtils.createTempDir();
+		try {
+			writeFile(new File(baseDir, "a/b.txt"));
+			DirectoryResourceLocation location = new DirectoryResourceLocation(baseDir);
+			location.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+			assertNotNull(location.getResourceHandle("a/./b.txt"));
+			assertNotNull(location.getResourceHandle("a/../a/b.txt"));
+			assertNotNull(location.getResourceHandle("a//b.txt"));
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	/**
+	 * Given a {@link DirectoryResourceLocation} that is being walked by one thread when getResourceNameFilter() is
+	 * called by another thread then the previous filter is returned without waiting for the walk.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetResourceNameFilterDoesNotWaitForWalk() throws Exception {
+		File directory = TstUtils.createTempDir();
+		final AtomicBoolean block = new AtomicBoolean();
+		final CountDownLatch walking = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		File baseDir = new File(directory.getPath()) {
+			private static final long serialVersionUID = 1L;
+
+			public File[] listFiles() {
+				if (block.get()) {
+					walking.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.listFiles();
+			}
+		};
+		final AtomicBoolean checkRequired = new AtomicBoolean();
+		try {
+			writeFile(new File(directory, "a/b.txt"));
+			final DirectoryResourceLocation location = new DirectoryResourceLocation(baseDir);
+			location.setChangeDetectionPolicy(new ChangeDetectionPolicy() {
+				public boolean isCheckRequired(long lastChecked) {
+					return checkRequired.get();
+				}
+			});
+			ResourceNameFilter filter = location.getResourceNameFilter();
+			assertNotNull(filter);
+			block.set(true);
+			checkRequired.set(true);
+			Callable<ResourceNameFilter> getResourceNameFilter = new Callable<ResourceNameFilter>() {
+				public ResourceNameFilter call() throws Exception {
+					return location.getResourceNameFilter();
+				}
+			};
+			FutureTask<ResourceNameFilter> walk = new FutureTask<ResourceNameFilter>(getResourceNameFilter);
+			new Thread(walk).start();
+			assertTrue(walking.await(5, TimeUnit.SECONDS));
+			FutureTask<ResourceNameFilter> lookup = new FutureTask<ResourceNameFilter>(getResourceNameFilter);
+			new Thread(lookup).start();
+			assertSame(filter, lookup.get(5, TimeUnit.SECONDS));
+			release.countDown();
+			assertNotSame(filter, walk.get(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private void writeFile(File file) throws Exception {
+		file.getParentFile().mkdirs();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(new byte[] { 0, 1, 2 });
+		} finally {
+			fos.close();
+		}
+	}
 }
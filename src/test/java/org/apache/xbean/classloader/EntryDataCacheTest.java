@@ -0,0 +1,191 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link EntryDataCache}.
+ *
+ * @author Phillip Webb
+ */
+public class EntryDataCacheTest extends TestCase {
+
+	private static final File FILE = new File("test.jar");
+
+	private EntryDataCache cache = new EntryDataCache(100);
+
+	/**
+	 * Given data has been added when get() is called with the same key then the data is returned and hits and misses
+	 * are counted.
+	 * @throws Exception
+	 */
+	public void testGetAndPut() throws Exception {
+		byte[] data = new byte[10];
+		assertNull(cache.get(FILE, 1, "a"));
+		cache.put(FILE, 1, "a", data);
+		assertSame(data, cache.get(FILE, 1, "a"));
+		assertNull(cache.get(FILE, 2, "a"));
+		assertNull(cache.get(new File("other.jar"), 1, "a"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(10, cache.getSize());
+	}
+
+	/**
+	 * Given the cache is full when put() is called then the least recently used data is evicted.
+	 * @throws Exception
+	 */
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		cache.put(FILE, 1, "a", new byte[40]);
+		cache.put(FILE, 1, "b", new byte[40]);
+		cache.get(FILE, 1, "a");
+		cache.put(FILE, 1, "c", new byte[40]);
+		assertNotNull(cache.get(FILE, 1, "a"));
+		assertNull(cache.get(FILE, 1, "b"));
+		assertNotNull(cache.get(FILE, 1, "c"));
+		assertEquals(80, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	/**
+	 * Given data larger than the maximum size when put() is called then the data is not cached.
+	 * @throws Exception
+	 */
+	public void testDoesNotCacheLargeData() throws Exception {
+		cache.put(FILE, 1, "a", new byte[10]);
+		cache.put(FILE, 1, "b", new byte[101]);
+		assertNull(cache.get(FILE, 1, "b"));
+		assertNotNull(cache.get(FILE, 1, "a"));
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	/**
+	 * Given existing data when put() is called with the same key then the size is adjusted.
+	 * @throws Exception
+	 */
+	public void testReplace() throws Exception {
+		cache.put(FILE, 1, "a", new byte[10]);
+		cache.put(FILE, 1, "a", new byte[20]);
+		assertEquals(20, cache.getSize());
+	}
+
+	/**
+	 * Given data that is waiting in the eviction queue when it is replaced then the replaced data is no longer
+	 * referenced by the cache.
+	 * @throws Exception
+	 */
+	public void testReplacedDataIsReleased() throws Exception {
+		byte[] data = new byte[40];
+		WeakReference<byte[]> reference = new WeakReference<byte[]>(data);
+		cache.put(FILE, 1, "a", new byte[40]);
+		cache.put(FILE, 1, "b", data);
+		cache.put(FILE, 1, "c", new byte[40]);
+		assertEquals(1, cache.getEvictionCount());
+		cache.put(FILE, 1, "b", new byte[40]);
+		data = null;
+		for (int i = 0; i < 10 && reference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(reference.get());
+	}
+
+	/**
+	 * Given readers that keep using all cached data when data is added then the cache never stays above its maximum
+	 * size.
+	 * @throws Exception
+	 */
+	public void testEvictsWhenAllDataIsUsed() throws Exception {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				public void run() {
+					while (running.get()) {
+						for (int j = 0; j < 20; j++) {
+							cache.get(FILE, 1, String.valueOf(j));
+						}
+					}
+				}
+			};
+			readers[i].start();
+		}
+		try {
+			for (int i = 0; i < 20000; i++) {
+				cache.put(FILE, 1, String.valueOf(i % 20), new byte[i % 30]);
+				assertTrue(cache.getSize() <= 100);
+			}
+		} finally {
+			running.set(false);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+	}
+
+	/**
+	 * Given a full cache when setMaxSize() is called with a smaller size then data is evicted.
+	 * @throws Exception
+	 */
+	public void testSetMaxSize() throws Exception {
+		cache.put(FILE, 1, "a", new byte[50]);
+		cache.put(FILE, 1, "b", new byte[50]);
+		cache.setMaxSize(60);
+		assertNull(cache.get(FILE, 1, "a"));
+		assertNotNull(cache.get(FILE, 1, "b"));
+		assertEquals(50, cache.getSize());
+		try {
+			cache.setMaxSize(-1);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Given many threads when get() and put() are called concurrently then every call is counted and the cache stays
+	 * within its maximum size.
+	 * @throws Exception
+	 */
+	public void testConcurrentAccess() throws Exception {
+		final AtomicLong gets = new AtomicLong();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						String name = String.valueOf((thread + j) % 50);
+						if (cache.get(FILE, 1, name) == null) {
+							cache.put(FILE, 1, name, new byte[j % 20]);
+						}
+						gets.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(gets.get(), cache.getHitCount() + cache.getMissCount());
+		cache.setMaxSize(100);
+		assertTrue(cache.getSize() <= 100);
+		cache.clear();
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * Given cached data when clear() is called then all data is removed.
+	 * @throws Exception
+	 */
+	public void testClear() throws Exception {
+		cache.put(FILE, 1, "a", new byte[50]);
+		cache.clear();
+		assertNull(cache.get(FILE, 1, "a"));
+		assertEquals(0, cache.getSize());
+	}
+}
@@ -0,0 +1,173 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for preloading classes with {@link JarFileClassLoader#preloadClasses}, {@link JarFileClassLoader#preloadPackage}
+ * and {@link JarFileClassLoader#replayWarmupProfile}.
+ *
+ * @author Phillip Webb
+ */
+public class JarFileClassLoaderPreloadTest extends TestCase {
+
+	private File directory;
+
+	private JarFileClassLoader classLoader;
+
+	private ExecutorService executor;
+
+	protected void setUp() throws Exception {
+		directory = TstUtils.createTempDir();
+		File classes = new File(directory, "classes");
+		File file = new File(classes, "c/C.class");
+		file.getParentFile().mkdirs();
+		FileUtils.writeByteArrayToFile(file, TstUtils.createClassBytes("c.C"));
+		File jarFile = TstUtils.createJar(directory, "a", "a.A", "a.A2", "a.b.B", "a.package-info");
+		classLoader = new JarFileClassLoader("test", new URL[] { jarFile.toURI().toURL(), classes.toURI().toURL() });
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		classLoader.destroy();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	public void testPreloadClasses() throws Exception {
+		PreloadHandle preloadHandle = classLoader.preloadClasses(Arrays.asList("a.A", "a.b.B", "c.C", "a.A"),
+				executor);
+		assertTrue(preloadHandle.await(10, TimeUnit.SECONDS));
+		assertTrue(preloadHandle.isSuccessful());
+		assertEquals(3, preloadHandle.getClassCount());
+		assertSame(classLoader.loadClass("a.A"), preloadHandle.getLoadedClasses().get("a.A"));
+		assertSame(classLoader, preloadHandle.getLoadedClasses().get("c.C").getClassLoader());
+	}
+
+	public void testPreloadClassesWithFailures() throws Exception {
+		PreloadHandle preloadHandle = classLoader.preloadClasses(Arrays.asList("a.A", "x.Missing"), executor);
+		preloadHandle.await();
+		assertTrue(preloadHandle.isDone());
+		assertFalse(preloadHandle.isSuccessful());
+		assertEquals(1, preloadHandle.getLoadedClasses().size());
+		assertTrue(preloadHandle.getFailures().get("x.Missing") instanceof ClassNotFoundException);
+	}
+
+	public void testPreloadClassesWhenExecutorRejects() throws Exception {
+		executor.shutdown();
+		PreloadHandle preloadHandle = classLoader.preloadClasses(Arrays.asList("a.A"), executor);
+		assertTrue(preloadHandle.isDone());
+		assertEquals(1, preloadHandle.getFailures().size());
+	}
+
+	public void testPreloadPackage() throws Exception {
+		PreloadHandle preloadHandle = classLoader.preloadPackage("a.*", executor);
+		preloadHandle.await();
+		assertTrue(preloadHandle.isSuccessful());
+		assertEquals(2, preloadHandle.getClassCount());
+		assertTrue(preloadHandle.getLoadedClasses().containsKey("a.A"));
+		assertTrue(preloadHandle.getLoadedClasses().containsKey("a.A2"));
+	}
+
+	public void testPreloadPackageAndSubpackages() throws Exception {
+		PreloadHandle preloadHandle = classLoader.preloadPackage("**", executor);
+		preloadHandle.await();
+		assertTrue(preloadHandle.isSuccessful());
+		assertEquals(4, preloadHandle.getClassCount());
+		assertTrue(preloadHandle.getLoadedClasses().containsKey("a.b.B"));
+		assertTrue(preloadHandle.getLoadedClasses().containsKey("c.C"));
+	}
+
+	public void testPreloadPackageWithIllegalPattern() throws Exception {
+		try {
+			classLoader.preloadPackage("a.A", executor);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			classLoader.preloadPackage("a*", executor);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+		String[] illegalPatterns = { null, "", ".*", "a..*", "a.***", "*.*", "***" };
+		for (String illegalPattern : illegalPatterns) {
+			try {
+				classLoader.preloadPackage(illegalPattern, executor);
+				fail("Did not throw for " + illegalPattern);
+			} catch (IllegalArgumentException e) {
+				assertNotNull(e.getMessage());
+			}
+		}
+	}
+
+	public void testPreloadDefaultPackage() throws Exception {
+		PreloadHandle preloadHandle = classLoader.preloadPackage("*", executor);
+		preloadHandle.await();
+		assertTrue(preloadHandle.isSuccessful());
+		assertEquals(0, preloadHandle.getClassCount());
+	}
+
+	public void testRecordAndReplayWarmupProfile() throws Exception {
+		assertNull(classLoader.stopWarmupRecording());
+		classLoader.startWarmupRecording();
+		classLoader.loadClass("a.b.B");
+		classLoader.loadClass("c.C");
+		classLoader.getResource("a/A.class");
+		classLoader.getResource("a/A.class");
+		classLoader.getResource("x/missing.txt");
+		WarmupProfile profile = classLoader.stopWarmupRecording();
+		assertEquals(3, profile.getEntries().size());
+		assertEquals("a.b.B", profile.getEntries().get(0).getName());
+		assertTrue(profile.getEntries().get(0).isClass());
+		assertEquals("a/A.class", profile.getEntries().get(2).getResourceName());
+		assertFalse(profile.getEntries().get(2).isClass());
+
+		JarFileClassLoader replayClassLoader = new JarFileClassLoader("replay", classLoader.getURLs());
+		try {
+			PreloadHandle preloadHandle = replayClassLoader.replayWarmupProfile(profile, executor);
+			assertTrue(preloadHandle.await(10, TimeUnit.SECONDS));
+			assertTrue(preloadHandle.isSuccessful());
+			assertEquals(2, preloadHandle.getClassCount());
+			assertSame(replayClassLoader, preloadHandle.getLoadedClasses().get("c.C").getClassLoader());
+		} finally {
+			replayClassLoader.destroy();
+		}
+	}
+
+	/**
+	 * Given a profile when it is replayed using {@link NonLockingJarFile}s then the data of its resources is cached,
+	 * and when it is replayed using plain jar files then nothing is read ahead of time.
+	 * @throws Exception
+	 */
+	public void testReplayWarmupProfilePrefetchesOnlyCachedData() throws Exception {
+		classLoader.startWarmupRecording();
+		classLoader.getResource("a/A2.class");
+		WarmupProfile profile = classLoader.stopWarmupRecording();
+		EntryDataCache entryDataCache = EntryDataCache.getSharedInstance();
+		long size = entryDataCache.getSize();
+		replay(new JarFileClassLoader("replay", classLoader.getURLs()), profile);
+		assertEquals(size, entryDataCache.getSize());
+		replay(new NonLockingJarFileClassLoader("replay", classLoader.getURLs()), profile);
+		assertTrue(entryDataCache.getSize() > size);
+	}
+
+	private void replay(JarFileClassLoader replayClassLoader, WarmupProfile profile) throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			replayClassLoader.replayWarmupProfile(profile, executor);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+			replayClassLoader.destroy();
+		}
+	}
+}
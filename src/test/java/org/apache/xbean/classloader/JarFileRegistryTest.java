@@ -0,0 +1,168 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link JarFileRegistry}.
+ *
+ * @author Phillip Webb
+ */
+public class JarFileRegistryTest extends TestCase {
+
+	private JarFileRegistry registry = new JarFileRegistry();
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		super.tearDown();
+	}
+
+	/**
+	 * Given the same file is requested twice when newJarFile() is called then the same {@link NonLockingJarFile} is
+	 * returned and is only removed once released twice.
+	 * @throws Exception
+	 */
+	public void testSharesAndReferenceCountsJarFiles() throws Exception {
+		JarFile jarFile1 = registry.newJarFile(file);
+		assertTrue(jarFile1 instanceof NonLockingJarFile);
+		assertEquals(1, registry.getUniqueJarFileCount());
+		assertEquals(0, registry.getSharedJarFileCount());
+		JarFile jarFile2 = registry.newJarFile(new File(file.getPath()));
+		assertSame(jarFile1, jarFile2);
+		assertEquals(1, registry.getJarFileCount());
+		assertEquals(1, registry.getSharedJarFileCount());
+		assertEquals(0, registry.getUniqueJarFileCount());
+		assertEquals(2, registry.getReferenceCount());
+		registry.releaseJarFile(jarFile1);
+		assertEquals(1, registry.getJarFileCount());
+		assertEquals(1, registry.getReferenceCount());
+		registry.releaseJarFile(jarFile2);
+		assertEquals(0, registry.getJarFileCount());
+		assertNotSame(jarFile1, registry.newJarFile(file));
+	}
+
+	/**
+	 * Given a jar file that was not obtained from the registry when releaseJarFile() is called then registered jar
+	 * files are not affected.
+	 * @throws Exception
+	 */
+	public void testReleaseUnregisteredJarFile() throws Exception {
+		registry.newJarFile(file);
+		registry.releaseJarFile(new NonLockingJarFile(file));
+		assertEquals(1, registry.getReferenceCount());
+	}
+
+	/**
+	 * Given multiple {@link UrlResourceFinder}s using the registry when they are destroyed then the shared jar files
+	 * are released.
+	 * @throws Exception
+	 */
+	public void testReleasedWhenResourceFinderIsDestroyed() throws Exception {
+		URL[] urls = new URL[] { file.toURI().toURL() };
+		UrlResourceFinder resourceFinder1 = new UrlResourceFinder(registry, urls);
+		UrlResourceFinder resourceFinder2 = new UrlResourceFinder(registry, urls);
+		assertNotNull(resourceFinder1.getResource(TstUtils.SAMPLE_JAR_CLASS));
+		assertNotNull(resourceFinder2.getResource(TstUtils.SAMPLE_JAR_CLASS));
+		assertEquals(1, registry.getSharedJarFileCount());
+		resourceFinder1.destroy();
+		assertEquals(1, registry.getUniqueJarFileCount());
+		resourceFinder2.destroy();
+		assertEquals(0, registry.getJarFileCount());
+	}
+
+	/**
+	 * Given a jar file that is slow to create when other jar files are requested then they are created without waiting,
+	 * and requests for the same file wait for the same jar file.
+	 * @throws Exception
+	 */
+	public void testCreatesJarFilesOutsideTheLock() throws Exception {
+		final File otherFile = TstUtils.createTempJarFile();
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger createCount = new AtomicInteger();
+		registry = new JarFileRegistry() {
+			protected NonLockingJarFile createJarFile(File file) throws IOException {
+				createCount.incrementAndGet();
+				if (file.equals(JarFileRegistryTest.this.file)) {
+					creating.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return super.createJarFile(file);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Callable<JarFile> newJarFile = new Callable<JarFile>() {
+				public JarFile call() throws Exception {
+					return registry.newJarFile(file);
+				}
+			};
+			Future<JarFile> jarFile1 = executor.submit(newJarFile);
+			assertTrue(creating.await(10, TimeUnit.SECONDS));
+			Future<JarFile> jarFile2 = executor.submit(newJarFile);
+			Future<JarFile> otherJarFile = executor.submit(new Callable<JarFile>() {
+				public JarFile call() throws Exception {
+					return registry.newJarFile(otherFile);
+				}
+			});
+			assertNotNull(otherJarFile.get(10, TimeUnit.SECONDS));
+			assertFalse(jarFile2.isDone());
+			release.countDown();
+			assertSame(jarFile1.get(10, TimeUnit.SECONDS), jarFile2.get(10, TimeUnit.SECONDS));
+			assertEquals(2, createCount.get());
+			assertEquals(3, registry.getReferenceCount());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+			TstUtils.deleteTempFile(otherFile);
+		}
+	}
+
+	/**
+	 * Given a jar file that cannot be created when newJarFile() is called then the failure is thrown and the next call
+	 * tries again.
+	 * @throws Exception
+	 */
+	public void testFailedCreationIsNotRegistered() throws Exception {
+		final AtomicInteger createCount = new AtomicInteger();
+		registry = new JarFileRegistry() {
+			protected NonLockingJarFile createJarFile(File file) throws IOException {
+				if (createCount.incrementAndGet() == 1) {
+					throw new IOException("Failed");
+				}
+				return super.createJarFile(file);
+			}
+		};
+		try {
+			registry.newJarFile(file);
+			fail("Did not throw");
+		} catch (IOException e) {
+			assertEquals("Failed", e.getMessage());
+		}
+		assertEquals(0, registry.getJarFileCount());
+		assertNotNull(registry.newJarFile(file));
+		assertEquals(1, registry.getReferenceCount());
+	}
+}
@@ -0,0 +1,134 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for {@link JarIndexCache}.
+ *
+ * @author Phillip Webb
+ */
+public class JarIndexCacheTest extends TestCase {
+
+	private File file;
+
+	private File directory;
+
+	private JarIndexCache cache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+		directory = TstUtils.createTempDir();
+		cache = new JarIndexCache(new File(directory, "cache"));
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		FileUtils.deleteDirectory(directory);
+		super.tearDown();
+	}
+
+	/**
+	 * Given a cached index when the jar has not changed then the cached index matches the jar.
+	 * @throws Exception
+	 */
+	public void testPutAndGet() throws Exception {
+		assertNull(cache.get(file, file.lastModified()));
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		byte[] manifest = "Manifest-Version: 1.0\r\n".getBytes("UTF-8");
+		cache.put(file, file.lastModified(), new JarIndexCache.Entry(centralDirectory, manifest));
+		JarIndexCache.Entry entry = cache.get(file, file.lastModified());
+		assertNotNull(entry);
+		assertEquals(new String(manifest, "UTF-8"), new String(entry.getManifest(), "UTF-8"));
+		ZipCentralDirectory cached = entry.getCentralDirectory();
+		assertEquals(centralDirectory.getSize(), cached.getSize());
+		for (int i = 0; i < centralDirectory.getSize(); i++) {
+			assertEquals(centralDirectory.getName(i), cached.getName(i));
+			assertEquals(i, cached.indexOf(centralDirectory.getName(i)));
+			assertEquals(centralDirectory.getMethod(i), cached.getMethod(i));
+			assertEquals(centralDirectory.getSize(i), cached.getSize(i));
+			assertEquals(centralDirectory.getCompressedSize(i), cached.getCompressedSize(i));
+			assertEquals(centralDirectory.getCrc(i), cached.getCrc(i));
+			assertEquals(centralDirectory.getLocalHeaderOffset(i), cached.getLocalHeaderOffset(i));
+			assertEquals(centralDirectory.getDosTime(i), cached.getDosTime(i));
+		}
+	}
+
+	/**
+	 * Given a cached index when the jar has changed then the cached index is not returned.
+	 * @throws Exception
+	 */
+	public void testGetWhenJarChanged() throws Exception {
+		long lastModified = file.lastModified();
+		cache.put(file, lastModified, new JarIndexCache.Entry(ZipCentralDirectory.read(file), null));
+		assertNull(cache.get(file, lastModified + 1000));
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(output.length() + 1);
+		} finally {
+			output.close();
+		}
+		file.setLastModified(lastModified);
+		assertNull(cache.get(file, lastModified));
+	}
+
+	/**
+	 * Given a cached index when the jar is replaced with one of the same length and last modified time then the cached
+	 * index is not returned.
+	 * @throws Exception
+	 */
+	public void testGetWhenJarReplacedWithSameLengthAndLastModified() throws Exception {
+		long lastModified = file.lastModified();
+		cache.put(file, lastModified, new JarIndexCache.Entry(ZipCentralDirectory.read(file), null));
+		assertNotNull(cache.get(file, lastModified));
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			// change the last byte of the central directory, just before the end of central directory record
+			long position = output.length() - 22 - 1;
+			output.seek(position);
+			int value = output.read();
+			output.seek(position);
+			output.write(value ^ 0xFF);
+		} finally {
+			output.close();
+		}
+		file.setLastModified(lastModified);
+		assertNull(cache.get(file, lastModified));
+	}
+
+	/**
+	 * Given a cached index when it is read then the cache file is closed and can be replaced and deleted.
+	 * @throws Exception
+	 */
+	public void testCacheFileCanBeReplacedAfterGet() throws Exception {
+		cache.put(file, file.lastModified(), new JarIndexCache.Entry(ZipCentralDirectory.read(file), null));
+		assertNotNull(cache.get(file, file.lastModified()));
+		cache.put(file, file.lastModified(), new JarIndexCache.Entry(ZipCentralDirectory.read(file), null));
+		assertEquals(1, cache.getDirectory().list().length);
+		FileUtils.deleteDirectory(cache.getDirectory());
+		assertFalse(cache.getDirectory().exists());
+	}
+
+	/**
+	 * Given a default cache when a {@link NonLockingJarFile} is read twice then the second read uses the cache.
+	 * @throws Exception
+	 */
+	public void testNonLockingJarFileUsesDefaultCache() throws Exception {
+		JarIndexCache.setDefault(cache);
+		try {
+			NonLockingJarFile jarFile = new NonLockingJarFile(file);
+			assertNotNull(jarFile.getEntry(TstUtils.SAMPLE_JAR_CLASS));
+			assertNotNull(cache.get(file, file.lastModified()));
+			jarFile = new NonLockingJarFile(file);
+			assertNotNull(jarFile.getEntry(TstUtils.SAMPLE_JAR_CLASS));
+			assertNotNull(jarFile.getManifest());
+		} finally {
+			JarIndexCache.setDefault(null);
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package org.apache.xbean.classloader;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.net.URL;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -46,8 +48,24 @@ public class JarResourceHandleTest extends TestCase {
 	 * @throws Exception
 	 */
 	public void testGetUrl() throws Exception {
+		when(jarEntry.getName()).thenReturn("entryName");
+		URL url = resourceHandle.getUrl();
+		assertEquals("jar:file:/!/entryName", url.toString());
+	}
+
+	/**
+	 * Given a new {@link JarResourceHandle} when getUrl() has not been called then no URL is created, and when it is
+	 * called repeatedly then the same URL is returned.
+	 * @throws Exception
+	 */
+	public void testUrlIsCreatedLazily() throws Exception {
+		JarEntry jarEntry = mock(JarEntry.class);
+		JarResourceHandle resourceHandle = new JarResourceHandle(jarFile, jarEntry, codeSourceUrl);
+		verify(jarEntry, never()).getName();
+		when(jarEntry.getName()).thenReturn("entryName");
 		URL url = resourceHandle.getUrl();
 		assertEquals("jar:file:/!/entryName", url.toString());
+		assertSame(url, resourceHandle.getUrl());
 	}
 
 	/**
@@ -111,4 +129,26 @@ public class JarResourceHandleTest extends TestCase {
 		resourceHandle.getCertificates();
 		verify(jarEntry).getCertificates();
 	}
+
+	/**
+	 * Given a {@link JarResourceHandle} for a jar that does not cache entry data when prefetch() is called then the
+	 * entry is not read.
+	 * @throws Exception
+	 */
+	public void testPrefetchWithoutEntryDataCache() throws Exception {
+		assertFalse(resourceHandle.prefetch());
+		verify(jarFile, never()).getInputStream(jarEntry);
+	}
+
+	/**
+	 * Given a {@link JarResourceHandle} for a {@link NonLockingJarFile} when prefetch() is called then the entry is
+	 * read.
+	 * @throws Exception
+	 */
+	public void testPrefetchWithNonLockingJarFile() throws Exception {
+		NonLockingJarFile jarFile = mock(NonLockingJarFile.class);
+		when(jarFile.getInputStream(jarEntry)).thenReturn(new ByteArrayInputStream(new byte[0]));
+		assertTrue(new JarResourceHandle(jarFile, jarEntry, codeSourceUrl).prefetch());
+		verify(jarFile).getInputStream(jarEntry);
+	}
 }
@@ -1,10 +1,14 @@
 package org.apache.xbean.classloader;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -75,6 +79,76 @@ public class JarResourceLocationTest extends TestCase {
 		verify(jarFile).getManifest();
 	}
 
+	/**
+	 * Given a {@link JarResourceLocation} when getPackageNames() is called then the packages of all entries are
+	 * returned and the jar file is only read once.
+	 * @throws Exception
+	 */
+	public void testGetPackageNames() throws Exception {
+		JarEntry[] entries = { new JarEntry("META-INF/MANIFEST.MF"), new JarEntry("org/"), new JarEntry("org/a/"),
+				new JarEntry("org/a/A.class"), new JarEntry("resource") };
+		when(jarFile.entries()).thenReturn(Collections.enumeration(Arrays.asList(entries)));
+		assertEquals(new HashSet<String>(Arrays.asList("META-INF", "", "org", "org/a")),
+				jarResourceLocation.getPackageNames());
+		assertSame(jarResourceLocation.getPackageNames(), jarResourceLocation.getPackageNames());
+		verify(jarFile).entries();
+	}
+
+	/**
+	 * Given an indexed {@link JarResourceLocation} when getResourceHandle() is called for a name that is not in the jar
+	 * then the {@link ResourceNameFilter} prevents the jar file from being searched.
+	 * @throws Exception
+	 */
+	public void testGetResourceHandleUsesResourceNameFilter() throws Exception {
+		JarEntry[] entries = { new JarEntry("org/a/"), new JarEntry("org/a/A.class") };
+		when(jarFile.entries()).thenReturn(Collections.enumeration(Arrays.asList(entries)));
+		when(jarFile.size()).thenReturn(entries.length);
+		when(jarFile.getJarEntry("org/a/A.class")).thenReturn(entries[1]);
+		assertNull(jarResourceLocation.getResourceNameFilter());
+		jarResourceLocation.getPackageNames();
+		assertEquals(2, jarResourceLocation.getResourceNameFilter().getNameCount());
+		assertNotNull(jarResourceLocation.getResourceHandle("org/a/A.class"));
+		assertNull(jarResourceLocation.getResourceHandle("org/a/B.class"));
+		verify(jarFile, never()).getJarEntry("org/a/B.class");
+	}
+
+	/**
+	 * Given a {@link JarResourceLocation} backed by a {@link NonLockingJarFile} when the jar file reports a new last
+	 * modified time then the package names are discarded and read again.
+	 * @throws Exception
+	 */
+	public void testDiscardPackageNamesWhenNonLockingJarFileChanges() throws Exception {
+		NonLockingJarFile nonLockingJarFile = mock(NonLockingJarFile.class);
+		when(nonLockingJarFile.getLastModified()).thenReturn(1L);
+		when(nonLockingJarFile.entries()).thenReturn(Collections.enumeration(Arrays.asList(new JarEntry("a/A"))));
+		JarResourceLocation location = new JarResourceLocation(codeSource, nonLockingJarFile);
+		assertTrue(location.isChangeable());
+		assertEquals(Collections.singleton("a"), location.getPackageNames());
+		assertNotNull(location.getResourceNameFilter());
+		assertFalse(location.discardPackageNamesIfChanged());
+		when(nonLockingJarFile.getLastModified()).thenReturn(2L);
+		when(nonLockingJarFile.entries()).thenReturn(
+				Collections.enumeration(Arrays.asList(new JarEntry("a/A"), new JarEntry("b/B"))));
+		assertTrue(location.discardPackageNamesIfChanged());
+		assertNull(location.getResourceNameFilter());
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), location.getPackageNames());
+		assertTrue(location.getResourceNameFilter().mightContain("b/B"));
+		assertFalse(location.discardPackageNamesIfChanged());
+	}
+
+	/**
+	 * Given a {@link JarResourceLocation} backed by a plain {@link JarFile} when checked for changes then the package
+	 * names are kept.
+	 * @throws Exception
+	 */
+	public void testPlainJarFileIsNotChangeable() throws Exception {
+		when(jarFile.entries()).thenReturn(Collections.enumeration(Arrays.asList(new JarEntry("a/A"))));
+		assertFalse(jarResourceLocation.isChangeable());
+		assertNotNull(jarResourceLocation.getPackageNames());
+		assertFalse(jarResourceLocation.discardPackageNamesIfChanged());
+		assertNotNull(jarResourceLocation.getPackageNames());
+	}
+
 	/**
 	 * Given a {@link JarResourceLocation} when close() is called then the jar file is closed.
 	 * @throws Exception
@@ -0,0 +1,178 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for {@link LazyJarResourceLocation}.
+ *
+ * @author Phillip Webb
+ */
+public class LazyJarResourceLocationTest extends TestCase {
+
+	private File file;
+
+	private File directory;
+
+	private JarIndexCache cache;
+
+	private int openCount;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+		directory = TstUtils.createTempDir();
+		cache = new JarIndexCache(new File(directory, "cache"));
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		FileUtils.deleteDirectory(directory);
+		super.tearDown();
+	}
+
+	/**
+	 * Given a lazy location when it is indexed and asked for missing resources then the jar is not opened.
+	 * @throws Exception
+	 */
+	public void testIsNotOpenedForMissingResources() throws Exception {
+		LazyJarResourceLocation location = newLocation(cache);
+		assertTrue(location.getPackageNames().contains("org/apache/commons/codec"));
+		assertNotNull(location.getManifest());
+		assertTrue(location.getResourceNames().contains(TstUtils.SAMPLE_JAR_CLASS));
+		assertNull(location.getResourceHandle("org/apache/commons/codec/Missing.class"));
+		assertNull(location.getResourceHandle("missing/Resource"));
+		assertFalse(location.isOpen());
+		assertEquals(0, openCount);
+		location.close();
+	}
+
+	/**
+	 * Given a lazy location when a resource that it contains is requested then the jar is opened once.
+	 * @throws Exception
+	 */
+	public void testIsOpenedForContainedResource() throws Exception {
+		LazyJarResourceLocation location = newLocation(cache);
+		location.getPackageNames();
+		assertNotNull(location.getResourceHandle(TstUtils.SAMPLE_JAR_CLASS));
+		assertNotNull(location.getResourceHandle("org/apache/commons/codec"));
+		assertTrue(location.isOpen());
+		assertEquals(1, openCount);
+		location.close();
+	}
+
+	/**
+	 * Given a jar that has been indexed once when a new location is created then the index is read from the cache.
+	 * @throws Exception
+	 */
+	public void testIndexIsStoredInCache() throws Exception {
+		LazyJarResourceLocation location = newLocation(cache);
+		location.getPackageNames();
+		location.close();
+		JarIndexCache.Entry entry = cache.get(file, file.lastModified());
+		assertNotNull(entry);
+		assertNotNull(entry.getManifest());
+		assertEquals(ZipCentralDirectory.read(file).getSize(), entry.getCentralDirectory().getSize());
+		assertEquals(newLocation(cache).getPackageNames(), newLocation(null).getPackageNames());
+	}
+
+	/**
+	 * Given a closed lazy location when a resource is requested then an {@link IllegalStateException} is thrown.
+	 * @throws Exception
+	 */
+	public void testClosedLocationCannotBeUsed() throws Exception {
+		LazyJarResourceLocation location = newLocation(null);
+		location.close();
+		try {
+			location.getResourceHandle(TstUtils.SAMPLE_JAR_CLASS);
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(0, openCount);
+	}
+
+	/**
+	 * Given a lazy location when the jar is replaced before the index is first used then the index is cached with the
+	 * last modified time of the replaced jar.
+	 * @throws Exception
+	 */
+	public void testLastModifiedIsReadWhenIndexIsFirstUsed() throws Exception {
+		LazyJarResourceLocation location = newLocation(cache);
+		replaceJar("a/A.class");
+		assertTrue(location.getPackageNames().contains("a"));
+		assertNotNull(cache.get(file, file.lastModified()));
+		location.close();
+	}
+
+	/**
+	 * Given an indexed lazy location when the jar is replaced then the package names are discarded and read from the
+	 * replaced jar.
+	 * @throws Exception
+	 */
+	public void testDiscardPackageNamesWhenJarIsReplaced() throws Exception {
+		LazyJarResourceLocation location = newLocation(cache);
+		assertTrue(location.isChangeable());
+		assertFalse(location.getPackageNames().contains("a"));
+		assertFalse(location.discardPackageNamesIfChanged());
+		replaceJar("a/A.class");
+		assertTrue(location.discardPackageNamesIfChanged());
+		assertTrue(location.getPackageNames().contains("a"));
+		assertNotNull(location.getResourceHandle("a/A.class"));
+		assertFalse(location.discardPackageNamesIfChanged());
+		location.close();
+	}
+
+	/**
+	 * Given an open lazy location backed by a {@link NonLockingJarFile} when the jar is replaced then the package names
+	 * are discarded and read from the opened location, which also detects later changes.
+	 * @throws Exception
+	 */
+	public void testDiscardPackageNamesWhenOpenJarIsReplaced() throws Exception {
+		LazyJarResourceLocation location = new LazyJarResourceLocation(file.toURI().toURL(), file, cache) {
+			protected ResourceLocation openLocation() throws IOException {
+				return new JarResourceLocation(getCodeSource(), new NonLockingJarFile(file));
+			}
+		};
+		location.getPackageNames();
+		assertNotNull(location.getResourceHandle(TstUtils.SAMPLE_JAR_CLASS));
+		assertTrue(location.isOpen());
+		replaceJar("a/A.class");
+		assertTrue(location.discardPackageNamesIfChanged());
+		assertTrue(location.getPackageNames().contains("a"));
+		assertFalse(location.discardPackageNamesIfChanged());
+		replaceJar("a/A.class", "b/B.class");
+		assertTrue(location.discardPackageNamesIfChanged());
+		assertTrue(location.getPackageNames().contains("b"));
+		location.close();
+	}
+
+	private LazyJarResourceLocation newLocation(JarIndexCache cache) throws IOException {
+		return new LazyJarResourceLocation(file.toURI().toURL(), file, cache) {
+			protected ResourceLocation openLocation() throws IOException {
+				openCount++;
+				return new JarResourceLocation(getCodeSource(), new JarFile(file));
+			}
+		};
+	}
+
+	private void replaceJar(String... names) throws IOException {
+		long lastModified = file.lastModified();
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (String name : names) {
+				outputStream.putNextEntry(new JarEntry(name));
+			}
+		} finally {
+			outputStream.close();
+		}
+		file.setLastModified(lastModified + 10000);
+	}
+}
@@ -0,0 +1,290 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for the parent delegation of {@link MultiParentClassLoader}, in particular that parents which cannot supply a
+ * package are skipped.
+ *
+ * @author Phillip Webb
+ */
+public class MultiParentClassLoaderDelegationTest extends TestCase {
+
+	private static final ClassLoader BOOT = ClassLoader.getSystemClassLoader().getParent();
+
+	private File directory;
+
+	private CountingClassLoader root;
+
+	private CountingClassLoader parent1;
+
+	private CountingClassLoader parent2;
+
+	protected void setUp() throws Exception {
+		directory = TstUtils.createTempDir();
+		root = new CountingClassLoader("root", urls(TstUtils.createJar(directory, "root", "a.A", "a.A2")),
+				new ClassLoader[] { BOOT });
+		parent1 = new CountingClassLoader("parent1", urls(TstUtils.createJar(directory, "parent1", "b.B")),
+				new ClassLoader[] { root });
+		parent2 = new CountingClassLoader("parent2", urls(TstUtils.createJar(directory, "parent2", "c.C")),
+				new ClassLoader[] { root });
+	}
+
+	protected void tearDown() throws Exception {
+		root.destroy();
+		parent1.destroy();
+		parent2.destroy();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	public void testLoadClassSkipsParentsWithoutPackage() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		assertSame(parent1, classLoader.loadClass("b.B").getClassLoader());
+		assertSame(root, classLoader.loadClass("a.A").getClassLoader());
+		assertEquals(1, parent1.getFindClassCount());
+		assertEquals(1, parent2.getFindClassCount());
+		assertEquals(1, root.getFindClassCount());
+	}
+
+	public void testLoadMissingClassDoesNotSearchParents() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		for (int i = 0; i < 2; i++) {
+			try {
+				classLoader.loadClass("x.Missing");
+				fail("Did not throw");
+			} catch (ClassNotFoundException e) {
+			}
+		}
+		assertEquals(0, parent1.getFindClassCount() + parent2.getFindClassCount() + root.getFindClassCount());
+	}
+
+	public void testLoadClassAfterParentUrlAdded() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		try {
+			classLoader.loadClass("c.Added");
+			fail("Did not throw");
+		} catch (ClassNotFoundException e) {
+		}
+		parent1.addURL(TstUtils.createJar(directory, "added", "c.Added").toURI().toURL());
+		assertSame(parent1, classLoader.loadClass("c.Added").getClassLoader());
+	}
+
+	public void testLoadClassFromHiddenPackage() throws Exception {
+		MultiParentClassLoader hiding = new MultiParentClassLoader("hiding", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { root }, false, new String[] { "a." }, new String[0]);
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { hiding });
+		try {
+			classLoader.loadClass("a.A");
+			fail("Did not throw");
+		} catch (ClassNotFoundException e) {
+		}
+	}
+
+	public void testLoadClassFromPartiallyHiddenPackage() throws Exception {
+		MultiParentClassLoader hiding = new MultiParentClassLoader("hiding", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { root }, false, new String[] { "a.A2" }, new String[0]);
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { hiding });
+		assertSame(root, classLoader.loadClass("a.A").getClassLoader());
+		try {
+			classLoader.loadClass("a.A2");
+			fail("Did not throw");
+		} catch (ClassNotFoundException e) {
+		}
+	}
+
+	public void testLoadClassFromParentThatOverridesLoadClass() throws Exception {
+		final Class<?> loaded = root.loadClass("a.A");
+		MultiParentClassLoader overriding = new MultiParentClassLoader("overriding", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { BOOT }) {
+			protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				return ("z.Z".equals(name) ? loaded : super.loadClass(name, resolve));
+			}
+		};
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { overriding });
+		assertSame(loaded, classLoader.loadClass("z.Z"));
+	}
+
+	public void testLoadClassWithSharedAncestorAsksAncestorOnce() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		ClassLoader opaque = new ClassLoader(BOOT) {
+			protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				count.incrementAndGet();
+				return super.loadClass(name, resolve);
+			}
+		};
+		MultiParentClassLoader shared1 = new MultiParentClassLoader("shared1", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { opaque });
+		MultiParentClassLoader shared2 = new MultiParentClassLoader("shared2", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { opaque });
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { shared1, shared2 });
+		try {
+			classLoader.loadClass("x.Missing");
+			fail("Did not throw");
+		} catch (ClassNotFoundException e) {
+		}
+		assertEquals(1, count.get());
+	}
+
+	public void testPackageRoutingLearnsRoutes() throws Exception {
+		parent2.addURL(TstUtils.createJar(directory, "parent2-more", "c.D").toURI().toURL());
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		classLoader.setPackageRouting(true);
+		PackageRoutingTable routingTable = classLoader.getPackageRoutingTable();
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		assertSame(parent2, routingTable.getRoute("c"));
+		assertSame(parent2, classLoader.loadClass("c.D").getClassLoader());
+		assertEquals(1, routingTable.getHitCount());
+		assertEquals(1, routingTable.getMissCount());
+		assertEquals(0.5, routingTable.getHitRate(), 0.0);
+	}
+
+	public void testPackageRoutingFallsBackWhenRouteMisses() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		classLoader.setPackageRouting(true);
+		classLoader.getPackageRoutingTable().addRoute("c", parent1);
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		assertEquals(0, classLoader.getPackageRoutingTable().getHitCount());
+		assertEquals(1, classLoader.getPackageRoutingTable().getMissCount());
+	}
+
+	public void testSeedPackageRoutingTable() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 }, false, new String[] { "b." }, new String[0]);
+		classLoader.setPackageRouting(true);
+		classLoader.seedPackageRoutingTable();
+		PackageRoutingTable routingTable = classLoader.getPackageRoutingTable();
+		assertSame(parent1, routingTable.getRoute("a"));
+		assertNull(routingTable.getRoute("b"));
+		assertSame(parent2, routingTable.getRoute("c"));
+		assertSame(root, classLoader.loadClass("a.A").getClassLoader());
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		assertEquals(2, routingTable.getHitCount());
+		assertEquals(1, parent1.getFindClassCount() + parent2.getFindClassCount());
+	}
+
+	public void testPackageRoutingRespectsHiddenClasses() throws Exception {
+		File jarFile = TstUtils.createJar(directory, "child", "c.C");
+		CountingClassLoader classLoader = new CountingClassLoader("child", urls(jarFile),
+				new ClassLoader[] { parent1, parent2 }, false, new String[] { "c." }, new String[0]);
+		classLoader.setPackageRouting(true);
+		classLoader.getPackageRoutingTable().addRoute("c", parent2);
+		assertSame(classLoader, classLoader.loadClass("c.C").getClassLoader());
+		assertEquals(0, classLoader.getPackageRoutingTable().getHitCount() + parent2.getFindClassCount());
+		classLoader.destroy();
+	}
+
+	public void testPackageRoutingRespectsNonOverridableClasses() throws Exception {
+		File jarFile = TstUtils.createJar(directory, "child", "c.C", "c.E");
+		CountingClassLoader classLoader = new CountingClassLoader("child", urls(jarFile),
+				new ClassLoader[] { parent1, parent2 }, true, new String[0], new String[] { "c.C" });
+		classLoader.setPackageRouting(true);
+		assertSame(classLoader, classLoader.loadClass("c.E").getClassLoader());
+		classLoader.getPackageRoutingTable().addRoute("c", classLoader);
+		assertSame(parent2, classLoader.loadClass("c.C").getClassLoader());
+		classLoader.destroy();
+	}
+
+	public void testPackageRoutingClearedWhenUrlsChange() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		classLoader.setPackageRouting(true);
+		classLoader.loadClass("c.C");
+		assertEquals(1, classLoader.getPackageRoutingTable().getRouteCount());
+		parent1.addURL(TstUtils.createJar(directory, "added", "c.Added").toURI().toURL());
+		assertSame(parent1, classLoader.loadClass("c.Added").getClassLoader());
+		assertSame(parent1, classLoader.getPackageRoutingTable().getRoute("c"));
+	}
+
+	public void testPackageRoutingKeptWhenUnrelatedUrlsChange() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		classLoader.setPackageRouting(true);
+		classLoader.loadClass("c.C");
+		CountingClassLoader unrelated = new CountingClassLoader("unrelated", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { BOOT });
+		unrelated.addURL(TstUtils.createJar(directory, "unrelated", "u.U").toURI().toURL());
+		unrelated.destroy();
+		assertSame(parent1, classLoader.loadClass("b.B").getClassLoader());
+		assertSame(parent2, classLoader.getPackageRoutingTable().getRoute("c"));
+	}
+
+	public void testPackageRoutingClearedWhenAncestorUrlsChange() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		classLoader.setPackageRouting(true);
+		classLoader.loadClass("c.C");
+		root.addURL(TstUtils.createJar(directory, "root-more", "r.R").toURI().toURL());
+		assertSame(root, classLoader.loadClass("r.R").getClassLoader());
+		assertNull(classLoader.getPackageRoutingTable().getRoute("c"));
+	}
+
+	public void testSeedPackageRoutingTableWhenNotEnabled() throws Exception {
+		MultiParentClassLoader classLoader = new MultiParentClassLoader("child", TstUtils.EMPTY_URLS,
+				new ClassLoader[] { parent1, parent2 });
+		try {
+			classLoader.seedPackageRoutingTable();
+			fail("Did not throw");
+		} catch (IllegalStateException e) {
+		}
+		classLoader.setPackageRouting(true);
+		assertNotNull(classLoader.getPackageRoutingTable());
+		classLoader.setPackageRouting(false);
+		assertNull(classLoader.getPackageRoutingTable());
+	}
+
+	private URL[] urls(File file) throws IOException {
+		return new URL[] { file.toURI().toURL() };
+	}
+
+	/**
+	 * {@link JarFileClassLoader} that counts calls to {@link #findClass(String)}.
+	 */
+	private static class CountingClassLoader extends JarFileClassLoader {
+
+		private final AtomicInteger findClassCount = new AtomicInteger();
+
+		public CountingClassLoader(String name, URL[] urls, ClassLoader[] parents) {
+			super(name, urls, parents);
+		}
+
+		public CountingClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading,
+				String[] hiddenClasses, String[] nonOverridableClasses) {
+			super(name, urls, parents, inverseClassLoading, hiddenClasses, nonOverridableClasses);
+		}
+
+		protected boolean mightContainLocalPackage(String packageName) {
+			return super.mightContainLocalPackage(packageName);
+		}
+
+		protected Class<?> findClass(String className) throws ClassNotFoundException {
+			findClassCount.incrementAndGet();
+			return super.findClass(className);
+		}
+
+		public void addURL(URL url) {
+			super.addURL(url);
+		}
+
+		public int getFindClassCount() {
+			return findClassCount.get();
+		}
+	}
+}
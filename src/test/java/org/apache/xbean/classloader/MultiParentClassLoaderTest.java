@@ -23,7 +23,16 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Enumeration;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -146,6 +155,57 @@ public class MultiParentClassLoaderTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Test that a thread blocked while loading one class does not prevent other threads from loading unrelated classes.
+	 * @throws Exception if a problem occurs
+	 */
+	public void testLoadClassDoesNotBlockUnrelatedClasses() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ClassLoader blockingParent = new ClassLoader(getClass().getClassLoader()) {
+			protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				if (NON_EXISTANT_CLASS.equals(name)) {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.loadClass(name, resolve);
+			}
+		};
+		final MultiParentClassLoader blockingClassLoader = createClassLoader(NAME,
+				new URL[] { myFile.toURI().toURL() }, new ClassLoader[] { blockingParent });
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Class<?>> blockedLoad = executor.submit(new Callable<Class<?>>() {
+				public Class<?> call() throws Exception {
+					return blockingClassLoader.loadClass(NON_EXISTANT_CLASS);
+				}
+			});
+			assertTrue(blocked.await(10, TimeUnit.SECONDS));
+			Future<Class<?>> unrelatedLoad = executor.submit(new Callable<Class<?>>() {
+				public Class<?> call() throws Exception {
+					return blockingClassLoader.loadClass(CLASS_NAME + 33);
+				}
+			});
+			Class<?> clazz = unrelatedLoad.get(10, TimeUnit.SECONDS);
+			assertEquals(blockingClassLoader, clazz.getClassLoader());
+			assertFalse(blockedLoad.isDone());
+			release.countDown();
+			try {
+				blockedLoad.get(10, TimeUnit.SECONDS);
+				fail("loadClass should have thrown a ClassNotFoundException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ClassNotFoundException);
+			}
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Test getResourceAsStream loads in preference of the parents, in order, and then the local urls.
 	 * @throws Exception if a problem occurs
@@ -229,6 +289,70 @@ public class MultiParentClassLoaderTest extends TestCase {
 		assertFalse(resources.hasMoreElements());
 	}
 
+	/**
+	 * Test getResources only reads the resources of each parent when the previous resources have been used.
+	 * @throws Exception if a problem occurs
+	 */
+	public void testGetResourcesReadsParentsLazily() throws Exception {
+		final AtomicInteger readCount = new AtomicInteger();
+		ClassLoader[] countingParents = new ClassLoader[parents.length];
+		for (int i = 0; i < parents.length; i++) {
+			countingParents[i] = new URLClassLoader(parents[i].getURLs(), null) {
+				public Enumeration<URL> getResources(String name) throws IOException {
+					final Enumeration<URL> resources = super.getResources(name);
+					return new Enumeration<URL>() {
+						public boolean hasMoreElements() {
+							return resources.hasMoreElements();
+						}
+
+						public URL nextElement() {
+							readCount.incrementAndGet();
+							return resources.nextElement();
+						}
+					};
+				}
+			};
+		}
+		MultiParentClassLoader lazyClassLoader = createClassLoader(NAME, new URL[] { myFile.toURI().toURL() },
+				countingParents);
+		Enumeration<URL> resources = lazyClassLoader.getResources(ENTRY_NAME);
+		assertURLContains("Should have found value from first parent", ENTRY_VALUE + 0, resources.nextElement());
+		assertEquals(1, readCount.get());
+		int count = 1;
+		while (resources.hasMoreElements()) {
+			resources.nextElement();
+			count++;
+		}
+		assertEquals(parents.length, readCount.get());
+		assertEquals(parents.length + 1, count);
+		try {
+			resources.nextElement();
+			fail("Did not throw");
+		} catch (NoSuchElementException e) {
+		}
+	}
+
+	/**
+	 * Test getResources throws the IOException of a parent that cannot list its resources.
+	 * @throws Exception if a problem occurs
+	 */
+	public void testGetResourcesWhenParentThrowsIOException() throws Exception {
+		final IOException exception = new IOException("failed");
+		ClassLoader failingParent = new URLClassLoader(new URL[0], null) {
+			public Enumeration<URL> getResources(String name) throws IOException {
+				throw exception;
+			}
+		};
+		MultiParentClassLoader failingClassLoader = createClassLoader(NAME, new URL[] { myFile.toURI().toURL() },
+				new ClassLoader[] { parents[0], failingParent });
+		try {
+			failingClassLoader.getResources(ENTRY_NAME);
+			fail("Did not throw");
+		} catch (IOException e) {
+			assertSame(exception, e);
+		}
+	}
+
 	private void assertStreamContains(String expectedValue, InputStream in) throws IOException {
 		assertStreamContains(null, expectedValue, in);
 	}
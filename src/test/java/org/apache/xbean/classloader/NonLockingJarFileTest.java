@@ -154,6 +154,23 @@ public class NonLockingJarFileTest extends TestCase {
 		assertTrue(entries.hasMoreElements());
 	}
 
+	/**
+	 * Given a {@link NonLockingJarFile} when size() is called then the number of entries is returned and the
+	 * underlying jar file is closed.
+	 * 
+	 * @throws Exception
+	 */
+	public void testSizeDoesNotLockFile() throws Exception {
+		NonLockingJarFileSpy jarFile = new NonLockingJarFileSpy(file);
+		JarFile expected = new JarFile(file);
+		try {
+			assertEquals(expected.size(), jarFile.size());
+		} finally {
+			expected.close();
+		}
+		assertTrue(jarFile.isClosed());
+	}
+
 	private List<String> getEntryNames(Enumeration<JarEntry> entries) {
 		List<String> jarEntryNames = new ArrayList<String>();
 		while (entries.hasMoreElements()) {
@@ -186,6 +203,35 @@ public class NonLockingJarFileTest extends TestCase {
 				nonLockingJarEntryNames);
 	}
 
+	/**
+	 * Given a {@link NonLockingJarFile} when entries() is called then the details of each entry should be the same as
+	 * an equivalent {@link JarFile} and the underlying jar file should not be reopened.
+	 * 
+	 * @throws Exception
+	 */
+	public void testEntriesReturnsValidEntryDetails() throws Exception {
+		NonLockingJarFileSpy jarFile = new NonLockingJarFileSpy(file);
+		int reopenCount = jarFile.getReopenCount();
+		JarFile defaultJarFile = new JarFile(file);
+		try {
+			Manifest manifest = defaultJarFile.getManifest();
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				JarEntry defaultEntry = defaultJarFile.getJarEntry(entry.getName());
+				assertEquals(defaultEntry.getMethod(), entry.getMethod());
+				assertEquals(defaultEntry.getSize(), entry.getSize());
+				assertEquals(defaultEntry.getCompressedSize(), entry.getCompressedSize());
+				assertEquals(defaultEntry.getCrc(), entry.getCrc());
+				assertEquals(defaultEntry.getTime(), entry.getTime());
+				assertEquals(manifest.getAttributes(entry.getName()), entry.getAttributes());
+			}
+		} finally {
+			defaultJarFile.close();
+		}
+		assertEquals(reopenCount, jarFile.getReopenCount());
+	}
+
 	/**
 	 * Given a {@link NonLockingJarFile} when getInputStream is called with a null entry then an
 	 * {@link IllegalArgumentException} is thrown.
@@ -231,6 +277,63 @@ public class NonLockingJarFileTest extends TestCase {
 		inputStream.close();
 	}
 
+	/**
+	 * Given a {@link NonLockingJarFile} when getInputStream() is called then the entry is read directly without
+	 * reopening the underlying jar file.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetInputStreamDoesNotReopenJarFile() throws Exception {
+		NonLockingJarFileSpy jarFile = new NonLockingJarFileSpy(file);
+		JarEntry entry = jarFile.getJarEntry(SAMPLE_JAR_CLASS);
+		int reopenCount = jarFile.getReopenCount();
+		IOUtils.toByteArray(jarFile.getInputStream(entry));
+		assertEquals(reopenCount, jarFile.getReopenCount());
+	}
+
+	/**
+	 * Given a {@link NonLockingJarFile} when getInputStream() is called twice for the same entry then the second call
+	 * is served from the {@link EntryDataCache}.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetInputStreamUsesEntryDataCache() throws Exception {
+		NonLockingJarFileSpy jarFile = new NonLockingJarFileSpy(file);
+		JarEntry entry = jarFile.getJarEntry(SAMPLE_JAR_CLASS);
+		byte[] first = IOUtils.toByteArray(jarFile.getInputStream(entry));
+		byte[] second = IOUtils.toByteArray(jarFile.getInputStream(entry));
+		assertTrue(Arrays.equals(first, second));
+		EntryDataCache entryDataCache = jarFile.getEntryDataCache();
+		assertEquals(1, entryDataCache.getMissCount());
+		assertEquals(1, entryDataCache.getHitCount());
+		assertEquals(first.length, entryDataCache.getSize());
+	}
+
+	/**
+	 * Given a {@link NonLockingJarFile} that is locked by another thread when getInputStream() is called then the
+	 * entry is still read, reads do not use the monitor of the jar file.
+	 * 
+	 * @throws Exception
+	 */
+	public void testGetInputStreamDoesNotLockJarFile() throws Exception {
+		final NonLockingJarFile jarFile = new NonLockingJarFile(file);
+		final JarEntry entry = jarFile.getJarEntry(SAMPLE_JAR_CLASS);
+		final byte[][] contents = new byte[1][];
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					contents[0] = IOUtils.toByteArray(jarFile.getInputStream(entry));
+				} catch (IOException e) {
+				}
+			}
+		};
+		synchronized (jarFile) {
+			reader.start();
+			reader.join(5000);
+		}
+		assertNotNull("Entry was not read while the jar file was locked", contents[0]);
+	}
+
 	/**
 	 * Given a {@link NonLockingJarFile} when getInputStream() is called then the resulting data is identical to the
 	 * equivalent {@link JarFile} call.
@@ -300,6 +403,8 @@ public class NonLockingJarFileTest extends TestCase {
 
 		private boolean verify;
 		private int mode;
+		private int reopenCount;
+		private EntryDataCache entryDataCache;
 
 		public NonLockingJarFileSpy(String name) throws IOException {
 			super(name);
@@ -329,6 +434,7 @@ public class NonLockingJarFileTest extends TestCase {
 
 		protected JarFile reopenJarFile() throws IOException {
 			this.closed = null;
+			this.reopenCount++;
 			return new ReopenedJarFile(getFile(), false, ZipFile.OPEN_READ);
 		}
 
@@ -349,6 +455,17 @@ public class NonLockingJarFileTest extends TestCase {
 			return mode;
 		}
 
+		public int getReopenCount() {
+			return reopenCount;
+		}
+
+		protected synchronized EntryDataCache getEntryDataCache() {
+			if (entryDataCache == null) {
+				entryDataCache = new EntryDataCache(EntryDataCache.DEFAULT_MAX_SIZE);
+			}
+			return entryDataCache;
+		}
+
 		private class ReopenedJarFile extends JarFile {
 			public ReopenedJarFile(File file, boolean verify, int mode) throws IOException {
 				super(file, verify, mode);
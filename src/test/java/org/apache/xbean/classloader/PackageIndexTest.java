@@ -0,0 +1,135 @@
+package org.apache.xbean.classloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PackageIndex}.
+ *
+ * @author Phillip Webb
+ */
+public class PackageIndexTest extends TestCase {
+
+	private PackageIndex packageIndex = new PackageIndex();
+
+	/**
+	 * Given a resource name when getPackageName() is called then the containing directory is returned.
+	 * @throws Exception
+	 */
+	public void testGetPackageName() throws Exception {
+		assertEquals("", PackageIndex.getPackageName(""));
+		assertEquals("", PackageIndex.getPackageName("resource"));
+		assertEquals("", PackageIndex.getPackageName("org/"));
+		assertEquals("org", PackageIndex.getPackageName("org/apache/"));
+		assertEquals("org", PackageIndex.getPackageName("org/apache"));
+		assertEquals("org/apache/xbean", PackageIndex.getPackageName("org/apache/xbean/Test.class"));
+	}
+
+	/**
+	 * Given indexed locations when getLocations() is called then only the locations containing the package are
+	 * returned.
+	 * @throws Exception
+	 */
+	public void testGetLocationsOnlyReturnsLocationsWithPackage() throws Exception {
+		ResourceLocation l1 = new MockIndexedResourceLocation("a", "a/b");
+		ResourceLocation l2 = new MockIndexedResourceLocation("c");
+		ResourceLocation l3 = new MockIndexedResourceLocation("a/b");
+		packageIndex.add(l1);
+		packageIndex.add(l2);
+		packageIndex.add(l3);
+		assertEquals(Arrays.asList(l1, l3), packageIndex.getLocations("a/b/Test.class"));
+		assertEquals(Arrays.asList(l2), packageIndex.getLocations("c/Test.class"));
+		assertEquals(Collections.emptyList(), packageIndex.getLocations("d/Test.class"));
+		assertEquals(3, packageIndex.getPackageCount());
+	}
+
+	/**
+	 * Given a mix of indexed and unindexed locations when getLocations() is called then unindexed locations are always
+	 * returned and the original order is preserved.
+	 * @throws Exception
+	 */
+	public void testUnindexedLocationsAreAlwaysReturnedInOrder() throws Exception {
+		ResourceLocation l1 = new MockResourceLocation();
+		ResourceLocation l2 = new MockIndexedResourceLocation("a");
+		ResourceLocation l3 = new MockIndexedResourceLocation((String[]) null);
+		ResourceLocation l4 = new MockIndexedResourceLocation("a");
+		packageIndex.add(l1);
+		packageIndex.add(l2);
+		packageIndex.add(l3);
+		packageIndex.add(l4);
+		assertEquals(Arrays.asList(l1, l2, l3, l4), packageIndex.getLocations("a/Test.class"));
+		assertEquals(Arrays.asList(l1, l3), packageIndex.getLocations("b/Test.class"));
+	}
+
+	/**
+	 * Given a location that has already been added when add() is called again then the location is not duplicated.
+	 * @throws Exception
+	 */
+	public void testAddIgnoresDuplicates() throws Exception {
+		ResourceLocation l1 = new MockIndexedResourceLocation("a");
+		packageIndex.add(l1);
+		packageIndex.add(l1);
+		List<ResourceLocation> locations = packageIndex.getLocations("a/Test.class");
+		assertEquals(1, locations.size());
+	}
+
+	/**
+	 * Given locations added after a limit was taken when the limited methods are called then only the locations before
+	 * the limit are considered.
+	 * @throws Exception
+	 */
+	public void testLimitExcludesLaterLocations() throws Exception {
+		ResourceLocation l1 = new MockIndexedResourceLocation("a");
+		ResourceLocation l2 = new MockIndexedResourceLocation("a", "b");
+		packageIndex.add(l1);
+		int limit = packageIndex.size();
+		packageIndex.add(l2);
+		packageIndex.add(new MockResourceLocation());
+		assertEquals(3, packageIndex.size());
+		assertEquals(Arrays.asList(l1), packageIndex.getLocations("a/Test.class", limit));
+		assertEquals(Collections.emptyList(), packageIndex.getLocations("b/Test.class", limit));
+		assertFalse(packageIndex.mightContainPackage("b", limit));
+		assertEquals(Collections.singleton("a"), packageIndex.getPackageNames(limit));
+		assertEquals(Arrays.asList(l1, l2), packageIndex.getLocations("a/Test.class", 2));
+		assertNull(packageIndex.getPackageNames());
+	}
+
+	private static class MockResourceLocation implements ResourceLocation {
+
+		public URL getCodeSource() {
+			return null;
+		}
+
+		public ResourceHandle getResourceHandle(String resourceName) {
+			return null;
+		}
+
+		public Manifest getManifest() throws IOException {
+			return null;
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class MockIndexedResourceLocation extends MockResourceLocation implements IndexedResourceLocation {
+
+		private Set<String> packageNames;
+
+		public MockIndexedResourceLocation(String... packageNames) {
+			this.packageNames = (packageNames == null ? null : new HashSet<String>(Arrays.asList(packageNames)));
+		}
+
+		public Set<String> getPackageNames() {
+			return packageNames;
+		}
+	}
+}
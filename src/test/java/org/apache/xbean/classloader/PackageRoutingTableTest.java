@@ -0,0 +1,55 @@
+package org.apache.xbean.classloader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PackageRoutingTable}.
+ *
+ * @author Phillip Webb
+ */
+public class PackageRoutingTableTest extends TestCase {
+
+	private static final ClassLoader CLASS_LOADER = PackageRoutingTableTest.class.getClassLoader();
+
+	private static final ClassLoader OTHER_CLASS_LOADER = ClassLoader.getSystemClassLoader().getParent();
+
+	public void testAddRouteDoesNotReplace() throws Exception {
+		PackageRoutingTable routingTable = new PackageRoutingTable(0);
+		assertTrue(routingTable.addRoute("org.example", CLASS_LOADER));
+		assertFalse(routingTable.addRoute("org.example", OTHER_CLASS_LOADER));
+		assertSame(CLASS_LOADER, routingTable.getRoute("org.example"));
+		assertNull(routingTable.getRoute("org.other"));
+		assertEquals(1, routingTable.getRouteCount());
+	}
+
+	public void testAddNullRoute() throws Exception {
+		try {
+			new PackageRoutingTable(0).addRoute("org.example", null);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testHitRate() throws Exception {
+		PackageRoutingTable routingTable = new PackageRoutingTable(0);
+		assertEquals(0.0, routingTable.getHitRate(), 0.0);
+		routingTable.recordHit();
+		routingTable.recordHit();
+		routingTable.recordHit();
+		routingTable.recordMiss();
+		assertEquals(3, routingTable.getHitCount());
+		assertEquals(1, routingTable.getMissCount());
+		assertEquals(0.75, routingTable.getHitRate(), 0.0);
+	}
+
+	public void testCheckVersionClearsRoutes() throws Exception {
+		PackageRoutingTable routingTable = new PackageRoutingTable(0);
+		routingTable.addRoute("org.example", CLASS_LOADER);
+		routingTable.recordHit();
+		routingTable.checkVersion(0);
+		assertEquals(1, routingTable.getRouteCount());
+		routingTable.checkVersion(1);
+		assertEquals(0, routingTable.getRouteCount());
+		assertEquals(1, routingTable.getHitCount());
+	}
+}
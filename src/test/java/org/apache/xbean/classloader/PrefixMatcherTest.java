@@ -0,0 +1,105 @@
+package org.apache.xbean.classloader;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PrefixMatcher}.
+ *
+ * @author Phillip Webb
+ */
+public class PrefixMatcherTest extends TestCase {
+
+	public void testMatches() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(new String[] { "org.apache.", "com.example.Type", "javax" });
+		assertTrue(matcher.matches("org.apache."));
+		assertTrue(matcher.matches("org.apache.xbean.Type"));
+		assertTrue(matcher.matches("com.example.Type"));
+		assertTrue(matcher.matches("com.example.Type$Inner"));
+		assertTrue(matcher.matches("javax.servlet.Servlet"));
+		assertFalse(matcher.matches("org.apache"));
+		assertFalse(matcher.matches("org.example.Type"));
+		assertFalse(matcher.matches("com.example.Other"));
+		assertFalse(matcher.matches("java.lang.Object"));
+		assertFalse(matcher.matches(""));
+	}
+
+	public void testNoPrefixes() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(new String[0]);
+		assertFalse(matcher.matches(""));
+		assertFalse(matcher.matches("org.apache.xbean.Type"));
+	}
+
+	public void testEmptyPrefixMatchesEverything() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(new String[] { "org.apache.", "" });
+		assertTrue(matcher.matches(""));
+		assertTrue(matcher.matches("java.lang.Object"));
+	}
+
+	public void testOverlappingPrefixes() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(new String[] { "org.apache.xbean.", "org.apache.", "org.apache.x" });
+		assertTrue(matcher.matches("org.apache.commons.Type"));
+		assertTrue(matcher.matches("org.apache.xbean.Type"));
+		assertFalse(matcher.matches("org.example.Type"));
+	}
+
+	public void testMatchesSameAsStartsWith() throws Exception {
+		Random random = new Random(0);
+		String[] prefixes = new String[200];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixes[i] = randomName(random);
+		}
+		PrefixMatcher matcher = new PrefixMatcher(prefixes);
+		for (int i = 0; i < 10000; i++) {
+			String name = randomName(random) + randomName(random);
+			boolean expected = false;
+			for (String prefix : prefixes) {
+				expected |= name.startsWith(prefix);
+			}
+			assertEquals(name, expected, matcher.matches(name));
+		}
+	}
+
+	public void testHasPrefixExtending() throws Exception {
+		PrefixMatcher matcher = new PrefixMatcher(new String[] { "org.apache.", "com.example.Type", "com.example.sub.B",
+				"Default" });
+		assertTrue(matcher.hasPrefixExtending("com.example.", '.'));
+		assertTrue(matcher.hasPrefixExtending("com.example.sub.", '.'));
+		assertTrue(matcher.hasPrefixExtending("", '.'));
+		assertTrue(matcher.hasPrefixExtending("com.ex", 'x'));
+		assertFalse(matcher.hasPrefixExtending("com.", '.'));
+		assertFalse(matcher.hasPrefixExtending("com.example.Type", '.'));
+		assertFalse(matcher.hasPrefixExtending("org.apache.xbean.", '.'));
+		assertFalse(matcher.hasPrefixExtending("org.example.", '.'));
+		assertFalse(new PrefixMatcher(new String[0]).hasPrefixExtending("", '.'));
+	}
+
+	public void testHasPrefixExtendingSameAsScan() throws Exception {
+		Random random = new Random(0);
+		String[] prefixes = new String[50];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixes[i] = randomName(random) + (random.nextBoolean() ? "C" : "");
+		}
+		PrefixMatcher matcher = new PrefixMatcher(prefixes);
+		for (int i = 0; i < 10000; i++) {
+			String name = randomName(random);
+			boolean expected = false;
+			for (String prefix : prefixes) {
+				expected |= prefix.length() > name.length() && prefix.startsWith(name)
+						&& prefix.indexOf('.', name.length()) == -1;
+			}
+			expected &= !matcher.matches(name);
+			assertEquals(name, expected, matcher.hasPrefixExtending(name, '.'));
+		}
+	}
+
+	private String randomName(Random random) {
+		StringBuilder name = new StringBuilder();
+		int length = random.nextInt(4);
+		for (int i = 0; i < length; i++) {
+			name.append((char) ('a' + random.nextInt(3))).append('.');
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,68 @@
+package org.apache.xbean.classloader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ResourceNameFilter}.
+ *
+ * @author Phillip Webb
+ */
+public class ResourceNameFilterTest extends TestCase {
+
+	private static final int NAMES = 10000;
+
+	public void testMightContainAddedNames() throws Exception {
+		ResourceNameFilter filter = new ResourceNameFilter(NAMES);
+		for (int i = 0; i < NAMES; i++) {
+			filter.add("org/example/p" + (i % 10) + "/Class" + i + ".class");
+		}
+		for (int i = 0; i < NAMES; i++) {
+			assertTrue(filter.mightContain("org/example/p" + (i % 10) + "/Class" + i + ".class"));
+		}
+		assertEquals(NAMES, filter.getNameCount());
+	}
+
+	public void testFalsePositiveRate() throws Exception {
+		ResourceNameFilter filter = new ResourceNameFilter(NAMES);
+		for (int i = 0; i < NAMES; i++) {
+			filter.add("org/example/Class" + i + ".class");
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < NAMES; i++) {
+			falsePositives += (filter.mightContain("org/example/Missing" + i + ".class") ? 1 : 0);
+		}
+		double expected = filter.getExpectedFalsePositiveRate();
+		assertTrue("Expected rate " + expected, expected > 0.005 && expected < 0.01);
+		assertTrue("Actual false positives " + falsePositives, falsePositives < NAMES * 0.02);
+	}
+
+	public void testTrailingSlashIgnored() throws Exception {
+		ResourceNameFilter filter = new ResourceNameFilter(2);
+		filter.add("org/");
+		filter.add("org/example");
+		assertTrue(filter.mightContain("org"));
+		assertTrue(filter.mightContain("org/"));
+		assertTrue(filter.mightContain("org/example"));
+		assertTrue(filter.mightContain("org/example/"));
+	}
+
+	public void testEmptyFilter() throws Exception {
+		ResourceNameFilter filter = new ResourceNameFilter(0);
+		assertFalse(filter.mightContain("org/example/Class.class"));
+		assertEquals(0.0, filter.getExpectedFalsePositiveRate(), 0.0);
+		assertEquals(8, filter.getByteSize());
+	}
+
+	public void testByteSize() throws Exception {
+		ResourceNameFilter filter = new ResourceNameFilter(NAMES);
+		assertEquals(NAMES * ResourceNameFilter.BITS_PER_NAME / 8, filter.getByteSize(), 8);
+	}
+
+	public void testNegativeExpectedNames() throws Exception {
+		try {
+			new ResourceNameFilter(-1);
+			fail("Did not throw");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
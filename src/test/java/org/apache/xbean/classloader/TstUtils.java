@@ -1,10 +1,15 @@
 package org.apache.xbean.classloader;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
@@ -67,6 +72,83 @@ public class TstUtils {
 		return tempFolder;
 	}
 
+	/**
+	 * Create the bytes of a minimal public class that extends {@link Object} and has no members.
+	 * @param className the fully qualified class name
+	 * @return the class file bytes
+	 * @throws IOException
+	 */
+	public static byte[] createClassBytes(String className) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor version
+		out.writeShort(49); // major version (Java 5)
+		out.writeShort(5); // constant pool count
+		out.writeByte(7); // #1 this class
+		out.writeShort(2);
+		out.writeByte(1); // #2 this class name
+		out.writeUTF(className.replace('.', '/'));
+		out.writeByte(7); // #3 super class
+		out.writeShort(4);
+		out.writeByte(1); // #4 super class name
+		out.writeUTF("java/lang/Object");
+		out.writeShort(0x0021); // public super
+		out.writeShort(1); // this class
+		out.writeShort(3); // super class
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(0); // methods
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Create a jar containing minimal classes, see {@link #createClassBytes(String)}.
+	 * @param directory the directory to create the jar in
+	 * @param name the name of the jar without the <tt>.jar</tt> extension
+	 * @param classNames the fully qualified names of the classes
+	 * @return the jar file
+	 * @throws IOException
+	 */
+	public static File createJar(File directory, String name, String... classNames) throws IOException {
+		File file = new File(directory, name + ".jar");
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (String className : classNames) {
+				outputStream.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+				outputStream.write(createClassBytes(className));
+			}
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	/**
+	 * {@link File} that counts calls to {@link #lastModified()}, each of which is a <tt>stat</tt> system call.
+	 */
+	public static class StatCountingFile extends File {
+
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicInteger statCount = new AtomicInteger();
+
+		public StatCountingFile(File file) {
+			super(file.getPath());
+		}
+
+		public long lastModified() {
+			statCount.incrementAndGet();
+			return super.lastModified();
+		}
+
+		public int getStatCount() {
+			return statCount.get();
+		}
+	}
+
 	public static void assertFileExists(File file) {
 		Assert.assertTrue("File should exist: " + file, file.canRead());
 	}
@@ -17,20 +17,34 @@
 package org.apache.xbean.classloader;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
 import junit.framework.TestCase;
 
+import org.apache.xbean.classloader.ClassPathGenerator.GeneratedClassPath;
+import org.apache.xbean.classloader.ClassPathGenerator.Profile;
 import org.apache.xbean.classloader.UrlResourceFinder.JarFileFactory;
 
 public class UrlResourceFinderTest extends TestCase {
@@ -244,6 +258,293 @@ public class UrlResourceFinderTest extends TestCase {
 		assertFalse(enumeration.hasMoreElements());
 	}
 
+	public void testConcurrentLookupsDuringAddURL() throws Exception {
+		URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURI().toURL();
+		final UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { jar1 });
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						while (running.get()) {
+							// the first location always wins, regardless of the snapshot that is being read
+							ResourceHandle resource = resourceFinder.getResource("resource");
+							assertEquals("resource1", new String(resource.getBytes()));
+							assertNotNull(resourceFinder.findResource("resource"));
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			resourceFinder.addUrl(new File(basedir, "src/test-data/resourceFinderTest/jar2/").toURI().toURL());
+			resourceFinder.addUrl(jarFile.toURI().toURL());
+			resourceFinder.addUrl(alternateJarFile.toURI().toURL());
+		} finally {
+			running.set(false);
+			for (int i = 0; i < threads.length; i++) {
+				threads[i].join();
+			}
+		}
+		assertNull(failure.get());
+		assertEquals("jar4", new String(resourceFinder.getResource("jar4").getBytes()));
+	}
+
+	public void testWatchedFileIsAddedWhenItAppears() throws Exception {
+		File watchedJarFile = new File(basedir, "target/watched.jar");
+		watchedJarFile.delete();
+		URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURI().toURL();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { jar1,
+				watchedJarFile.toURI().toURL(), jarFile.toURI().toURL() });
+		try {
+			assertNull(resourceFinder.getResource("jar4"));
+			assertResources(resourceFinder.findResources("resource"), "resource1", "resource3");
+
+			copy(alternateJarFile, watchedJarFile);
+
+			// the new location is inserted at its class path position
+			assertEquals("jar4", new String(resourceFinder.getResource("jar4").getBytes()));
+			assertResources(resourceFinder.findResources("resource"), "resource1", "resource4", "resource3");
+		} finally {
+			resourceFinder.destroy();
+			watchedJarFile.delete();
+		}
+	}
+
+	public void testWatchedFileWithManifestClassPathIsAddedWhenItAppears() throws Exception {
+		File watchedJarFile = new File(basedir, "target/watched.jar");
+		watchedJarFile.delete();
+		URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURI().toURL();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { jar1,
+				watchedJarFile.toURI().toURL() });
+		try {
+			assertNull(resourceFinder.getResource("jar3"));
+
+			Manifest classPathManifest = new Manifest();
+			classPathManifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			classPathManifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, jarFile.getName());
+			JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(watchedJarFile),
+					classPathManifest);
+			IoUtil.close(jarOutputStream);
+
+			// locations from the manifest class path are also added
+			assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+			assertResources(resourceFinder.findResources("resource"), "resource1", "resource3");
+		} finally {
+			resourceFinder.destroy();
+			watchedJarFile.delete();
+		}
+	}
+
+	public void testWatchedFileIsNotCheckedWithNeverPolicy() throws Exception {
+		File watchedJarFile = new File(basedir, "target/watched.jar");
+		watchedJarFile.delete();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { watchedJarFile.toURI().toURL() });
+		try {
+			resourceFinder.setChangeDetectionPolicy(ChangeDetectionPolicy.NEVER);
+			copy(alternateJarFile, watchedJarFile);
+			assertNull(resourceFinder.getResource("jar4"));
+			resourceFinder.checkForChanges();
+			assertEquals("jar4", new String(resourceFinder.getResource("jar4").getBytes()));
+		} finally {
+			resourceFinder.destroy();
+			watchedJarFile.delete();
+		}
+	}
+
+	public void testOpeningExecutorKeepsClassPathOrder() throws Exception {
+		GeneratedClassPath generated = new ClassPathGenerator(1, Profile.small().nestedClassPathRatio(0.5))
+				.generate(TstUtils.createTempDir());
+		UrlResourceFinder sequentialFinder = new UrlResourceFinder(null, generated.getUrls());
+		UrlResourceFinder parallelFinder = new UrlResourceFinder(null);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			parallelFinder.setOpeningExecutor(executor);
+			parallelFinder.addUrls(generated.getUrls());
+			assertEquals(Collections.list(sequentialFinder.findResources(ClassPathGenerator.DUPLICATE_RESOURCE)),
+					Collections.list(parallelFinder.findResources(ClassPathGenerator.DUPLICATE_RESOURCE)));
+			assertEquals(sequentialFinder.getPackageNames(), parallelFinder.getPackageNames());
+			for (String resourceName : generated.getClassResourceNames()) {
+				assertEquals(sequentialFinder.findResource(resourceName), parallelFinder.findResource(resourceName));
+			}
+		} finally {
+			executor.shutdown();
+			sequentialFinder.destroy();
+			parallelFinder.destroy();
+			generated.delete();
+		}
+	}
+
+	public void testAddUrlAppendsToClassPath() throws Exception {
+		GeneratedClassPath generated = new ClassPathGenerator(2, Profile.small().nestedClassPathRatio(0.5))
+				.generate(TstUtils.createTempDir());
+		UrlResourceFinder allAtOnceFinder = new UrlResourceFinder(null, generated.getUrls());
+		UrlResourceFinder oneAtATimeFinder = new UrlResourceFinder(null);
+		try {
+			for (URL url : generated.getUrls()) {
+				oneAtATimeFinder.addUrl(url);
+				// adding the same URL again is ignored
+				oneAtATimeFinder.addUrl(url);
+			}
+			assertEquals(Arrays.asList(allAtOnceFinder.getUrls()), Arrays.asList(oneAtATimeFinder.getUrls()));
+			assertEquals(Collections.list(allAtOnceFinder.findResources(ClassPathGenerator.DUPLICATE_RESOURCE)),
+					Collections.list(oneAtATimeFinder.findResources(ClassPathGenerator.DUPLICATE_RESOURCE)));
+			assertEquals(allAtOnceFinder.getPackageNames(), oneAtATimeFinder.getPackageNames());
+			for (String resourceName : generated.getClassResourceNames()) {
+				URL resource = oneAtATimeFinder.findResource(resourceName);
+				assertNotNull(resourceName, resource);
+				assertEquals(allAtOnceFinder.findResource(resourceName), resource);
+			}
+		} finally {
+			allAtOnceFinder.destroy();
+			oneAtATimeFinder.destroy();
+			generated.delete();
+		}
+	}
+
+	public void testEqualUrlsAreOnlyAddedOnce() throws Exception {
+		URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURI().toURL();
+		URL jar2 = new File(basedir, "src/test-data/resourceFinderTest/jar2/").toURI().toURL();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { jar1, jar2 });
+		try {
+			resourceFinder.addUrls(new URL[] { new URL(jar2.toExternalForm()), new URL(jar1.toExternalForm()) });
+			assertEquals(Arrays.asList(jar1, jar2), Arrays.asList(resourceFinder.getUrls()));
+			assertSame(jar1, resourceFinder.getUrls()[0]);
+			assertEquals(2, Collections.list(resourceFinder.findResources("resource")).size());
+		} finally {
+			resourceFinder.destroy();
+		}
+	}
+
+	public void testLazyOpeningOnlyOpensUsedJars() throws Exception {
+		GeneratedClassPath generated = new ClassPathGenerator(3, Profile.small()).generate(TstUtils.createTempDir());
+		final AtomicInteger openCount = new AtomicInteger();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(new JarFileFactory() {
+			public JarFile newJarFile(File file) throws IOException {
+				openCount.incrementAndGet();
+				return new JarFile(file);
+			}
+		});
+		UrlResourceFinder eagerResourceFinder = new UrlResourceFinder(null, generated.getUrls());
+		try {
+			resourceFinder.setLazyOpening(true);
+			resourceFinder.addUrls(generated.getUrls());
+			assertEquals(0, openCount.get());
+			assertEquals(eagerResourceFinder.getPackageNames(), resourceFinder.getPackageNames());
+			assertNull(resourceFinder.findResource("missing/Resource"));
+			assertEquals(0, openCount.get());
+			String resourceName = generated.getClassResourceNames().get(0);
+			assertEquals(eagerResourceFinder.findResource(resourceName), resourceFinder.findResource(resourceName));
+			assertTrue(openCount.get() > 0);
+			assertTrue(openCount.get() < generated.getFiles().size());
+		} finally {
+			resourceFinder.destroy();
+			eagerResourceFinder.destroy();
+			generated.delete();
+		}
+	}
+
+	public void testReplacedNonLockingJarFileServesNewPackages() throws Exception {
+		File replacedJarFile = new File(basedir, "target/replaced.jar");
+		writeJar(replacedJarFile, "a/A.txt");
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(new JarFileFactory() {
+			public JarFile newJarFile(File file) throws IOException {
+				return new NonLockingJarFile(file);
+			}
+		}, new URL[] { replacedJarFile.toURI().toURL() });
+		try {
+			assertEquals("a/A.txt", new String(resourceFinder.getResource("a/A.txt").getBytes()));
+			assertNull(resourceFinder.getResource("b/B.txt"));
+			long lastModified = replacedJarFile.lastModified();
+			writeJar(replacedJarFile, "a/A.txt", "b/B.txt");
+			replacedJarFile.setLastModified(lastModified + 10000);
+			assertEquals("b/B.txt", new String(resourceFinder.getResource("b/B.txt").getBytes()));
+		} finally {
+			resourceFinder.destroy();
+			replacedJarFile.delete();
+		}
+	}
+
+	public void testReplacedNonLockingJarFileIsIndexedAgain() throws Exception {
+		File replacedJarFile = new File(basedir, "target/reindexed.jar");
+		writeJar(replacedJarFile, "a/A.txt");
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(new JarFileFactory() {
+			public JarFile newJarFile(File file) throws IOException {
+				return new NonLockingJarFile(file);
+			}
+		}, new URL[] { replacedJarFile.toURI().toURL() });
+		try {
+			assertEquals(Collections.singleton("a"), resourceFinder.getPackageNames());
+			assertFalse(resourceFinder.mightContainPackage("b"));
+			int classPathVersion = resourceFinder.getClassPathVersion();
+			long lastModified = replacedJarFile.lastModified();
+			writeJar(replacedJarFile, "a/A.txt", "b/B.txt");
+			replacedJarFile.setLastModified(lastModified + 10000);
+			assertTrue(resourceFinder.mightContainPackage("b"));
+			assertEquals(new HashSet<String>(Arrays.asList("a", "b")), resourceFinder.getPackageNames());
+			assertTrue(resourceFinder.getClassPathVersion() != classPathVersion);
+			assertEquals("b/B.txt", new String(resourceFinder.getResource("b/B.txt").getBytes()));
+		} finally {
+			resourceFinder.destroy();
+			replacedJarFile.delete();
+		}
+	}
+
+	public void testReplacedLazyJarFileIsIndexedAgain() throws Exception {
+		File replacedJarFile = new File(basedir, "target/lazy-reindexed.jar");
+		writeJar(replacedJarFile, "a/A.txt");
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(null);
+		resourceFinder.setLazyOpening(true);
+		resourceFinder.addUrls(new URL[] { replacedJarFile.toURI().toURL() });
+		try {
+			assertEquals(Collections.singleton("a"), resourceFinder.getPackageNames());
+			long lastModified = replacedJarFile.lastModified();
+			writeJar(replacedJarFile, "a/A.txt", "b/B.txt");
+			replacedJarFile.setLastModified(lastModified + 10000);
+			assertTrue(resourceFinder.mightContainPackage("b"));
+			assertEquals("b/B.txt", new String(resourceFinder.getResource("b/B.txt").getBytes()));
+		} finally {
+			resourceFinder.destroy();
+			replacedJarFile.delete();
+		}
+	}
+
+	public void testFailedAddUrlsOnlyClosesNewLocations() throws Exception {
+		final Map<String, AtomicInteger> closeCounts = new HashMap<String, AtomicInteger>();
+		UrlResourceFinder resourceFinder = new UrlResourceFinder(new JarFileFactory() {
+			public JarFile newJarFile(final File file) throws IOException {
+				final AtomicInteger closeCount = new AtomicInteger();
+				closeCounts.put(file.getName(), closeCount);
+				return new JarFile(file) {
+					public void close() throws IOException {
+						closeCount.incrementAndGet();
+						super.close();
+					}
+				};
+			}
+		}, new URL[] { jarFile.toURI().toURL() });
+		try {
+			try {
+				resourceFinder.addUrls(new URL[] { alternateJarFile.toURI().toURL(),
+						new URL("http://localhost/remote.jar") });
+				fail("Did not throw");
+			} catch (Error expected) {
+			}
+			assertEquals(1, closeCounts.get(alternateJarFile.getName()).get());
+			assertEquals(0, closeCounts.get(jarFile.getName()).get());
+			assertEquals(Arrays.asList(jarFile.toURI().toURL()), Arrays.asList(resourceFinder.getUrls()));
+			assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+			assertNull(resourceFinder.getResource("jar4"));
+		} finally {
+			resourceFinder.destroy();
+		}
+	}
+
 	public void testDirectoryDestroy() throws Exception {
 		URL jar = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURI().toURL();
 		UrlResourceFinder resourceFinder = new UrlResourceFinder(null, new URL[] { jar });
@@ -481,6 +782,35 @@ public class UrlResourceFinderTest extends TestCase {
 		super.tearDown();
 	}
 
+	private static void assertResources(Enumeration<URL> enumeration, String... expected) throws IOException {
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue(enumeration.hasMoreElements());
+			assertEquals(expected[i], toString(enumeration.nextElement().openStream()));
+		}
+		assertFalse(enumeration.hasMoreElements());
+	}
+
+	private static void writeJar(File file, String... names) throws IOException {
+		JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (String name : names) {
+				jarOutputStream.putNextEntry(new ZipEntry(name));
+				jarOutputStream.write(name.getBytes());
+			}
+		} finally {
+			IoUtil.close(jarOutputStream);
+		}
+	}
+
+	private static void copy(File source, File destination) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(destination);
+		try {
+			outputStream.write(IoUtil.getBytes(new FileInputStream(source)));
+		} finally {
+			IoUtil.close(outputStream);
+		}
+	}
+
 	private static String toString(InputStream in) throws IOException {
 		try {
 			byte[] bytes = IoUtil.getBytes(in);
@@ -0,0 +1,64 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for {@link WarmupProfile}.
+ *
+ * @author Phillip Webb
+ */
+public class WarmupProfileTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("warmup", ".profile");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testRecorderOnlyRecordsFirstFind() throws Exception {
+		WarmupProfile.Recorder recorder = new WarmupProfile.Recorder();
+		recorder.record(true, "a.A", System.nanoTime());
+		recorder.record(false, "a/A.class", System.nanoTime());
+		recorder.record(true, "a.A", System.nanoTime());
+		WarmupProfile profile = recorder.toProfile();
+		assertEquals(2, profile.getEntries().size());
+		assertEquals("a/A.class", profile.getEntries().get(0).getResourceName());
+		assertEquals("a/A.class", profile.getEntries().get(1).getResourceName());
+	}
+
+	public void testSaveAndLoad() throws Exception {
+		WarmupProfile.Recorder recorder = new WarmupProfile.Recorder();
+		recorder.record(true, "a.A", System.nanoTime() - 5000000);
+		recorder.record(false, "META-INF/services/a.Service", System.nanoTime());
+		WarmupProfile profile = recorder.toProfile();
+		profile.save(file);
+		WarmupProfile loaded = WarmupProfile.load(file);
+		assertEquals(2, loaded.getEntries().size());
+		for (int i = 0; i < 2; i++) {
+			WarmupProfile.Entry expected = profile.getEntries().get(i);
+			WarmupProfile.Entry actual = loaded.getEntries().get(i);
+			assertEquals(expected.isClass(), actual.isClass());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getTime(), actual.getTime());
+		}
+		assertTrue(loaded.getEntries().get(0).getTime() >= 5000);
+	}
+
+	public void testLoadInvalidFile() throws Exception {
+		FileUtils.writeStringToFile(file, "not a profile");
+		try {
+			WarmupProfile.load(file);
+			fail("Did not throw");
+		} catch (IOException e) {
+		}
+	}
+}
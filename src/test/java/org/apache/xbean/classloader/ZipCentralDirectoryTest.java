@@ -0,0 +1,210 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Tests for {@link ZipCentralDirectory}.
+ *
+ * @author Phillip Webb
+ */
+public class ZipCentralDirectoryTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		super.tearDown();
+	}
+
+	/**
+	 * Given a jar file when the central directory is read then it contains the same entries as {@link JarFile}.
+	 * @throws Exception
+	 */
+	public void testReadMatchesJarFile() throws Exception {
+		assertMatchesJarFile(ZipCentralDirectory.read(file), 0);
+	}
+
+	/**
+	 * Given a central directory when indexOf() is called then the index of each entry is returned.
+	 * @throws Exception
+	 */
+	public void testIndexOf() throws Exception {
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		for (int i = 0; i < centralDirectory.getSize(); i++) {
+			assertEquals(i, centralDirectory.indexOf(centralDirectory.getName(i)));
+		}
+		assertEquals(-1, centralDirectory.indexOf("missing"));
+		assertEquals(-1, centralDirectory.indexOf(""));
+	}
+
+	/**
+	 * Given entries with non-ASCII names when indexOf() is called then the names are matched.
+	 * @throws Exception
+	 */
+	public void testIndexOfNonAsciiNames() throws Exception {
+		File unicode = File.createTempFile("unicode", ".jar");
+		try {
+			JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(unicode));
+			try {
+				outputStream.putNextEntry(new JarEntry("caf\u00e9/na\u00efve.txt"));
+				outputStream.putNextEntry(new JarEntry("\u65e5\u672c.txt"));
+				outputStream.putNextEntry(new JarEntry("ascii.txt"));
+			} finally {
+				outputStream.close();
+			}
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(unicode);
+			assertEquals("caf\u00e9/na\u00efve.txt", centralDirectory.getName(0));
+			assertEquals(0, centralDirectory.indexOf("caf\u00e9/na\u00efve.txt"));
+			assertEquals(1, centralDirectory.indexOf("\u65e5\u672c.txt"));
+			assertEquals(2, centralDirectory.indexOf("ascii.txt"));
+			assertEquals(-1, centralDirectory.indexOf("cafe/naive.txt"));
+		} finally {
+			TstUtils.deleteTempFile(unicode);
+		}
+	}
+
+	/**
+	 * Given existing entries when create() is called then the central directory contains the entries without local
+	 * header offsets.
+	 * @throws Exception
+	 */
+	public void testCreate() throws Exception {
+		JarFile jarFile = new JarFile(file);
+		try {
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.create(Collections.list(jarFile.entries()));
+			int index = 0;
+			for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); index++) {
+				JarEntry entry = entries.nextElement();
+				assertEquals(index, centralDirectory.indexOf(entry.getName()));
+				assertEquals(entry.getSize(), centralDirectory.getSize(index));
+				assertEquals(entry.getCrc(), centralDirectory.getCrc(index));
+				assertEquals(entry.getTime(), ZipCentralDirectory.toJavaTime(centralDirectory.getDosTime(index)));
+				assertEquals(-1, centralDirectory.getLocalHeaderOffset(index));
+			}
+			assertEquals(index, centralDirectory.getSize());
+		} finally {
+			jarFile.close();
+		}
+	}
+
+	/**
+	 * Given a jar file with data prepended (for example a self extracting archive) when the central directory is read
+	 * then the local header offsets are adjusted.
+	 * @throws Exception
+	 */
+	public void testReadWithPrefix() throws Exception {
+		File prefixed = File.createTempFile("prefixed", ".jar");
+		try {
+			FileOutputStream outputStream = new FileOutputStream(prefixed);
+			try {
+				outputStream.write(new byte[100]);
+				FileInputStream inputStream = new FileInputStream(file);
+				try {
+					IOUtils.copy(inputStream, outputStream);
+				} finally {
+					inputStream.close();
+				}
+			} finally {
+				outputStream.close();
+			}
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(prefixed);
+			assertMatchesJarFile(centralDirectory, 100);
+			byte[] bytes = ZipEntryReader.read(prefixed, centralDirectory.getLocalHeaderOffset(0), centralDirectory
+					.getMethod(0), centralDirectory.getCompressedSize(0), centralDirectory.getSize(0), centralDirectory
+					.getCrc(0));
+			assertEquals(centralDirectory.getSize(0), bytes.length);
+		} finally {
+			TstUtils.deleteTempFile(prefixed);
+		}
+	}
+
+	/**
+	 * Given a Zip64 archive (more than 65535 entries) when the central directory is read then all entries are
+	 * returned.
+	 * @throws Exception
+	 */
+	public void testReadZip64() throws Exception {
+		File zip64 = File.createTempFile("zip64", ".jar");
+		try {
+			JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(zip64));
+			try {
+				for (int i = 0; i < 70000; i++) {
+					outputStream.putNextEntry(new JarEntry("entries/" + i));
+					outputStream.write(Integer.toString(i).getBytes());
+				}
+			} finally {
+				outputStream.close();
+			}
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(zip64);
+			assertEquals(70000, centralDirectory.getSize());
+			assertMatchesJarFile(zip64, centralDirectory, 0);
+			int last = centralDirectory.getSize() - 1;
+			byte[] bytes = ZipEntryReader.read(zip64, centralDirectory.getLocalHeaderOffset(last), centralDirectory
+					.getMethod(last), centralDirectory.getCompressedSize(last), centralDirectory.getSize(last),
+					centralDirectory.getCrc(last));
+			assertEquals("69999", new String(bytes));
+		} finally {
+			TstUtils.deleteTempFile(zip64);
+		}
+	}
+
+	/**
+	 * Given a file that is not a zip file when the central directory is read then a {@link ZipException} is thrown.
+	 * @throws Exception
+	 */
+	public void testReadInvalidFile() throws Exception {
+		TstUtils.doWithTempFile("not a zip file".getBytes(), new TstUtils.TempFileCallback() {
+			public void doWithFile(File file) throws Exception {
+				try {
+					ZipCentralDirectory.read(file);
+					fail("Did not throw");
+				} catch (ZipException e) {
+					assertEquals("Unable to find end of central directory record", e.getMessage());
+				}
+			}
+		});
+	}
+
+	private void assertMatchesJarFile(ZipCentralDirectory centralDirectory, long prefixLength) throws IOException {
+		assertMatchesJarFile(file, centralDirectory, prefixLength);
+	}
+
+	private void assertMatchesJarFile(File file, ZipCentralDirectory centralDirectory, long prefixLength)
+			throws IOException {
+		JarFile jarFile = new JarFile(file);
+		try {
+			int index = 0;
+			for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); index++) {
+				JarEntry entry = entries.nextElement();
+				assertEquals(entry.getName(), centralDirectory.getName(index));
+				assertEquals(entry.getMethod(), centralDirectory.getMethod(index));
+				assertEquals(entry.getSize(), centralDirectory.getSize(index));
+				assertEquals(entry.getCompressedSize(), centralDirectory.getCompressedSize(index));
+				assertEquals(entry.getCrc(), centralDirectory.getCrc(index));
+				assertEquals(entry.getTime(), ZipCentralDirectory.toJavaTime(centralDirectory.getDosTime(index)));
+				assertTrue(centralDirectory.getLocalHeaderOffset(index) >= prefixLength);
+			}
+			assertEquals(index, centralDirectory.getSize());
+		} finally {
+			jarFile.close();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Tests for {@link ZipEntryReader}.
+ *
+ * @author Phillip Webb
+ */
+public class ZipEntryReaderTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = TstUtils.createTempJarFile();
+	}
+
+	protected void tearDown() throws Exception {
+		TstUtils.deleteTempFile(file);
+		super.tearDown();
+	}
+
+	/**
+	 * Given a jar file when every entry is read then the data is identical to {@link ZipFile}.
+	 * @throws Exception
+	 */
+	public void testReadMatchesZipFile() throws Exception {
+		assertAllEntriesMatch(file);
+	}
+
+	/**
+	 * Given a zip file with stored (uncompressed) entries when entries are read then the data is correct.
+	 * @throws Exception
+	 */
+	public void testReadStoredEntries() throws Exception {
+		File stored = File.createTempFile("stored", ".zip");
+		try {
+			ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(stored));
+			try {
+				outputStream.setMethod(ZipEntry.STORED);
+				byte[] data = "stored data".getBytes();
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				ZipEntry entry = new ZipEntry("stored");
+				entry.setSize(data.length);
+				entry.setCompressedSize(data.length);
+				entry.setCrc(crc.getValue());
+				outputStream.putNextEntry(entry);
+				outputStream.write(data);
+			} finally {
+				outputStream.close();
+			}
+			assertAllEntriesMatch(stored);
+		} finally {
+			TstUtils.deleteTempFile(stored);
+		}
+	}
+
+	/**
+	 * Given an incorrect CRC when an entry is read then a {@link ZipException} is thrown.
+	 * @throws Exception
+	 */
+	public void testReadWithInvalidCrc() throws Exception {
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		try {
+			ZipEntryReader.read(file, centralDirectory.getLocalHeaderOffset(0), centralDirectory.getMethod(0),
+					centralDirectory.getCompressedSize(0), centralDirectory.getSize(0), centralDirectory.getCrc(0) + 1);
+			fail("Did not throw");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage().startsWith("Invalid entry CRC"));
+		}
+	}
+
+	/**
+	 * Given a deflated entry that cannot be inflated when it is read then a {@link ZipException} is thrown, and when
+	 * entries are read afterwards then the data is still correct.
+	 * @throws Exception
+	 */
+	public void testReadAfterInvalidCompressedData() throws Exception {
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		for (int i = 0; i < centralDirectory.getSize(); i++) {
+			if (centralDirectory.getMethod(i) == ZipEntry.DEFLATED && centralDirectory.getCompressedSize(i) > 2) {
+				try {
+					ZipEntryReader.read(file, centralDirectory.getLocalHeaderOffset(i), centralDirectory.getMethod(i),
+							centralDirectory.getCompressedSize(i) / 2, centralDirectory.getSize(i), centralDirectory
+									.getCrc(i));
+					fail("Did not throw");
+				} catch (ZipException e) {
+				}
+			}
+		}
+		assertAllEntriesMatch(file);
+		assertAllEntriesMatch(file);
+	}
+
+	/**
+	 * Given an entry has been read then the file is not locked.
+	 * @throws Exception
+	 */
+	public void testReadDoesNotLockFile() throws Exception {
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		ZipEntryReader.read(file, centralDirectory.getLocalHeaderOffset(0), centralDirectory.getMethod(0),
+				centralDirectory.getCompressedSize(0), centralDirectory.getSize(0), centralDirectory.getCrc(0));
+		assertTrue(file.delete());
+	}
+
+	private void assertAllEntriesMatch(File file) throws Exception {
+		ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(file);
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			for (int i = 0; i < centralDirectory.getSize(); i++) {
+				byte[] bytes = ZipEntryReader.read(file, centralDirectory.getLocalHeaderOffset(i), centralDirectory
+						.getMethod(i), centralDirectory.getCompressedSize(i), centralDirectory.getSize(i),
+						centralDirectory.getCrc(i));
+				InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(centralDirectory.getName(i)));
+				try {
+					assertTrue(centralDirectory.getName(i), Arrays.equals(IOUtils.toByteArray(inputStream), bytes));
+				} finally {
+					inputStream.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+	}
+}